@@ -0,0 +1,646 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * AlbumCatalog persists the contents of a PhotoAlbumModel. Every mutation is first
+ * appended to a journal and forced to disk, so an album survives a crash at any
+ * point. The journal is periodically folded into a binary snapshot in which
+ * repeated strings (folder paths in particular) are stored once and dates are
+ * plain epoch milliseconds, so loading a large album is a single pass over a
+ * memory-mapped file. Each photo is stored with the size and last-modified time
+ * its file had when it was recorded, and the metadata read from it.
+ *
+ * <p>Photos are stored in the order they were added. A sort does not reorder the
+ * stored photos; it only records which order the album is shown in, so removals
+ * always refer to positions in insertion order.
+ *
+ * <p>The snapshot records the generation of the journal that follows it. A journal
+ * with an older generation was already folded into the snapshot and is ignored,
+ * which keeps replay correct if a crash happens between writing the snapshot and
+ * resetting the journal.
+ *
+ * <p>A snapshot can also be written while mutations continue. {@link #rotateJournal()}
+ * sets the journal aside under its generation and starts the next one, and
+ * {@link #writeSnapshot(List, byte, long)} later writes the album as it was at that
+ * point. Until the snapshot is in place, loading replays the journals set aside
+ * after the last snapshot before the current one.
+ */
+public final class AlbumCatalog {
+    /** Journal operation that appends a photo. */
+    public static final byte OP_ADD = 1;
+    /** Journal operation that removes the photo at an index in insertion order. */
+    public static final byte OP_REMOVE = 2;
+    /** Sort operation meaning the album is shown in insertion order. */
+    public static final byte OP_SORT_NONE = 0;
+    /** Journal operation that sorts the album by name. */
+    public static final byte OP_SORT_BY_NAME = 3;
+    /** Journal operation that sorts the album by date added. */
+    public static final byte OP_SORT_BY_DATE = 4;
+    /** Journal operation that sorts the album by file size. */
+    public static final byte OP_SORT_BY_SIZE = 5;
+    /** Journal operation that sorts the album by the date the photos were taken. */
+    public static final byte OP_SORT_BY_DATE_TAKEN = 6;
+
+    private static final int SNAPSHOT_MAGIC = 0x50414C42; // "PALB"
+    private static final int JOURNAL_MAGIC = 0x50414A4E; // "PAJN"
+    private static final int VERSION = 1;
+    private static final int COMPACT_THRESHOLD = 10_000; // Journal records before a snapshot is due
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final Object snapshotLock = new Object(); // Serializes snapshot writes, which run unsynchronized
+    private long snapshotGeneration; // Generation of the snapshot on disk, guarded by snapshotLock
+    private FileChannel journal;
+    private long generation;
+    private int journalRecords; // Records not yet covered by a snapshot
+    private int rotatedRecords; // Records set aside by the latest rotation
+    private byte sortOp = OP_SORT_NONE;
+
+    /**
+     * Constructs a catalog stored in the given directory. Nothing is read until
+     * {@link #load()} is called.
+     *
+     * @param directory the directory holding the snapshot and journal files
+     */
+    public AlbumCatalog(File directory) {
+        this.snapshotFile = new File(directory, "album.snapshot");
+        this.journalFile = new File(directory, "album.journal");
+    }
+
+    /**
+     * Loads the album by reading the snapshot and replaying the journal on top of it.
+     * A torn record at the end of the journal, left by a crash during a write, is
+     * discarded. After loading, the catalog is ready to record mutations and
+     * {@link #getSortOp()} tells which order the album was last shown in.
+     *
+     * @return the photos of the album in insertion order
+     * @throws IOException if the files exist but cannot be read
+     */
+    public List<Photo> load() throws IOException {
+        List<Photo> photos = new ArrayList<>();
+        load(photos);
+        return photos;
+    }
+
+    /**
+     * Loads the album into the given list, which lets the caller choose how the
+     * photos are stored. Otherwise behaves like {@link #load()}.
+     *
+     * @param photos an empty list that receives the photos in insertion order
+     * @throws IOException if the files exist but cannot be read
+     */
+    public synchronized void load(List<Photo> photos) throws IOException {
+        Files.createDirectories(snapshotFile.getAbsoluteFile().getParentFile().toPath());
+        readSnapshot(photos);
+        synchronized (snapshotLock) {
+            snapshotGeneration = generation;
+        }
+        journalRecords = 0;
+        for (File rotated : rotatedJournals()) {
+            long rotatedGeneration = rotatedGeneration(rotated);
+            if (rotatedGeneration < generation) {
+                Files.delete(rotated.toPath()); // Folded into the snapshot before a crash removed it
+            } else if (rotatedGeneration == generation) {
+                try (FileChannel channel = FileChannel.open(rotated.toPath(), StandardOpenOption.READ)) {
+                    replayJournal(channel, photos);
+                }
+                generation++;
+            }
+        }
+
+        journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long validLength = journal.size() == 0 ? -1 : replayJournal(journal, photos);
+        if (validLength < 0) {
+            resetJournal(); // Stale or unreadable journal already covered by the snapshot
+        } else if (validLength < journal.size()) {
+            journal.truncate(validLength);
+        }
+    }
+
+    /**
+     * Retrieves the order the album was shown in when it was loaded.
+     *
+     * @return one of the OP_SORT_ constants, OP_SORT_NONE for insertion order
+     */
+    public synchronized byte getSortOp() {
+        return sortOp;
+    }
+
+    /**
+     * Records that a photo was appended to the album.
+     *
+     * @param photo the added photo
+     * @throws IOException if the record cannot be written
+     */
+    public void recordAdd(Photo photo) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_ADD);
+        writePhoto(out, photo);
+        append(Collections.singletonList(bytes.toByteArray()));
+    }
+
+    /**
+     * Records that several photos were appended to the album, forcing the journal
+     * to disk once for the whole group.
+     *
+     * @param photos the added photos, in order
+     * @throws IOException if the records cannot be written
+     */
+    public void recordAdds(Collection<Photo> photos) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<byte[]> payloads = new ArrayList<>(photos.size());
+        for (Photo photo : photos) {
+            bytes.reset();
+            out.writeByte(OP_ADD);
+            writePhoto(out, photo);
+            payloads.add(bytes.toByteArray());
+        }
+        append(payloads);
+    }
+
+    /**
+     * Records that the photo at the given index was removed.
+     *
+     * @param index the index in insertion order the photo had before removal
+     * @throws IOException if the record cannot be written
+     */
+    public void recordRemove(int index) throws IOException {
+        append(Collections.singletonList(ByteBuffer.allocate(5).put(OP_REMOVE).putInt(index).array()));
+    }
+
+    /**
+     * Records that several photos were removed, forcing the journal to disk once.
+     *
+     * @param indexes the insertion-order indexes of the removed photos in descending
+     *                order, so that each one is valid after the removals before it
+     * @throws IOException if the records cannot be written
+     */
+    public void recordRemoves(int[] indexes) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            payloads.add(ByteBuffer.allocate(5).put(OP_REMOVE).putInt(index).array());
+        }
+        append(payloads);
+    }
+
+    /**
+     * Records that the album is now shown in a different order.
+     *
+     * @param op one of OP_SORT_BY_NAME, OP_SORT_BY_DATE, OP_SORT_BY_SIZE or OP_SORT_BY_DATE_TAKEN
+     * @throws IOException if the record cannot be written
+     */
+    public void recordSort(byte op) throws IOException {
+        append(Collections.singletonList(new byte[] {op}));
+        synchronized (this) {
+            sortOp = op;
+        }
+    }
+
+    /**
+     * Checks whether the journal has grown enough that a snapshot should be written.
+     *
+     * @return true if {@link #writeSnapshot(List, byte)} is due
+     */
+    public synchronized boolean isCompactionDue() {
+        return journalRecords >= COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Writes the full album to a new snapshot and starts an empty journal.
+     *
+     * @param photos the current photos of the album, in insertion order
+     * @param sortOp the order the album is shown in, one of the OP_SORT_ constants
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot(List<Photo> photos, byte sortOp) throws IOException {
+        writeSnapshot(photos, sortOp, rotateJournal());
+        synchronized (this) {
+            this.sortOp = sortOp;
+        }
+    }
+
+    /**
+     * Sets the journal aside and starts an empty one, so that a snapshot of the
+     * album as it is now can be written while mutations continue to be recorded.
+     *
+     * @return the generation to pass to {@link #writeSnapshot(List, byte, long)}
+     * @throws IOException if the new journal cannot be started
+     */
+    public synchronized long rotateJournal() throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("Catalog has not been loaded");
+        }
+        journal.close();
+        try {
+            Files.move(journalFile.toPath(), rotatedJournal(generation).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            journal.position(journal.size());
+            throw e;
+        }
+        generation++;
+        rotatedRecords = journalRecords;
+        journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        resetJournal();
+        return generation;
+    }
+
+    /**
+     * Writes the album as it was when {@link #rotateJournal()} returned the given
+     * generation to a new snapshot, then deletes the journals it covers. Records
+     * appended meanwhile are not waited for, as they belong to the next journal.
+     *
+     * @param photos     the photos of the album at the rotation, in insertion order
+     * @param sortOp     the order the album was shown in at the rotation
+     * @param generation the generation returned by the rotation
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot(List<Photo> photos, byte sortOp, long generation) throws IOException {
+        synchronized (snapshotLock) {
+            if (generation <= snapshotGeneration) {
+                return; // A later snapshot is already in place
+            }
+            writeSnapshotFile(photos, sortOp, generation);
+            snapshotGeneration = generation;
+            for (File rotated : rotatedJournals()) {
+                if (rotatedGeneration(rotated) < generation) {
+                    Files.deleteIfExists(rotated.toPath());
+                }
+            }
+        }
+        synchronized (this) {
+            if (generation == this.generation) { // No later rotation set more records aside
+                journalRecords -= rotatedRecords;
+                rotatedRecords = 0;
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot file for the given journal generation and moves it into place.
+     */
+    private void writeSnapshotFile(List<Photo> photos, byte sortOp, long generation) throws IOException {
+        // Intern strings so each folder path is stored once
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        int[] records = new int[photos.size() * 3];
+        for (int i = 0; i < photos.size(); i++) {
+            Photo photo = photos.get(i);
+            String path = photo.getFilePath();
+            int split = path.lastIndexOf(File.separatorChar) + 1;
+            records[i * 3] = intern(photo.getName(), ids, table);
+            records[i * 3 + 1] = intern(path.substring(0, split), ids, table);
+            records[i * 3 + 2] = intern(path.substring(split), ids, table);
+        }
+
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeByte(sortOp);
+            out.writeInt(table.size());
+            for (String s : table) {
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+            out.writeInt(photos.size());
+            for (int i = 0; i < photos.size(); i++) {
+                Photo photo = photos.get(i);
+                out.writeInt(records[i * 3]);
+                out.writeInt(records[i * 3 + 1]);
+                out.writeInt(records[i * 3 + 2]);
+                out.writeLong(photo.getDateAdded().getTime());
+                out.writeLong(photo.getFileSize());
+                out.writeLong(photo.getLastModified());
+                writeMetadata(out, photo.getMetadata());
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Closes the journal. Records already written remain durable.
+     */
+    public synchronized void close() {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not close album journal " + journalFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the snapshot into the list and sets the journal generation it expects.
+     */
+    private void readSnapshot(List<Photo> photos) throws IOException {
+        generation = 0;
+        if (!snapshotFile.exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt(0) != SNAPSHOT_MAGIC || in.getInt(4) != VERSION) {
+                throw new IOException("Not an album snapshot: " + snapshotFile);
+            }
+            in.position(8);
+            generation = in.getLong();
+            sortOp = in.get();
+
+            String[] table = new String[in.getInt()];
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < table.length; i++) {
+                int length = in.getInt();
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                in.get(scratch, 0, length);
+                table[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+
+            int count = in.getInt();
+            if (photos instanceof ArrayList) {
+                ((ArrayList<Photo>) photos).ensureCapacity(count);
+            }
+            for (int i = 0; i < count; i++) {
+                String name = table[in.getInt()];
+                String path = table[in.getInt()].concat(table[in.getInt()]);
+                Date dateAdded = new Date(in.getLong());
+                long size = in.getLong();
+                long lastModified = in.getLong();
+                PhotoMetadata metadata = new PhotoMetadata(in.getLong(), in.getInt(), in.getInt(), in.get());
+                photos.add(new Photo(name, path, dateAdded, size, lastModified, metadata));
+            }
+        }
+    }
+
+    /**
+     * Applies a journal to the list. Returns the length of the valid prefix, or -1
+     * if the journal belongs to another generation or has no valid header.
+     */
+    private long replayJournal(FileChannel channel, List<Photo> photos) throws IOException {
+        long size = channel.size();
+        InputStream raw = Channels.newInputStream(channel.position(0));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16));
+        try {
+            if (in.readInt() != JOURNAL_MAGIC || in.readInt() != VERSION || in.readLong() != generation) {
+                return -1;
+            }
+        } catch (EOFException e) {
+            return -1;
+        }
+
+        long valid = 16;
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[64];
+        while (true) {
+            int length;
+            long checksum;
+            try {
+                length = in.readInt();
+                checksum = in.readInt() & 0xFFFFFFFFL;
+                if (length <= 0 || valid + 8 + length > size) {
+                    break;
+                }
+                if (length > payload.length) {
+                    payload = new byte[length];
+                }
+                in.readFully(payload, 0, length);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload, 0, length);
+            if (crc.getValue() != checksum) {
+                break; // Torn write
+            }
+            apply(photos, new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+            valid += 8 + length;
+            journalRecords++;
+        }
+        channel.position(valid);
+        return valid;
+    }
+
+    /**
+     * Applies one journal record to the list.
+     */
+    private void apply(List<Photo> photos, DataInputStream record) throws IOException {
+        byte op = record.readByte();
+        switch (op) {
+            case OP_ADD:
+                photos.add(readPhoto(record));
+                break;
+            case OP_REMOVE:
+                int index = record.readInt();
+                if (index >= 0 && index < photos.size()) {
+                    photos.remove(index);
+                }
+                break;
+            case OP_SORT_BY_NAME:
+            case OP_SORT_BY_DATE:
+            case OP_SORT_BY_SIZE:
+            case OP_SORT_BY_DATE_TAKEN:
+                sortOp = op;
+                break;
+            default:
+                throw new IOException("Unknown journal operation: " + op);
+        }
+    }
+
+    /**
+     * Returns the sorting strategy that a sort operation stands for.
+     *
+     * @param op one of OP_SORT_BY_NAME, OP_SORT_BY_DATE, OP_SORT_BY_SIZE or OP_SORT_BY_DATE_TAKEN
+     * @return the matching SortingStrategy
+     * @throws IllegalArgumentException if op is not a sort operation
+     */
+    public static SortingStrategy sortingStrategy(byte op) {
+        switch (op) {
+            case OP_SORT_BY_NAME:
+                return new SortByName();
+            case OP_SORT_BY_DATE:
+                return new SortByDate();
+            case OP_SORT_BY_SIZE:
+                return new SortBySize();
+            case OP_SORT_BY_DATE_TAKEN:
+                return new SortByDateTaken();
+            default:
+                throw new IllegalArgumentException("Not a sort operation: " + op);
+        }
+    }
+
+    /**
+     * Appends checksummed records and forces them to disk together. If this fails,
+     * the journal is cut back to its previous end before the exception is thrown.
+     */
+    private synchronized void append(List<byte[]> payloads) throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("Catalog has not been loaded");
+        }
+        int total = 0;
+        for (byte[] payload : payloads) {
+            total += 8 + payload.length;
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer records = ByteBuffer.allocate(total);
+        for (byte[] payload : payloads) {
+            crc.reset();
+            crc.update(payload);
+            records.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        }
+        records.flip();
+        long start = journal.position();
+        try {
+            while (records.hasRemaining()) {
+                journal.write(records);
+            }
+            journal.force(false);
+        } catch (IOException e) {
+            // Cut off what was written, so the next record does not follow a torn one
+            try {
+                journal.truncate(start);
+                journal.position(start);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw e;
+        }
+        journalRecords += payloads.size();
+    }
+
+    /**
+     * Empties the journal and stamps it with the current generation.
+     */
+    private void resetJournal() throws IOException {
+        journal.truncate(0);
+        journal.position(0);
+        writeJournalHeader();
+        journal.force(true);
+    }
+
+    /**
+     * Returns the journals set aside by rotation, by ascending generation.
+     */
+    private List<File> rotatedJournals() {
+        String prefix = journalFile.getName() + ".";
+        File[] files = journalFile.getAbsoluteFile().getParentFile().listFiles(
+                (directory, name) -> name.startsWith(prefix) && name.substring(prefix.length()).matches("[0-9]+"));
+        List<File> rotated = new ArrayList<>(files == null ? Collections.emptyList() : Arrays.asList(files));
+        rotated.sort(Comparator.comparingLong(AlbumCatalog::rotatedGeneration));
+        return rotated;
+    }
+
+    /**
+     * Returns the file a journal of the given generation is set aside as.
+     */
+    private File rotatedJournal(long journalGeneration) {
+        return new File(journalFile.getPath() + "." + journalGeneration);
+    }
+
+    /**
+     * Returns the generation a rotated journal was set aside under.
+     */
+    private static long rotatedGeneration(File rotated) {
+        String name = rotated.getName();
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * Writes the journal header at the current position.
+     */
+    private void writeJournalHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16).putInt(JOURNAL_MAGIC).putInt(VERSION).putLong(generation);
+        header.flip();
+        while (header.hasRemaining()) {
+            journal.write(header);
+        }
+    }
+
+    /**
+     * Returns the table index of the string, adding it if it is new.
+     */
+    private static int intern(String s, Map<String, Integer> ids, List<String> table) {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = table.size();
+            ids.put(s, id);
+            table.add(s);
+        }
+        return id;
+    }
+
+    /**
+     * Writes the fields of a photo to a journal record.
+     */
+    private static void writePhoto(DataOutputStream out, Photo photo) throws IOException {
+        out.writeUTF(photo.getName());
+        out.writeUTF(photo.getFilePath());
+        out.writeLong(photo.getDateAdded().getTime());
+        out.writeLong(photo.getFileSize());
+        out.writeLong(photo.getLastModified());
+        writeMetadata(out, photo.getMetadata());
+    }
+
+    /**
+     * Writes the metadata of a photo: capture date, width, height and orientation.
+     */
+    private static void writeMetadata(DataOutputStream out, PhotoMetadata metadata) throws IOException {
+        out.writeLong(metadata.getDateTaken());
+        out.writeInt(metadata.getWidth());
+        out.writeInt(metadata.getHeight());
+        out.writeByte(metadata.getOrientation());
+    }
+
+    /**
+     * Reads the fields of a photo from a journal record.
+     */
+    private static Photo readPhoto(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        String path = in.readUTF();
+        Date dateAdded = new Date(in.readLong());
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        PhotoMetadata metadata = new PhotoMetadata(in.readLong(), in.readInt(), in.readInt(), in.readByte());
+        return new Photo(name, path, dateAdded, size, lastModified, metadata);
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.Collections;
+import java.util.List;
+import javax.swing.event.ChangeEvent;
+
+/**
+ * AlbumChangeEvent describes exactly what changed in a PhotoAlbumModel, so that
+ * listeners can update themselves in proportion to the size of the change rather
+ * than the size of the album. An event holds one or more deltas which must be
+ * applied in order; each delta's indexes refer to the album as it was after the
+ * preceding deltas were applied.
+ *
+ * <p>An event may also carry a snapshot of the album as it stood right after the
+ * deltas, which listeners called on another thread can read safely even if the
+ * album has changed again by the time they run.
+ *
+ * <p>Because it extends ChangeEvent, listeners that only need to know that
+ * something changed can keep ignoring the details.
+ */
+public class AlbumChangeEvent extends ChangeEvent {
+    private final List<Delta> deltas;
+    private final AlbumSnapshot snapshot;
+
+    /**
+     * Constructs an event carrying the given deltas.
+     *
+     * @param source the model that changed
+     * @param deltas the changes, in the order they were made
+     */
+    public AlbumChangeEvent(Object source, List<Delta> deltas) {
+        this(source, deltas, null);
+    }
+
+    /**
+     * Constructs an event carrying the given deltas and the album they led to.
+     *
+     * @param source   the model that changed
+     * @param deltas   the changes, in the order they were made
+     * @param snapshot the album after the changes, or null if not provided
+     */
+    public AlbumChangeEvent(Object source, List<Delta> deltas, AlbumSnapshot snapshot) {
+        super(source);
+        this.deltas = Collections.unmodifiableList(deltas);
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Retrieves the changes carried by this event.
+     *
+     * @return the deltas, in the order they must be applied
+     */
+    public List<Delta> getDeltas() {
+        return deltas;
+    }
+
+    /**
+     * Retrieves the album as it stood right after the changes of this event.
+     *
+     * @return the snapshot, or null if the event does not carry one
+     */
+    public AlbumSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * The kinds of change a delta can describe.
+     */
+    public enum Type {
+        /** Photos were inserted into a contiguous index range. */
+        INSERTED,
+        /** Photos were removed from a contiguous index range. */
+        REMOVED,
+        /** The whole album was reordered, and the permutation is provided. */
+        PERMUTED,
+        /** The whole album switched to a different order; no permutation is provided. */
+        REORDERED
+    }
+
+    /**
+     * A single change to the album.
+     */
+    public static final class Delta {
+        private final Type type;
+        private final int firstIndex;
+        private final int lastIndex;
+        private final List<Photo> photos;
+        private final int[] permutation;
+
+        private Delta(Type type, int firstIndex, int lastIndex, List<Photo> photos, int[] permutation) {
+            this.type = type;
+            this.firstIndex = firstIndex;
+            this.lastIndex = lastIndex;
+            this.photos = photos;
+            this.permutation = permutation;
+        }
+
+        /**
+         * Creates a delta for photos inserted starting at the given index.
+         *
+         * @param firstIndex the index of the first inserted photo
+         * @param photos     the inserted photos, in order
+         * @return the delta
+         */
+        public static Delta inserted(int firstIndex, List<Photo> photos) {
+            return new Delta(Type.INSERTED, firstIndex, firstIndex + photos.size() - 1,
+                    Collections.unmodifiableList(photos), null);
+        }
+
+        /**
+         * Creates a delta for photos removed from an index range.
+         *
+         * @param firstIndex the index of the first removed photo
+         * @param lastIndex  the index of the last removed photo, inclusive
+         * @return the delta
+         */
+        public static Delta removed(int firstIndex, int lastIndex) {
+            return new Delta(Type.REMOVED, firstIndex, lastIndex, Collections.emptyList(), null);
+        }
+
+        /**
+         * Creates a delta for a reordering of the whole album.
+         *
+         * @param permutation for each new index, the index the photo had before
+         * @return the delta
+         */
+        public static Delta permuted(int[] permutation) {
+            return new Delta(Type.PERMUTED, 0, permutation.length - 1, Collections.emptyList(), permutation);
+        }
+
+        /**
+         * Creates a delta for a switch of the whole album to another order, when
+         * computing the permutation would cost more than the switch itself.
+         *
+         * @param size the number of photos in the album
+         * @return the delta
+         */
+        public static Delta reordered(int size) {
+            return new Delta(Type.REORDERED, 0, size - 1, Collections.emptyList(), null);
+        }
+
+        /**
+         * Retrieves the kind of change.
+         *
+         * @return the delta type
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Retrieves the first index affected by the change.
+         *
+         * @return the first index of the range
+         */
+        public int getFirstIndex() {
+            return firstIndex;
+        }
+
+        /**
+         * Retrieves the last index affected by the change, inclusive.
+         *
+         * @return the last index of the range
+         */
+        public int getLastIndex() {
+            return lastIndex;
+        }
+
+        /**
+         * Retrieves the inserted photos. Empty for other delta types.
+         *
+         * @return the inserted photos, in order
+         */
+        public List<Photo> getPhotos() {
+            return photos;
+        }
+
+        /**
+         * Retrieves the reordering of a PERMUTED delta: element i holds the index that
+         * the photo now at index i had before. Null for other delta types.
+         *
+         * @return the permutation array, which must not be modified
+         */
+        public int[] getPermutation() {
+            return permutation;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * AlbumSnapshot is an immutable view of the photos of a PhotoAlbumModel, in the
+ * order they were shown in, as they stood at one version of the album. Any number
+ * of threads may read a snapshot without locking while the album goes on changing.
+ */
+public final class AlbumSnapshot extends AbstractList<Photo> implements RandomAccess {
+    private final long version;
+    private final List<Photo> photos;
+
+    /**
+     * Constructs a snapshot over a list that nothing will change.
+     *
+     * @param version the version of the album the photos belong to
+     * @param photos  the photos, in order
+     */
+    AlbumSnapshot(long version, List<Photo> photos) {
+        this.version = version;
+        this.photos = photos;
+    }
+
+    /**
+     * Retrieves the version of the album this snapshot was taken at. Versions
+     * increase by one each time the album's changes are delivered to listeners.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the number of photos in the snapshot.
+     *
+     * @return the size of the snapshot
+     */
+    @Override
+    public int size() {
+        return photos.size();
+    }
+
+    /**
+     * Retrieves the photo at a position.
+     *
+     * @param index the position
+     * @return the photo at that position
+     * @throws IndexOutOfBoundsException if the index is invalid
+     */
+    @Override
+    public Photo get(int index) {
+        return photos.get(index);
+    }
+}
@@ -0,0 +1,590 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * AlbumSync keeps an album in step with the folders its photos were imported
+ * from, so files created, edited or deleted outside the application show up
+ * without importing again. Each synced folder tree is watched through a
+ * {@link WatchService}. Events are collected until the tree has been quiet for a
+ * moment, or a burst has gone on for too long, and then applied to the model as
+ * one batch: new images are added, vanished ones removed, and edited ones replaced
+ * by a record with their new size, last-modified time and metadata that keeps the
+ * original name and date added. A listener is told of every edited or vanished file so that cached
+ * renditions of it can be dropped. An image that is on disk but cannot be read yet, for instance
+ * because it is still being written, is left as it is and tried again after the next quiet period.
+ *
+ * <p>Changes made while the application was closed are found on start by walking
+ * the synced trees once, comparing file attributes with the album rather than
+ * reading any file: files that are gone are removed, and files whose size or
+ * last-modified time differs from the one recorded for the photo are read again.
+ * Files not in the album are only added if they appeared since the previous
+ * session, so photos removed from the album on purpose are not brought back.
+ *
+ * <p>The synced folders and the time of the last sync are kept in a small state
+ * file in the album directory. The model is changed on the sync's own thread.
+ */
+public final class AlbumSync {
+    private static final long DEBOUNCE_NANOS = TimeUnit.MILLISECONDS.toNanos(500); // Quiet time before applying
+    private static final long MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(3); // Longest wait during a steady stream
+    private static final long POLL_MILLIS = 100;
+    private static final long MTIME_SLACK_MILLIS = 2000; // Coarsest common timestamp resolution (FAT)
+    private static final int MAX_RETRIES = 5; // Quiet periods an unreadable file is retried before its next event
+    private static final LatencyHistogram BATCH_TIME = Metrics.getShared().histogram("syncBatch");
+    private static final Counter EVENTS = Metrics.getShared().counter("syncEvents");
+
+    private final PhotoAlbumModel model;
+    private final File stateFile;
+    private final Consumer<String> changeListener;
+    private final Set<Path> roots = new LinkedHashSet<>(); // Synced folder trees, guarded by this
+    private long lastSync; // Changes made before this time, less the slack, are in the album; guarded by this
+    private final Queue<Path> addedRoots = new ConcurrentLinkedQueue<>(); // Roots waiting to be watched
+    private final Map<WatchKey, Path> directories = new HashMap<>(); // Watched directories, sync thread only
+    private final Set<Path> pending = new LinkedHashSet<>(); // Paths with unapplied events, sync thread only
+    private final Map<Path, Integer> retries = new HashMap<>(); // Retries of each unreadable path, sync thread only
+    private long firstEventNanos; // When the oldest pending event arrived
+    private long lastEventNanos; // When the newest pending event arrived
+    private long firstEventMillis; // Wall-clock time of the oldest pending event
+    private boolean rescanNeeded; // Events were lost, so the trees must be walked again
+    private boolean current; // The start-up scan is done and the thread has not failed since
+    private WatchService watcher;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Constructs a sync for an album, reading the synced folders from the album
+     * directory. Nothing is watched until {@link #start()} is called.
+     *
+     * @param model            the album to keep current
+     * @param albumDirectory   the directory holding the album's catalog
+     * @param changeListener   told, on the sync thread, of the path of every file whose
+     *                         contents changed or that was removed
+     */
+    public AlbumSync(PhotoAlbumModel model, File albumDirectory, Consumer<String> changeListener) {
+        this.model = model;
+        this.stateFile = new File(albumDirectory, "sync.state");
+        this.changeListener = changeListener;
+        readState();
+    }
+
+    /**
+     * Retrieves the folder trees kept in sync.
+     *
+     * @return a copy of the synced folders
+     */
+    public synchronized List<Path> getRoots() {
+        return new ArrayList<>(roots);
+    }
+
+    /**
+     * Keeps a folder tree in sync from now on, typically one just imported. Its
+     * current contents are assumed to be in the album already.
+     *
+     * @param root the folder to sync
+     * @throws UncheckedIOException if the synced folders cannot be saved
+     */
+    public void addRoot(Path root) {
+        Path absolute = root.toAbsolutePath().normalize();
+        synchronized (this) {
+            if (!roots.add(absolute)) {
+                return;
+            }
+            if (lastSync == 0) {
+                lastSync = System.currentTimeMillis();
+            }
+        }
+        try {
+            writeState();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not save synced folders", e);
+        }
+        if (running) {
+            addedRoots.add(absolute); // Registered by the sync thread
+        }
+    }
+
+    /**
+     * Starts the sync thread, which first catches up with changes made since the
+     * last session and then follows file events until {@link #close()}.
+     *
+     * @throws IOException if no WatchService is available
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        watcher = FileSystems.getDefault().newWatchService();
+        running = true;
+        thread = new Thread(this::run, "album-sync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Brings the album up to date with the synced folders once, without watching
+     * them, and records the time of the sync.
+     *
+     * @return the number of files added, replaced or removed
+     * @throws IOException if the state cannot be saved
+     */
+    public int reconcile() throws IOException {
+        long started = System.currentTimeMillis();
+        int changed = apply(scan(false), new ArrayList<>()); // Unreadable files are left for the next sync
+        synchronized (this) {
+            lastSync = started;
+        }
+        writeState();
+        return changed;
+    }
+
+    /**
+     * Stops following file events and saves the time up to which the album is
+     * known to be current. Events not applied yet are left to the next start,
+     * whose scan finds the files they were about.
+     */
+    public void close() {
+        Thread syncThread;
+        synchronized (this) {
+            syncThread = thread;
+            thread = null;
+        }
+        if (syncThread == null) {
+            return;
+        }
+        long stopped = System.currentTimeMillis();
+        running = false;
+        try {
+            watcher.close();
+            syncThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (IOException e) {
+            System.err.println("Could not close file watcher: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (syncThread.isAlive()) {
+                return; // Still applying a batch; the saved state stays conservative
+            }
+            if (current && pending.isEmpty() && !rescanNeeded) {
+                lastSync = stopped; // Every event up to now was applied
+            } else if (!pending.isEmpty()) {
+                lastSync = Math.min(lastSync, firstEventMillis); // Found again by the next start-up scan
+            }
+        }
+        try {
+            writeState();
+        } catch (IOException e) {
+            System.err.println("Could not save sync state " + stateFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Body of the sync thread: the start-up scan, then the event loop.
+     */
+    private void run() {
+        try {
+            long started = System.currentTimeMillis();
+            applyAndRetry(scan(true));
+            synchronized (this) {
+                lastSync = started;
+                current = true;
+            }
+            writeState();
+
+            while (running) {
+                WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                for (Path root = addedRoots.poll(); root != null; root = addedRoots.poll()) {
+                    register(root);
+                }
+                if (key != null) {
+                    collect(key);
+                }
+                if (rescanNeeded) {
+                    pending.clear(); // The scan covers them
+                    applyAndRetry(scan(true));
+                    rescanNeeded = false;
+                }
+                long now = System.nanoTime();
+                if (!pending.isEmpty() && (now - lastEventNanos >= DEBOUNCE_NANOS
+                        || now - firstEventNanos >= MAX_DELAY_NANOS)) {
+                    List<Path> batch = new ArrayList<>(pending);
+                    pending.clear();
+                    applyAndRetry(batch);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed by close()
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Album sync stopped: " + e.getMessage());
+            synchronized (this) {
+                current = false; // Later changes are left to the next start-up scan
+            }
+        }
+    }
+
+    /**
+     * Moves the events of a watched directory into the pending set. A new
+     * directory is watched at once and its files queued, since they may have
+     * been created before the watch was in place.
+     */
+    private void collect(WatchKey key) throws IOException {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            EVENTS.increment();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                rescanNeeded = true;
+                continue;
+            }
+            Path child = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                for (Path file : walk(child, true).keySet()) {
+                    queue(file);
+                }
+            } else {
+                queue(child);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key); // The directory is gone
+        }
+    }
+
+    /**
+     * Adds a path to the pending set and restarts the quiet period.
+     */
+    private void queue(Path path) {
+        long now = System.nanoTime();
+        if (pending.isEmpty()) {
+            firstEventNanos = now;
+            firstEventMillis = System.currentTimeMillis();
+        }
+        lastEventNanos = now;
+        pending.add(path);
+    }
+
+    /**
+     * Compares the synced trees with the album using file attributes only, and
+     * returns the paths that need to be applied: album photos that are gone or
+     * whose size or last-modified time differs from the recorded one, and files
+     * that are not in the album but appeared since the last sync.
+     *
+     * @param watch true to watch every directory walked
+     */
+    private List<Path> scan(boolean watch) throws IOException {
+        List<Path> scanRoots;
+        long since;
+        synchronized (this) {
+            scanRoots = new ArrayList<>(roots);
+            since = lastSync - MTIME_SLACK_MILLIS;
+        }
+        Map<Path, BasicFileAttributes> onDisk = new HashMap<>();
+        List<String> prefixes = new ArrayList<>();
+        for (Path root : scanRoots) {
+            onDisk.putAll(walk(root, watch));
+            prefixes.add(root.toString().endsWith(File.separator) ? root.toString() : root + File.separator);
+        }
+
+        List<Path> changed = new ArrayList<>();
+        for (Photo photo : model.getSnapshot()) {
+            String filePath = photo.getFilePath();
+            if (!isUnder(filePath, prefixes)) {
+                continue;
+            }
+            Path path = new File(filePath).toPath();
+            BasicFileAttributes attrs = onDisk.remove(path);
+            if (attrs == null || attrs.size() != photo.getFileSize()
+                    || attrs.lastModifiedTime().toMillis() != photo.getLastModified()) {
+                changed.add(path);
+            }
+        }
+        for (Map.Entry<Path, BasicFileAttributes> file : onDisk.entrySet()) {
+            BasicFileAttributes attrs = file.getValue();
+            if (attrs.lastModifiedTime().toMillis() >= since || attrs.creationTime().toMillis() >= since) {
+                changed.add(file.getKey()); // Moved in or created since the last sync
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Walks a tree, optionally watching each of its directories, and returns its
+     * image files with their attributes.
+     */
+    private Map<Path, BasicFileAttributes> walk(Path root, boolean watch) throws IOException {
+        Map<Path, BasicFileAttributes> files = new HashMap<>();
+        if (!Files.isDirectory(root)) {
+            return files; // Unmounted or deleted; its photos are left alone
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) throws IOException {
+                if (watch) {
+                    watchDirectory(directory);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && PhotoImporter.isImageFile(file.getFileName().toString())) {
+                    files.put(file, attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE; // Skip unreadable entries
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Watches every directory of a newly added root.
+     */
+    private void register(Path root) throws IOException {
+        walk(root, true);
+    }
+
+    /**
+     * Watches one directory for created, modified and deleted entries. A
+     * directory that cannot be watched, for example because the system limit on
+     * watches is reached, is reported and left to the next start-up scan.
+     */
+    private void watchDirectory(Path directory) {
+        try {
+            WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            directories.put(key, directory);
+        } catch (IOException e) {
+            System.err.println("Could not watch " + directory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a batch of changed paths and queues the images that could not be
+     * read for the next quiet period. A path is retried at most
+     * {@link #MAX_RETRIES} times in a row; after that it waits for its next event
+     * or the next start-up scan.
+     */
+    private void applyAndRetry(Collection<Path> paths) {
+        Set<Path> unreadable = new HashSet<>();
+        apply(paths, unreadable);
+        if (!retries.isEmpty()) {
+            for (Path path : paths) {
+                if (!unreadable.contains(path)) {
+                    retries.remove(path);
+                }
+            }
+        }
+        for (Path path : unreadable) {
+            if (retries.merge(path, 1, Integer::sum) <= MAX_RETRIES) {
+                queue(path);
+            } else {
+                retries.remove(path);
+            }
+        }
+    }
+
+    /**
+     * Applies a batch of changed paths to the album as one change: each path is
+     * looked up on disk and in the album, and the photo added, replaced or
+     * removed accordingly. A path that is neither an image nor on disk may be a
+     * deleted directory, whose photos are removed. Only the headers of files
+     * that are added or replaced are read. An image file whose headers cannot be
+     * read is not touched, since it may still be being written; only photos whose
+     * file is missing are removed.
+     *
+     * @param paths the changed paths
+     * @param unreadable receives the image files that exist but could not be read
+     * @return the number of photos added, replaced or removed
+     */
+    private int apply(Collection<Path> paths, Collection<Path> unreadable) {
+        if (paths.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        List<Photo> removals = new ArrayList<>();
+        List<Photo> additions = new ArrayList<>();
+        List<String> changed = new ArrayList<>(); // Files whose renditions are stale
+        List<String> deletedDirectories = new ArrayList<>();
+        for (Path path : paths) {
+            String filePath = path.toString();
+            String fileName = path.getFileName().toString();
+            Photo existing = model.getPhotoByPath(filePath);
+            BasicFileAttributes attrs = attributes(path);
+            if (attrs == null && existing == null && !PhotoImporter.isImageFile(fileName)) {
+                deletedDirectories.add(filePath.endsWith(File.separator) ? filePath : filePath + File.separator);
+                continue;
+            }
+            long lastModified = attrs != null ? attrs.lastModifiedTime().toMillis() : 0;
+            PhotoMetadata metadata = null;
+            if (attrs != null && attrs.isRegularFile() && PhotoImporter.isImageFile(fileName)) {
+                try {
+                    metadata = PhotoMetadataReader.getShared().read(path, attrs.size(), lastModified);
+                } catch (IOException e) {
+                    metadata = null;
+                }
+                if (metadata == null) {
+                    unreadable.add(path); // For instance still being written; the photo stays as it was
+                    continue;
+                }
+            }
+
+            if (metadata == null) {
+                if (existing != null) {
+                    removals.add(existing);
+                    changed.add(filePath);
+                }
+            } else if (existing == null) {
+                additions.add(new Photo(fileName.substring(0, fileName.lastIndexOf('.')), filePath, new Date(),
+                        attrs.size(), lastModified, metadata));
+            } else if (existing.getFileSize() != attrs.size() || existing.getLastModified() != lastModified
+                    || !existing.getMetadata().equals(metadata)) {
+                changed.add(filePath);
+                removals.add(existing);
+                additions.add(new Photo(existing.getName(), filePath, existing.getDateAdded(), attrs.size(),
+                        lastModified, metadata));
+            }
+        }
+        if (!deletedDirectories.isEmpty()) {
+            for (Photo photo : model.getSnapshot()) {
+                if (isUnder(photo.getFilePath(), deletedDirectories)) {
+                    removals.add(photo);
+                    changed.add(photo.getFilePath());
+                }
+            }
+        }
+
+        if (!removals.isEmpty() || !additions.isEmpty()) {
+            model.beginBatch();
+            try {
+                model.removePhotos(removals);
+                model.addPhotos(additions);
+            } catch (UncheckedIOException e) {
+                System.err.println("Could not apply folder changes: " + e.getMessage());
+            } finally {
+                model.commit();
+            }
+        }
+        for (String filePath : changed) {
+            changeListener.accept(filePath);
+        }
+        BATCH_TIME.recordSince(start);
+        Set<String> touched = new HashSet<>(); // A replaced photo is both removed and added
+        for (Photo photo : removals) {
+            touched.add(photo.getFilePath());
+        }
+        for (Photo photo : additions) {
+            touched.add(photo.getFilePath());
+        }
+        return touched.size();
+    }
+
+    /**
+     * Reads the attributes of a path without following links, or returns null if
+     * it does not exist.
+     */
+    private static BasicFileAttributes attributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null; // Deleted, or gone before it could be read
+        }
+    }
+
+    private static boolean isUnder(String filePath, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (filePath.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the time of the last sync and the synced folders. A missing or
+     * unreadable state file leaves nothing synced.
+     */
+    private void readState() {
+        if (!stateFile.exists()) {
+            return;
+        }
+        try (BufferedReader in = Files.newBufferedReader(stateFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            if (line == null) {
+                return;
+            }
+            long time = Long.parseLong(line.trim());
+            synchronized (this) {
+                lastSync = time;
+                for (line = in.readLine(); line != null; line = in.readLine()) {
+                    if (!line.isEmpty()) {
+                        roots.add(new File(line).toPath());
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Could not read sync state " + stateFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the time of the last sync, then one synced folder per line, replacing
+     * the state file atomically.
+     */
+    private void writeState() throws IOException {
+        List<Path> snapshot;
+        long time;
+        synchronized (this) {
+            snapshot = new ArrayList<>(roots);
+            time = lastSync;
+        }
+        File parent = stateFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        File temp = new File(stateFile.getPath() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            out.write(Long.toString(time));
+            out.newLine();
+            for (Path root : snapshot) {
+                out.write(root.toString());
+                out.newLine();
+            }
+        }
+        Files.move(temp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
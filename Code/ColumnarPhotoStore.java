@@ -0,0 +1,294 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ColumnarPhotoStore stores photos as primitive columns instead of one object
+ * graph per photo: dates and sizes live in long arrays, folders are interned in
+ * a shared table, file names are packed into a single byte array, and a display
+ * name is only stored when it differs from the file name. The store hands out
+ * lightweight flyweight Photo instances on demand. The metadata read from each
+ * file is kept in columns of its own.
+ *
+ * <p>Each photo occupies a slot whose contents never change, so a flyweight stays
+ * valid after the photo is removed from the album, and keeps the columns alive
+ * until it is dropped.
+ */
+public class ColumnarPhotoStore extends PhotoStore {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Columns columns;
+
+    /**
+     * Constructs an empty store.
+     */
+    public ColumnarPhotoStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private ColumnarPhotoStore(int capacity) {
+        columns = new Columns(Math.max(INITIAL_CAPACITY, capacity));
+    }
+
+    /**
+     * Stores a photo in a new slot. A flyweight of this store is not copied: its
+     * own slot is returned.
+     *
+     * @param photo the photo to store
+     * @return the slot holding the photo
+     */
+    @Override
+    public int add(Photo photo) {
+        if (photo instanceof Flyweight) {
+            Flyweight flyweight = (Flyweight) photo;
+            return flyweight.columns == columns ? flyweight.slot : columns.copySlot(flyweight.columns, flyweight.slot);
+        }
+        return columns.append(photo.getName(), photo.getFilePath(), photo.getDateAdded().getTime(),
+                photo.getFileSize(), photo.getLastModified(), photo.getMetadata());
+    }
+
+    /**
+     * Retrieves a flyweight for the photo in a slot.
+     *
+     * @param slot the slot
+     * @return a Photo backed by this store's columns
+     * @throws IndexOutOfBoundsException if the slot has not been filled
+     */
+    @Override
+    public Photo get(int slot) {
+        if (slot < 0 || slot >= columns.slotCount) {
+            throw new IndexOutOfBoundsException("Invalid slot: " + slot);
+        }
+        return new Flyweight(columns, slot);
+    }
+
+    /**
+     * Retrieves the number of slots filled so far.
+     *
+     * @return the slot count
+     */
+    @Override
+    public int slotCount() {
+        return columns.slotCount;
+    }
+
+    /**
+     * Creates an empty columnar store.
+     *
+     * @param capacity the number of photos to make room for
+     * @return the new store
+     */
+    @Override
+    public PhotoStore newStore(int capacity) {
+        return new ColumnarPhotoStore(capacity);
+    }
+
+    /**
+     * Estimates the heap used by the columns, excluding flyweights held elsewhere.
+     *
+     * @return the approximate size in bytes
+     */
+    public long estimateBytes() {
+        return columns.estimateBytes();
+    }
+
+
+    /**
+     * Append-only column storage. A slot, once written, is never modified. Arrays
+     * are only replaced by larger copies, through volatile fields, so a reader on
+     * another thread finds a published slot in whichever array it sees.
+     */
+    private static final class Columns {
+        private volatile long[] dateMillis;
+        private volatile long[] fileSizes;
+        private volatile long[] modifiedMillis;
+        private volatile long[] takenMillis; // PhotoMetadata.UNKNOWN_DATE when the file records none
+        private volatile int[] widths;
+        private volatile int[] heights;
+        private volatile byte[] orientations;
+        private volatile int[] folderIds;
+        private volatile int[] fileNameOffsets; // Offset of each slot's file name in fileNameBytes
+        private volatile String[] names; // Display name, or null when it is the file name without extension
+        private volatile byte[] fileNameBytes = new byte[1024];
+        private int fileNameLength;
+        private volatile String[] folders = new String[16]; // Folder paths by ID
+        private int folderCount;
+        private final Map<String, Integer> folderIdsByPath = new HashMap<>();
+        private int slotCount;
+
+        Columns(int capacity) {
+            dateMillis = new long[capacity];
+            fileSizes = new long[capacity];
+            modifiedMillis = new long[capacity];
+            takenMillis = new long[capacity];
+            widths = new int[capacity];
+            heights = new int[capacity];
+            orientations = new byte[capacity];
+            folderIds = new int[capacity];
+            fileNameOffsets = new int[capacity + 1];
+            names = new String[capacity];
+        }
+
+        int append(String name, String filePath, long millis, long fileSize, long lastModified,
+                PhotoMetadata metadata) {
+            if (slotCount == dateMillis.length) {
+                int capacity = slotCount * 2;
+                dateMillis = Arrays.copyOf(dateMillis, capacity);
+                fileSizes = Arrays.copyOf(fileSizes, capacity);
+                modifiedMillis = Arrays.copyOf(modifiedMillis, capacity);
+                takenMillis = Arrays.copyOf(takenMillis, capacity);
+                widths = Arrays.copyOf(widths, capacity);
+                heights = Arrays.copyOf(heights, capacity);
+                orientations = Arrays.copyOf(orientations, capacity);
+                folderIds = Arrays.copyOf(folderIds, capacity);
+                fileNameOffsets = Arrays.copyOf(fileNameOffsets, capacity + 1);
+                names = Arrays.copyOf(names, capacity);
+            }
+            int split = Math.max(filePath.lastIndexOf('/'), filePath.lastIndexOf('\\')) + 1;
+            String folder = filePath.substring(0, split);
+            String fileName = filePath.substring(split);
+
+            Integer folderId = folderIdsByPath.get(folder);
+            if (folderId == null) {
+                if (folderCount == folders.length) {
+                    folders = Arrays.copyOf(folders, folderCount * 2);
+                }
+                folderId = folderCount++;
+                folders[folderId] = folder;
+                folderIdsByPath.put(folder, folderId);
+            }
+
+            byte[] encoded = fileName.getBytes(StandardCharsets.UTF_8);
+            if (fileNameLength + encoded.length > fileNameBytes.length) {
+                fileNameBytes = Arrays.copyOf(fileNameBytes,
+                        Math.max(fileNameBytes.length * 2, fileNameLength + encoded.length));
+            }
+            System.arraycopy(encoded, 0, fileNameBytes, fileNameLength, encoded.length);
+
+            int slot = slotCount++;
+            fileNameOffsets[slot] = fileNameLength;
+            fileNameLength += encoded.length;
+            fileNameOffsets[slot + 1] = fileNameLength;
+            dateMillis[slot] = millis;
+            fileSizes[slot] = fileSize;
+            modifiedMillis[slot] = lastModified;
+            takenMillis[slot] = metadata.getDateTaken();
+            widths[slot] = metadata.getWidth();
+            heights[slot] = metadata.getHeight();
+            orientations[slot] = (byte) metadata.getOrientation();
+            folderIds[slot] = folderId;
+            names[slot] = name.equals(stripExtension(fileName)) ? null : name;
+            return slot;
+        }
+
+        int copySlot(Columns source, int slot) {
+            return append(source.name(slot), source.filePath(slot), source.dateMillis[slot], source.fileSizes[slot],
+                    source.modifiedMillis[slot], source.metadata(slot));
+        }
+
+        String fileName(int slot) {
+            int[] offsets = fileNameOffsets;
+            int offset = offsets[slot];
+            return new String(fileNameBytes, offset, offsets[slot + 1] - offset, StandardCharsets.UTF_8);
+        }
+
+        String filePath(int slot) {
+            return folders[folderIds[slot]].concat(fileName(slot));
+        }
+
+        String name(int slot) {
+            String name = names[slot];
+            return name != null ? name : stripExtension(fileName(slot));
+        }
+
+        PhotoMetadata metadata(int slot) {
+            long taken = takenMillis[slot];
+            int width = widths[slot];
+            int height = heights[slot];
+            int orientation = orientations[slot];
+            if (taken == PhotoMetadata.UNKNOWN_DATE && width == 0 && height == 0
+                    && orientation == PhotoMetadata.NORMAL_ORIENTATION) {
+                return PhotoMetadata.NONE;
+            }
+            return new PhotoMetadata(taken, width, height, orientation);
+        }
+
+        long estimateBytes() {
+            long perSlot = 8 + 8 + 8 + 8 + 4 + 4 + 1 + 4 + 4 + 4;
+            long foldersBytes = 0;
+            for (int i = 0; i < folderCount; i++) {
+                foldersBytes += 40 + folders[i].length();
+            }
+            return perSlot * dateMillis.length + fileNameBytes.length + foldersBytes;
+        }
+
+        private static String stripExtension(String fileName) {
+            int dot = fileName.lastIndexOf('.');
+            return dot > 0 ? fileName.substring(0, dot) : fileName;
+        }
+    }
+
+    /**
+     * A Photo whose properties are read from a slot of the columns.
+     */
+    private static final class Flyweight extends Photo {
+        private final Columns columns;
+        private final int slot;
+
+        Flyweight(Columns columns, int slot) {
+            this.columns = columns;
+            this.slot = slot;
+        }
+
+        @Override
+        public String getName() {
+            return columns.name(slot);
+        }
+
+        @Override
+        public String getFilePath() {
+            return columns.filePath(slot);
+        }
+
+        @Override
+        public Date getDateAdded() {
+            return new Date(columns.dateMillis[slot]);
+        }
+
+        @Override
+        public long getFileSize() {
+            return columns.fileSizes[slot];
+        }
+
+        @Override
+        public long getLastModified() {
+            return columns.modifiedMillis[slot];
+        }
+
+        @Override
+        public PhotoMetadata getMetadata() {
+            return columns.metadata(slot);
+        }
+
+        @Override
+        public Date getDateTaken() {
+            long taken = columns.takenMillis[slot];
+            return new Date(taken != PhotoMetadata.UNKNOWN_DATE ? taken : columns.dateMillis[slot]);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Flyweight && ((Flyweight) o).columns == columns && ((Flyweight) o).slot == slot) {
+                return true;
+            }
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counter counts events, such as cache hits, from any thread without allocating.
+ */
+public final class Counter implements CounterMBean {
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Constructs a counter at zero.
+     *
+     * @param name the name the counter is registered under
+     */
+    public Counter(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Retrieves the name of the counter.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Counts one event. Does nothing when metrics are disabled.
+     */
+    public void increment() {
+        if (Metrics.isEnabled()) {
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts several events, such as bytes read, at once. Does nothing when
+     * metrics are disabled.
+     *
+     * @param events the number of events
+     */
+    public void add(long events) {
+        if (Metrics.isEnabled()) {
+            count.addAndGet(events);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public void reset() {
+        count.set(0);
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * CounterMBean is the management interface of a Counter.
+ */
+public interface CounterMBean {
+
+    /**
+     * Retrieves the current count.
+     *
+     * @return the count
+     */
+    long getCount();
+
+    /**
+     * Sets the count back to zero.
+     */
+    void reset();
+}
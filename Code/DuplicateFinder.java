@@ -0,0 +1,244 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DuplicateFinder groups photos whose files have identical contents. Only files
+ * that could be duplicates are read: photos are first bucketed by file size, then
+ * the first {@link #HEAD_BYTES} of each candidate are hashed to split the buckets,
+ * and only files that still collide are hashed in full.
+ *
+ * <p>Files are streamed through a FileChannel into direct buffers that are reused
+ * across files, on a pool of threads. Hashes are cached per file and reused while
+ * the file's size and modification time are unchanged, so repeated scans of a
+ * library only read new or modified files.
+ */
+public final class DuplicateFinder {
+    public static final int HEAD_BYTES = 64 * 1024; // Hashed first; enough to tell most photos apart
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final Map<String, FileHashes> cache = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private volatile boolean cancelled;
+
+    /**
+     * Finds groups of photos with identical file contents. Blocks until the scan
+     * completes or is cancelled. Files that cannot be read are left out.
+     *
+     * @param photos the photos to examine
+     * @return the groups of two or more duplicates, each in the order the photos
+     *         were given; empty if the scan was cancelled
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public List<List<Photo>> findDuplicates(Collection<Photo> photos) throws InterruptedException {
+        cancelled = false;
+        Map<Long, List<Photo>> bySize = new LinkedHashMap<>();
+        for (Photo photo : photos) {
+            bySize.computeIfAbsent(photo.getFileSize(), size -> new ArrayList<>(2)).add(photo);
+        }
+        List<List<Photo>> candidates = new ArrayList<>();
+        for (List<Photo> bucket : bySize.values()) {
+            if (bucket.size() > 1) {
+                candidates.add(bucket);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors()); // I/O bound
+        ExecutorService hashers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "photo-hash");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<List<Photo>> groups = split(candidates, true, hashers);
+            List<List<Photo>> large = new ArrayList<>();
+            List<List<Photo>> duplicates = new ArrayList<>();
+            for (List<Photo> group : groups) {
+                boolean partial = new File(group.get(0).getFilePath()).length() > HEAD_BYTES;
+                (partial ? large : duplicates).add(group); // Hashes include the size, so all members agree
+            }
+            duplicates.addAll(split(large, false, hashers));
+            return cancelled ? new ArrayList<>() : duplicates;
+        } finally {
+            hashers.shutdownNow();
+        }
+    }
+
+    /**
+     * Requests that a running scan stop as soon as possible.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Checks whether the last scan was cancelled.
+     *
+     * @return true if {@link #cancel()} was called during the last scan
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Retrieves the number of file bytes read since this finder was created.
+     *
+     * @return the bytes read from disk for hashing
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Discards the cached hashes of a file.
+     *
+     * @param filePath the path of the file
+     */
+    public void invalidate(String filePath) {
+        cache.remove(filePath);
+    }
+
+    /**
+     * Splits each group into subgroups of photos with equal hashes, keeping the
+     * subgroups with two or more photos.
+     */
+    private List<List<Photo>> split(List<List<Photo>> groups, boolean head, ExecutorService hashers)
+            throws InterruptedException {
+        List<List<Future<ByteBuffer>>> hashes = new ArrayList<>(groups.size());
+        for (List<Photo> group : groups) {
+            List<Future<ByteBuffer>> groupHashes = new ArrayList<>(group.size());
+            for (Photo photo : group) {
+                groupHashes.add(hashers.submit(() -> cancelled ? null : hash(photo.getFilePath(), head)));
+            }
+            hashes.add(groupHashes);
+        }
+
+        List<List<Photo>> result = new ArrayList<>();
+        for (int g = 0; g < groups.size() && !cancelled; g++) {
+            Map<ByteBuffer, List<Photo>> byHash = new LinkedHashMap<>();
+            for (int i = 0; i < groups.get(g).size(); i++) {
+                ByteBuffer hash;
+                try {
+                    hash = hashes.get(g).get(i).get();
+                } catch (ExecutionException e) {
+                    continue; // Unreadable files cannot be compared
+                }
+                if (hash != null) {
+                    byHash.computeIfAbsent(hash, key -> new ArrayList<>(2)).add(groups.get(g).get(i));
+                }
+            }
+            for (List<Photo> subgroup : byHash.values()) {
+                if (subgroup.size() > 1) {
+                    result.add(subgroup);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hash of the head or of the whole file, from the cache when the
+     * file has not changed since it was hashed.
+     */
+    private ByteBuffer hash(String filePath, boolean head) throws IOException {
+        File file = new File(filePath);
+        long size = file.length();
+        long modified = file.lastModified();
+        FileHashes cached = cache.get(filePath);
+        if (cached == null || cached.size != size || cached.modified != modified) {
+            cached = new FileHashes(size, modified);
+            cache.put(filePath, cached);
+        }
+        if (size <= HEAD_BYTES) {
+            head = false; // The head is the whole file
+        }
+        ByteBuffer hash = head ? cached.head : cached.full;
+        if (hash == null) {
+            hash = digest(file, size, head ? HEAD_BYTES : size);
+            if (hash == null) {
+                return null; // Cancelled part way through
+            }
+            if (head) {
+                cached.head = hash;
+            } else {
+                cached.full = hash;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Streams up to limit bytes of the file through SHA-256, after the file size,
+     * so that equal head hashes also mean equal sizes. Returns null if cancelled.
+     */
+    private ByteBuffer digest(File file, long size, long limit) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            buffer.putLong(size).flip();
+            digest.update(buffer);
+            long remaining = limit;
+            while (remaining > 0 && !cancelled) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                digest.update(buffer);
+                remaining -= read;
+                bytesRead.addAndGet(read);
+            }
+        } finally {
+            buffers.add(buffer);
+        }
+        return cancelled ? null : ByteBuffer.wrap(digest.digest());
+    }
+
+    /**
+     * The hashes known for one version of a file.
+     */
+    private static final class FileHashes {
+        private final long size;
+        private final long modified;
+        private volatile ByteBuffer head;
+        private volatile ByteBuffer full;
+
+        FileHashes(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EdtMonitor measures how long the Event Dispatch Thread spends on each event.
+ * It replaces the system event queue, times every dispatch, and while a dispatch
+ * runs longer than half the stall threshold, a watchdog thread samples the stack
+ * of the EDT. Dispatches over the threshold are stalls: each is reported on
+ * System.err and kept in a rolling report that attributes it to the controller
+ * action that ran it.
+ *
+ * <p>A modal dialog runs a nested event loop inside the dispatch that opened it.
+ * Time the loop spends waiting for events, and the events it dispatches, which
+ * are timed on their own, are not counted against the outer dispatch.
+ */
+public final class EdtMonitor extends EventQueue implements EdtMonitorMBean {
+    public static final long DEFAULT_THRESHOLD_MILLIS = 100;
+    private static final int MAX_STALLS = 200; // Stalls kept for the report
+    private static final int MAX_SAMPLES = 64; // Stack samples kept per dispatch
+    private static final LatencyHistogram DISPATCH_TIME = Metrics.getShared().histogram("edtDispatch");
+    private static final Counter STALLS = Metrics.getShared().counter("edtStalls");
+    private static EdtMonitor installed;
+
+    private volatile long thresholdNanos;
+    private volatile Thread edt;
+    private volatile Dispatch active; // Innermost dispatch in progress, or null between events
+    private Dispatch[] frames = new Dispatch[4]; // Reused per nesting depth, so timing allocates nothing
+    private int depth;
+    private long nextSequence;
+    private final AtomicLong stallCount = new AtomicLong();
+    private final ArrayDeque<Stall> stalls = new ArrayDeque<>();
+
+    private EdtMonitor(long thresholdMillis) {
+        setThresholdMillis(thresholdMillis);
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new Dispatch();
+        }
+    }
+
+    /**
+     * Installs a monitor in front of the system event queue, registers it with
+     * JMX and starts its watchdog thread. Installing again returns the monitor
+     * already installed.
+     *
+     * @param thresholdMillis the dispatch time above which an event is a stall
+     * @return the installed monitor
+     */
+    public static synchronized EdtMonitor install(long thresholdMillis) {
+        if (installed == null) {
+            EdtMonitor monitor = new EdtMonitor(thresholdMillis);
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(monitor);
+            Metrics.getShared().register("Monitor", "edt", monitor);
+            Thread watchdog = new Thread(monitor::watch, "edt-watchdog");
+            watchdog.setDaemon(true);
+            watchdog.start();
+            installed = monitor;
+        }
+        return installed;
+    }
+
+    /**
+     * Retrieves the monitor installed by {@link #install(long)}.
+     *
+     * @return the installed monitor, or null if none is installed
+     */
+    public static synchronized EdtMonitor getInstalled() {
+        return installed;
+    }
+
+    /**
+     * Dispatches an event, timing it and recording a stall if it took too long.
+     *
+     * @param event the event to dispatch
+     */
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        long start = System.nanoTime();
+        Dispatch parent = active;
+        if (parent != null) {
+            parent.busyNanos += start - parent.resumedAt; // Dispatched by a modal loop; the parent pauses
+        }
+        Dispatch dispatch = enter(event, start);
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long end = System.nanoTime();
+            long busy = dispatch.busyNanos + (end - dispatch.resumedAt);
+            depth--;
+            active = parent;
+            if (parent != null) {
+                parent.resumedAt = end;
+            }
+            DISPATCH_TIME.record(busy);
+            if (busy >= thresholdNanos) {
+                recordStall(dispatch, busy);
+            }
+            synchronized (dispatch) {
+                dispatch.event = null;
+                dispatch.samples.clear();
+            }
+        }
+    }
+
+    /**
+     * Removes the next event from the queue, waiting for one if necessary. When
+     * called from inside a dispatch, by a modal loop, the wait is not counted
+     * against that dispatch.
+     *
+     * @return the next event
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public AWTEvent getNextEvent() throws InterruptedException {
+        Dispatch waiting = active;
+        if (waiting == null) {
+            return super.getNextEvent();
+        }
+        waiting.busyNanos += System.nanoTime() - waiting.resumedAt;
+        waiting.waiting = true;
+        try {
+            return super.getNextEvent();
+        } finally {
+            waiting.waiting = false;
+            waiting.resumedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Takes the frame for the next nesting depth and makes it the active dispatch.
+     */
+    private Dispatch enter(AWTEvent event, long start) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+            for (int i = depth; i < frames.length; i++) {
+                frames[i] = new Dispatch();
+            }
+        }
+        Dispatch dispatch = frames[depth++];
+        synchronized (dispatch) {
+            dispatch.sequence = ++nextSequence;
+            dispatch.event = event;
+            dispatch.samples.clear();
+        }
+        dispatch.busyNanos = 0;
+        dispatch.waiting = false;
+        dispatch.resumedAt = start;
+        edt = Thread.currentThread();
+        active = dispatch;
+        return dispatch;
+    }
+
+    /**
+     * Runs on the watchdog thread: samples the EDT stack whenever the active
+     * dispatch has been busy for more than half the threshold.
+     */
+    private void watch() {
+        while (true) {
+            long threshold = thresholdNanos;
+            try {
+                Thread.sleep(Math.max(5, threshold / 4_000_000)); // Four samples per threshold
+            } catch (InterruptedException e) {
+                return;
+            }
+            Dispatch dispatch = active;
+            Thread thread = edt;
+            if (dispatch == null || thread == null || dispatch.waiting
+                    || System.nanoTime() - dispatch.resumedAt < threshold / 2) {
+                continue;
+            }
+            long sequence;
+            synchronized (dispatch) {
+                sequence = dispatch.sequence;
+            }
+            StackTraceElement[] stack = thread.getStackTrace();
+            synchronized (dispatch) {
+                if (dispatch.sequence == sequence && active == dispatch && !dispatch.waiting && dispatch.samples.size() < MAX_SAMPLES) {
+                    dispatch.samples.add(stack);
+                }
+            }
+        }
+    }
+
+    /**
+     * Attributes a stall to an action, adds it to the report and logs it.
+     */
+    private void recordStall(Dispatch dispatch, long busyNanos) {
+        String action;
+        String hotFrame;
+        synchronized (dispatch) {
+            action = attribute(dispatch.event, dispatch.samples);
+            hotFrame = hottestFrame(dispatch.samples);
+        }
+        Stall stall = new Stall(System.currentTimeMillis(), action, busyNanos / 1_000_000, hotFrame);
+        synchronized (stalls) {
+            if (stalls.size() == MAX_STALLS) {
+                stalls.removeFirst();
+            }
+            stalls.addLast(stall);
+        }
+        stallCount.incrementAndGet();
+        STALLS.increment();
+        System.err.println("EDT stall: " + stall.millis + " ms in " + action
+                + (hotFrame == null ? "" : " at " + hotFrame));
+    }
+
+    /**
+     * Names the action behind a dispatch: the outermost controller method on the
+     * sampled stacks, or else a description of the event.
+     */
+    private static String attribute(AWTEvent event, List<StackTraceElement[]> samples) {
+        for (StackTraceElement[] stack : samples) {
+            for (int i = stack.length - 1; i >= 0; i--) {
+                StackTraceElement frame = stack[i];
+                if (frame.getClassName().equals(PhotoAlbumController.class.getName())
+                        && !frame.getMethodName().startsWith("lambda$")) {
+                    return frame.getMethodName();
+                }
+            }
+        }
+        if (event instanceof ActionEvent) {
+            return "action \"" + ((ActionEvent) event).getActionCommand() + "\"";
+        }
+        return event == null ? "unknown" : event.getClass().getSimpleName();
+    }
+
+    /**
+     * Finds the application frame that tops the most samples, skipping JDK frames
+     * and the monitor's own.
+     */
+    private static String hottestFrame(List<StackTraceElement[]> samples) {
+        Map<String, Integer> counts = new HashMap<>();
+        String hottest = null;
+        int hottestCount = 0;
+        for (StackTraceElement[] stack : samples) {
+            StackTraceElement top = null;
+            for (StackTraceElement frame : stack) {
+                if (!isJdkFrame(frame) && !frame.getClassName().equals(EdtMonitor.class.getName())) {
+                    top = frame;
+                    break;
+                }
+            }
+            if (top == null && stack.length > 0) {
+                top = stack[0];
+            }
+            if (top != null) {
+                String key = top.toString();
+                int count = counts.merge(key, 1, Integer::sum);
+                if (count > hottestCount) {
+                    hottest = key;
+                    hottestCount = count;
+                }
+            }
+        }
+        return hottest;
+    }
+
+    private static boolean isJdkFrame(StackTraceElement frame) {
+        String name = frame.getClassName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+                || name.startsWith("jdk.") || name.startsWith("com.sun.");
+    }
+
+    @Override
+    public long getThresholdMillis() {
+        return thresholdNanos / 1_000_000;
+    }
+
+    @Override
+    public void setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 1) {
+            throw new IllegalArgumentException("Stall threshold must be at least 1 ms: " + thresholdMillis);
+        }
+        thresholdNanos = thresholdMillis * 1_000_000;
+    }
+
+    @Override
+    public long getStallCount() {
+        return stallCount.get();
+    }
+
+    @Override
+    public String getReport() {
+        List<Stall> recent;
+        synchronized (stalls) {
+            recent = new ArrayList<>(stalls);
+        }
+        if (recent.isEmpty()) {
+            return "No EDT stalls over " + getThresholdMillis() + " ms";
+        }
+        Map<String, long[]> byAction = new LinkedHashMap<>(); // Stalls, total ms and max ms per action
+        Map<String, String> hotFrames = new HashMap<>();
+        for (Stall stall : recent) {
+            long[] totals = byAction.computeIfAbsent(stall.action, key -> new long[3]);
+            totals[0]++;
+            totals[1] += stall.millis;
+            totals[2] = Math.max(totals[2], stall.millis);
+            if (stall.hotFrame != null && totals[2] == stall.millis) {
+                hotFrames.put(stall.action, stall.hotFrame); // Where the worst stall spent its time
+            }
+        }
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(byAction.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1])); // Most time lost first
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d EDT stalls over %d ms since %tT%n", recent.size(), getThresholdMillis(),
+                new Date(recent.get(0).time)));
+        report.append(String.format("%-28s %6s %9s %7s  %s%n", "Action", "Stalls", "Total ms", "Max ms", "Worst at"));
+        for (Map.Entry<String, long[]> entry : entries) {
+            long[] totals = entry.getValue();
+            String hotFrame = hotFrames.get(entry.getKey());
+            report.append(String.format("%-28s %6d %9d %7d  %s%n", entry.getKey(), totals[0], totals[1], totals[2],
+                    hotFrame == null ? "" : hotFrame));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        synchronized (stalls) {
+            stalls.clear();
+        }
+        stallCount.set(0);
+    }
+
+    /**
+     * The state of one dispatch in progress, reused for every event at its depth.
+     */
+    private static final class Dispatch {
+        private long sequence; // Guarded by this; tells the watchdog whether the event has changed
+        private AWTEvent event; // Guarded by this
+        private final List<StackTraceElement[]> samples = new ArrayList<>(); // Guarded by this
+        private volatile long resumedAt; // When the dispatch last started or resumed after a modal loop
+        private volatile boolean waiting; // In a modal loop, waiting for the next event
+        private long busyNanos;
+    }
+
+    /**
+     * One stall kept for the report.
+     */
+    private static final class Stall {
+        private final long time;
+        private final String action;
+        private final long millis;
+        private final String hotFrame;
+
+        Stall(long time, String action, long millis, String hotFrame) {
+            this.time = time;
+            this.action = action;
+            this.millis = millis;
+            this.hotFrame = hotFrame;
+        }
+    }
+}
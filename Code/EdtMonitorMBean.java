@@ -0,0 +1,38 @@
+/**
+ * Management interface of the EdtMonitor, exposed over JMX.
+ */
+public interface EdtMonitorMBean {
+
+    /**
+     * Retrieves the dispatch time above which an event counts as a stall.
+     *
+     * @return the threshold in milliseconds
+     */
+    long getThresholdMillis();
+
+    /**
+     * Changes the dispatch time above which an event counts as a stall.
+     *
+     * @param thresholdMillis the threshold in milliseconds, at least 1
+     */
+    void setThresholdMillis(long thresholdMillis);
+
+    /**
+     * Retrieves the number of stalls since the monitor was installed or reset.
+     *
+     * @return the number of stalls
+     */
+    long getStallCount();
+
+    /**
+     * Formats the recent stalls, grouped by the controller action that caused them.
+     *
+     * @return the report, one line per action
+     */
+    String getReport();
+
+    /**
+     * Forgets all recorded stalls.
+     */
+    void reset();
+}
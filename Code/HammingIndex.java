@@ -0,0 +1,194 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * HammingIndex finds 64-bit hashes within a small Hamming distance of a query
+ * using multi-index hashing. Each hash is split into four 16-bit chunks, and
+ * each chunk is indexed in its own table. Two hashes that differ in at most r
+ * bits must agree to within r / 4 bits in at least one chunk, so a query only
+ * looks in the buckets near each of its chunks and checks the candidates it
+ * finds there, instead of comparing against every hash.
+ *
+ * <p>Every hash carries an integer ID, and IDs are expected to be small and
+ * dense, like the photo IDs handed out by PhotoAlbumModel.
+ */
+public final class HammingIndex {
+    private static final int CHUNKS = 4;
+    private static final int CHUNK_BITS = 16;
+    private static final int MAX_CHUNK_RADIUS = 3; // Beyond this, scanning every hash is cheaper
+
+    private final int[][][] buckets = new int[CHUNKS][1 << CHUNK_BITS][]; // IDs by chunk value
+    private final int[][] bucketSizes = new int[CHUNKS][1 << CHUNK_BITS];
+    private final BitSet present = new BitSet();
+    private long[] hashes = new long[1024]; // Hash of each present ID
+    private int[] visited = new int[1024]; // Query stamp at which each ID was last checked
+    private int stamp;
+    private int size;
+
+    /**
+     * Retrieves the number of hashes in the index.
+     *
+     * @return the number of IDs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds an ID with the given hash, replacing any hash it already had.
+     *
+     * @param hash the hash
+     * @param id   the ID, zero or more
+     */
+    public void add(long hash, int id) {
+        remove(id);
+        if (id >= hashes.length) {
+            int capacity = Math.max(id + 1, hashes.length * 2);
+            hashes = Arrays.copyOf(hashes, capacity);
+            visited = Arrays.copyOf(visited, capacity);
+        }
+        hashes[id] = hash;
+        present.set(id);
+        size++;
+        for (int c = 0; c < CHUNKS; c++) {
+            int value = chunk(hash, c);
+            int[] bucket = buckets[c][value];
+            int count = bucketSizes[c][value];
+            if (bucket == null) {
+                bucket = new int[2];
+            } else if (count == bucket.length) {
+                bucket = Arrays.copyOf(bucket, count * 2);
+            }
+            bucket[count] = id;
+            buckets[c][value] = bucket;
+            bucketSizes[c][value] = count + 1;
+        }
+    }
+
+    /**
+     * Removes an ID.
+     *
+     * @param id the ID
+     * @return true if the ID was in the index
+     */
+    public boolean remove(int id) {
+        if (id < 0 || !present.get(id)) {
+            return false;
+        }
+        present.clear(id);
+        size--;
+        for (int c = 0; c < CHUNKS; c++) {
+            int value = chunk(hashes[id], c);
+            int[] bucket = buckets[c][value];
+            int count = bucketSizes[c][value];
+            for (int i = 0; i < count; i++) {
+                if (bucket[i] == id) {
+                    bucket[i] = bucket[--count];
+                    break;
+                }
+            }
+            bucketSizes[c][value] = count;
+            if (count == 0) {
+                buckets[c][value] = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether an ID is in the index.
+     *
+     * @param id the ID
+     * @return true if the ID has a hash in the index
+     */
+    public boolean contains(int id) {
+        return id >= 0 && present.get(id);
+    }
+
+    /**
+     * Retrieves the hash of an ID.
+     *
+     * @param id the ID, which must be in the index
+     * @return the hash
+     */
+    public long hashOf(int id) {
+        return hashes[id];
+    }
+
+    /**
+     * Finds the IDs whose hash is within a distance of the query, nearest first.
+     *
+     * @param hash        the query hash
+     * @param maxDistance the largest Hamming distance to include
+     * @return the matching IDs ordered by distance, ties by ID
+     */
+    public int[] search(long hash, int maxDistance) {
+        Matches matches = new Matches();
+        int chunkRadius = maxDistance / CHUNKS;
+        if (chunkRadius > MAX_CHUNK_RADIUS) {
+            for (int id = present.nextSetBit(0); id >= 0; id = present.nextSetBit(id + 1)) {
+                matches.check(id, hash, maxDistance);
+            }
+        } else {
+            if (++stamp == 0) { // Stamps wrapped around; forget old visits
+                Arrays.fill(visited, 0);
+                stamp = 1;
+            }
+            for (int c = 0; c < CHUNKS; c++) {
+                probe(c, chunk(hash, c), 0, chunkRadius, hash, maxDistance, matches);
+            }
+        }
+        return matches.sortedIds();
+    }
+
+    /**
+     * Visits the bucket of a chunk value and, while flips remain, every value
+     * reached by flipping one more bit at or after the given position.
+     */
+    private void probe(int c, int value, int fromBit, int flips, long hash, int maxDistance, Matches matches) {
+        int[] bucket = buckets[c][value];
+        for (int i = 0; i < bucketSizes[c][value]; i++) {
+            int id = bucket[i];
+            if (visited[id] != stamp) {
+                visited[id] = stamp;
+                matches.check(id, hash, maxDistance);
+            }
+        }
+        if (flips > 0) {
+            for (int bit = fromBit; bit < CHUNK_BITS; bit++) {
+                probe(c, value ^ (1 << bit), bit + 1, flips - 1, hash, maxDistance, matches);
+            }
+        }
+    }
+
+    private static int chunk(long hash, int c) {
+        return (int) (hash >>> (c * CHUNK_BITS)) & ((1 << CHUNK_BITS) - 1);
+    }
+
+    /**
+     * Collects matches as longs holding the distance above the ID.
+     */
+    private final class Matches {
+        private long[] found = new long[16];
+        private int count;
+
+        void check(int id, long hash, int maxDistance) {
+            int distance = Long.bitCount(hashes[id] ^ hash);
+            if (distance <= maxDistance) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = ((long) distance << 32) | id;
+            }
+        }
+
+        int[] sortedIds() {
+            Arrays.sort(found, 0, count);
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = (int) found[i];
+            }
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+/**
+ * ImageLoader decodes photos on background threads so the Event Dispatch Thread
+ * never waits on image I/O. Only the most recent display request is honoured:
+ * issuing a new request cancels the previous one, and results of superseded
+ * requests are discarded. Neighbouring photos can be prefetched into the
+ * ThumbnailCache so that stepping through the album finds them ready.
+ */
+public final class ImageLoader {
+    private final ThumbnailCache cache;
+    private final ExecutorService executor;
+    private final AtomicLong generation = new AtomicLong(); // Identifies the latest display request
+    private final List<Future<?>> prefetches = new ArrayList<>();
+    private Future<?> pendingLoad;
+
+    /**
+     * Constructs an ImageLoader backed by the given cache.
+     *
+     * @param cache   the ThumbnailCache that receives decoded images
+     * @param threads the number of background decode threads
+     */
+    public ImageLoader(ThumbnailCache cache, int threads) {
+        this.cache = cache;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "photo-decoder");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads an image scaled to the given size and delivers it on the Event Dispatch
+     * Thread. Any load still pending from an earlier call is cancelled. If the image
+     * is already cached the callback runs immediately on the calling thread.
+     *
+     * @param photo    the photo to load
+     * @param width    the target width in pixels
+     * @param height   the target height in pixels
+     * @param callback receives the loaded image unless a newer request supersedes it
+     * @return true if the image was served from the cache synchronously
+     */
+    public synchronized boolean load(Photo photo, int width, int height, Consumer<ImageIcon> callback) {
+        long requestId = generation.incrementAndGet();
+        if (pendingLoad != null) {
+            pendingLoad.cancel(true);
+            pendingLoad = null;
+        }
+
+        ImageIcon cached = cache.getIfPresent(photo, width, height);
+        if (cached != null) {
+            callback.accept(cached);
+            return true;
+        }
+
+        pendingLoad = executor.submit(() -> {
+            if (generation.get() != requestId) {
+                return; // The user has already moved on
+            }
+            ImageIcon icon = cache.getThumbnail(photo, width, height);
+            SwingUtilities.invokeLater(() -> {
+                if (generation.get() == requestId) {
+                    callback.accept(icon);
+                }
+            });
+        });
+        return false;
+    }
+
+    /**
+     * Cancels the pending display request, if any.
+     */
+    public synchronized void cancel() {
+        generation.incrementAndGet();
+        if (pendingLoad != null) {
+            pendingLoad.cancel(true);
+            pendingLoad = null;
+        }
+    }
+
+    /**
+     * Decodes the given photos into the cache in the background. Prefetches still
+     * queued from an earlier call are cancelled first.
+     *
+     * @param photos the photos to prefetch, nearest first
+     * @param width  the target width in pixels
+     * @param height the target height in pixels
+     */
+    public synchronized void prefetch(List<Photo> photos, int width, int height) {
+        for (Future<?> future : prefetches) {
+            future.cancel(false);
+        }
+        prefetches.clear();
+        for (Photo photo : photos) {
+            prefetches.add(executor.submit(() -> cache.getThumbnail(photo, width, height)));
+        }
+    }
+
+    /**
+     * Stops the background threads. Pending work is abandoned.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,171 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram records durations in nanoseconds into log-linear buckets:
+ * every power of two is split into eight equal buckets, so any recorded value is
+ * known to within 12.5%, from one nanosecond up to centuries, in a fixed table of
+ * under 500 counters. Recording a value only increments a few atomic counters, so
+ * it allocates nothing and can be called from any thread.
+ */
+public final class LatencyHistogram implements LatencyHistogramMBean {
+    private static final int SUB_BUCKET_BITS = 3; // Eight buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Constructs an empty histogram.
+     *
+     * @param name the name the histogram is registered under
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Retrieves the name of the histogram.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a duration. Does nothing when metrics are disabled.
+     *
+     * @param nanos the duration in nanoseconds; negative values count as zero
+     */
+    public void record(long nanos) {
+        if (!Metrics.isEnabled()) {
+            return;
+        }
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        totalNanos.addAndGet(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Records the time elapsed since a start time taken with System.nanoTime().
+     *
+     * @param startNanos the start time
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : totalNanos.get() / NANOS_PER_MILLI / recorded;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPercentile50Millis() {
+        return getPercentileNanos(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPercentile95Millis() {
+        return getPercentileNanos(95) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPercentile99Millis() {
+        return getPercentileNanos(99) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Estimates the duration below which the given share of recordings fall. The
+     * estimate is the middle of the bucket holding that recording, capped at the
+     * maximum recorded.
+     *
+     * @param percentile the share of recordings, from 0 to 100
+     * @return the estimated duration in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            recorded += snapshot[i];
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * recorded));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                long low = lowestValue(i);
+                long middle = low + (highestValue(i) - low) / 2;
+                return Math.min(middle, maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    /**
+     * Returns the bucket of a non-negative value. Values below eight have a bucket
+     * each; above that, the highest set bit picks the power of two and the three
+     * bits after it pick one of its eight buckets.
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return lowestValue(bucket) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * LatencyHistogramMBean is the management interface of a LatencyHistogram, as
+ * shown by JMX consoles such as JConsole or VisualVM.
+ */
+public interface LatencyHistogramMBean {
+
+    /**
+     * Retrieves the number of recorded durations.
+     *
+     * @return the count
+     */
+    long getCount();
+
+    /**
+     * Retrieves the mean of the recorded durations.
+     *
+     * @return the mean in milliseconds
+     */
+    double getMeanMillis();
+
+    /**
+     * Retrieves the longest recorded duration.
+     *
+     * @return the maximum in milliseconds
+     */
+    double getMaxMillis();
+
+    /**
+     * Retrieves the median of the recorded durations.
+     *
+     * @return the 50th percentile in milliseconds
+     */
+    double getPercentile50Millis();
+
+    /**
+     * Retrieves the duration that 95% of recordings did not exceed.
+     *
+     * @return the 95th percentile in milliseconds
+     */
+    double getPercentile95Millis();
+
+    /**
+     * Retrieves the duration that 99% of recordings did not exceed.
+     *
+     * @return the 99th percentile in milliseconds
+     */
+    double getPercentile99Millis();
+
+    /**
+     * Discards all recorded durations.
+     */
+    void reset();
+}
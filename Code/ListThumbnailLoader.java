@@ -0,0 +1,239 @@
+import java.awt.Rectangle;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.swing.ImageIcon;
+import javax.swing.JList;
+import javax.swing.ListModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * ListThumbnailLoader supplies the thumbnails of a photo list, decoding only the
+ * rows in or near the visible part of the list. Thumbnails are decoded through the
+ * ThumbnailCache on background threads, and the list is repainted as they arrive;
+ * until then the renderer draws a placeholder. Requests for rows that scroll out of
+ * reach before they start are cancelled.
+ *
+ * <p>Ready thumbnails are kept by file path in a small map of their own, so a
+ * repaint looks them up without touching the file system or allocating.
+ *
+ * <p>The list must lay its rows out vertically with a fixed cell height. The loader
+ * is used from the Event Dispatch Thread only.
+ */
+public final class ListThumbnailLoader {
+    private static final int MAX_ICONS = 512; // Ready thumbnails kept for repaints
+
+    private final JList<Photo> list;
+    private final ThumbnailCache cache;
+    private final int size;
+    private final ExecutorService executor;
+    private final Map<String, ImageIcon> icons; // Access-ordered for LRU eviction
+    private final Map<String, Request> pending = new HashMap<>(); // File path -> queued decode
+    private final Rectangle visible = new Rectangle(); // Reused to keep scrolling allocation-free
+    private int firstRow = -1; // Window of rows last requested, margin included
+    private int lastRow = -1;
+    private int pass; // Counts the windows requested, to find requests left outside the current one
+
+    /**
+     * Constructs a loader for the thumbnails of the given list.
+     *
+     * @param list    the list whose rows show the thumbnails
+     * @param cache   the ThumbnailCache that decodes and keeps the thumbnails
+     * @param size    the width and height of the thumbnails in pixels
+     * @param threads the number of background decode threads
+     */
+    public ListThumbnailLoader(JList<Photo> list, ThumbnailCache cache, int size, int threads) {
+        this.list = list;
+        this.cache = cache;
+        this.size = size;
+        this.icons = new LinkedHashMap<String, ImageIcon>(MAX_ICONS * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ImageIcon> eldest) {
+                return size() > MAX_ICONS;
+            }
+        };
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "list-thumbnail-decoder");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+        list.getModel().addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                modelChanged();
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                modelChanged();
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                modelChanged();
+            }
+        });
+    }
+
+    /**
+     * Retrieves the thumbnail of a photo for painting, requesting it if it is not
+     * ready yet.
+     *
+     * @param photo the photo being painted
+     * @return the thumbnail, or null if the placeholder should be drawn
+     */
+    public ImageIcon getThumbnail(Photo photo) {
+        String filePath = photo.getFilePath();
+        ImageIcon icon = icons.get(filePath);
+        if (icon == null && !pending.containsKey(filePath)) {
+            icon = request(photo);
+        }
+        return icon;
+    }
+
+    /**
+     * Requests the thumbnails of the visible rows, then those of one page above and
+     * below, and cancels requests for rows no longer within that window. Does
+     * nothing while the window is unchanged, so it can be called for every scroll
+     * event.
+     */
+    public void requestVisible() {
+        int rowHeight = list.getFixedCellHeight();
+        ListModel<Photo> model = list.getModel();
+        list.computeVisibleRect(visible);
+        if (rowHeight <= 0 || model.getSize() == 0 || visible.height <= 0) {
+            return;
+        }
+        int first = Math.min(visible.y / rowHeight, model.getSize() - 1);
+        int last = Math.min((visible.y + visible.height - 1) / rowHeight, model.getSize() - 1);
+        int margin = last - first + 1;
+        int from = Math.max(0, first - margin);
+        int to = Math.min(model.getSize() - 1, last + margin);
+        if (from == firstRow && to == lastRow) {
+            return;
+        }
+        firstRow = from;
+        lastRow = to;
+        pass++;
+
+        for (int row = first; row <= last; row++) { // Visible rows first, then outwards
+            requestRow(model, row);
+        }
+        for (int step = 1; first - step >= from || last + step <= to; step++) {
+            if (last + step <= to) {
+                requestRow(model, last + step); // Scrolling down is the common direction
+            }
+            if (first - step >= from) {
+                requestRow(model, first - step);
+            }
+        }
+        Iterator<Request> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            if (request.pass != pass) {
+                request.future.cancel(false);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the thumbnail of a file so that it is decoded again when next shown.
+     *
+     * @param filePath the path to the image file
+     */
+    public void invalidate(String filePath) {
+        icons.remove(filePath);
+        Request request = pending.remove(filePath);
+        if (request != null) {
+            request.future.cancel(false);
+        }
+        list.repaint();
+    }
+
+    /**
+     * Stops the background threads. Pending requests are abandoned.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Forgets the requested window, since rows may have moved, and requests the
+     * thumbnails around the visible rows again.
+     */
+    private void modelChanged() {
+        firstRow = -1;
+        lastRow = -1;
+        requestVisible();
+    }
+
+    /**
+     * Requests the thumbnail of the photo in a row, unless it is ready or queued.
+     */
+    private void requestRow(ListModel<Photo> model, int row) {
+        Photo photo = model.getElementAt(row);
+        String filePath = photo.getFilePath();
+        if (!icons.containsKey(filePath)) {
+            Request request = pending.get(filePath);
+            if (request != null) {
+                request.pass = pass;
+            } else {
+                request(photo);
+            }
+        }
+    }
+
+    /**
+     * Takes a thumbnail already in the ThumbnailCache, or queues its decoding.
+     *
+     * @return the thumbnail if it was cached, or null if it was queued
+     */
+    private ImageIcon request(Photo photo) {
+        String filePath = photo.getFilePath();
+        ImageIcon cached = cache.getIfPresent(photo, size, size);
+        if (cached != null) {
+            icons.put(filePath, cached);
+            return cached;
+        }
+        Request request = new Request(pass);
+        request.future = executor.submit(() -> {
+            ImageIcon icon = cache.getThumbnail(photo, size, size);
+            SwingUtilities.invokeLater(() -> deliver(filePath, request, icon));
+        });
+        pending.put(filePath, request);
+        return null;
+    }
+
+    /**
+     * Keeps a decoded thumbnail and repaints the list, which coalesces the
+     * repaints of thumbnails arriving together.
+     */
+    private void deliver(String filePath, Request request, ImageIcon icon) {
+        if (pending.get(filePath) != request) {
+            return; // Cancelled or invalidated while it was decoded
+        }
+        pending.remove(filePath);
+        icons.put(filePath, icon);
+        list.repaint();
+    }
+
+    /**
+     * A queued decode and the last window that needed it.
+     */
+    private static final class Request {
+        private int pass;
+        private Future<?> future;
+
+        Request(int pass) {
+            this.pass = pass;
+        }
+    }
+}
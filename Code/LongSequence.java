@@ -0,0 +1,572 @@
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * LongSequence keeps long entries sorted and supports positional access. The
+ * entries are stored in chunks of up to 1024, under a spine that records where
+ * each chunk ends, so finding an entry or the entry at a position takes two
+ * binary searches, and inserting or removing one moves entries within a single
+ * chunk and updates the spine.
+ *
+ * <p>{@link #freeze()} returns an immutable copy in O(1). The copy shares the
+ * chunks and the spine; the sequence copies a chunk, or the spine, the first
+ * time it changes it afterwards. A sequence must be changed by one thread at a
+ * time, but its frozen copies may be read from any thread once safely published.
+ *
+ * <p>Entries are ordered by value, or by an {@link Order} given by the caller.
+ * No two entries may compare equal.
+ */
+public final class LongSequence {
+    private static final int CHUNK_SIZE = 1024; // Most entries a chunk holds
+    private static final int MERGE_SIZE = CHUNK_SIZE / 2; // Neighbouring chunks that fit in this are merged
+    private static final int BULK_THRESHOLD = 16; // Fewer entries than this are inserted or removed one by one
+
+    /**
+     * An order over the entries of a sequence.
+     */
+    public interface Order {
+        /**
+         * Compares two entries.
+         *
+         * @param a the first entry
+         * @param b the second entry
+         * @return a negative number, zero or a positive number as a sorts before, with or after b
+         */
+        int compare(long a, long b);
+    }
+
+    private final Order order; // Null for the natural order of the values
+    private final boolean frozen;
+    private long[][] chunks; // Entries of each chunk, which may have spare room at the end
+    private int[] ends; // Number of entries in the chunks up to and including each one
+    private int chunkCount;
+    private boolean[] owned; // Chunks this sequence may change in place, or null if none
+    private boolean spineShared; // The spine arrays are shared with a frozen copy
+    private LongSequence frozenCopy; // Copy returned by the last freeze(), until the next change
+
+    /**
+     * Constructs an empty sequence.
+     *
+     * @param order the order of the entries, or null to order them by value
+     */
+    public LongSequence(Order order) {
+        this(order, false, new long[8][], new int[8], 0);
+    }
+
+    private LongSequence(Order order, boolean frozen, long[][] chunks, int[] ends, int chunkCount) {
+        this.order = order;
+        this.frozen = frozen;
+        this.chunks = chunks;
+        this.ends = ends;
+        this.chunkCount = chunkCount;
+    }
+
+    /**
+     * Builds a sequence from entries that are already sorted, in O(n) time.
+     *
+     * @param order  the order of the entries, or null to order them by value
+     * @param sorted the entries, sorted and distinct
+     * @param count  the number of entries to take from the array
+     * @return the sequence
+     */
+    public static LongSequence fromSorted(Order order, long[] sorted, int count) {
+        int chunkCount = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        long[][] chunks = new long[Math.max(8, chunkCount)][];
+        int[] ends = new int[chunks.length];
+        for (int c = 0; c < chunkCount; c++) {
+            int from = c * CHUNK_SIZE;
+            int to = Math.min(count, from + CHUNK_SIZE);
+            chunks[c] = Arrays.copyOfRange(sorted, from, to);
+            ends[c] = to;
+        }
+        return new LongSequence(order, false, chunks, ends, chunkCount);
+    }
+
+    /**
+     * Retrieves the order of the entries.
+     *
+     * @return the order, or null if the entries are ordered by value
+     */
+    public Order getOrder() {
+        return order;
+    }
+
+    /**
+     * Retrieves the number of entries.
+     *
+     * @return the size of the sequence
+     */
+    public int size() {
+        return chunkCount == 0 ? 0 : ends[chunkCount - 1];
+    }
+
+    /**
+     * Retrieves the entry at a position.
+     *
+     * @param position the position, from 0 to size() - 1
+     * @return the entry
+     * @throws IndexOutOfBoundsException if the position is invalid
+     */
+    public long get(int position) {
+        if (position < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("Invalid index: " + position);
+        }
+        int c = chunkAt(position);
+        return chunks[c][position - start(c)];
+    }
+
+    /**
+     * Finds the first position whose entry does not satisfy a predicate that holds
+     * for a prefix of the sequence, such as "sorts before some key".
+     *
+     * @param before true for the entries of the prefix
+     * @return the length of the prefix
+     */
+    public int lowerBound(LongPredicate before) {
+        int low = 0;
+        int high = chunkCount;
+        while (low < high) { // First chunk whose last entry is not in the prefix
+            int mid = (low + high) >>> 1;
+            if (before.test(chunks[mid][ends[mid] - start(mid) - 1])) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == chunkCount) {
+            return size();
+        }
+        long[] chunk = chunks[low];
+        int from = start(low);
+        int first = 0;
+        int last = ends[low] - from;
+        while (first < last) {
+            int mid = (first + last) >>> 1;
+            if (before.test(chunk[mid])) {
+                first = mid + 1;
+            } else {
+                last = mid;
+            }
+        }
+        return from + first;
+    }
+
+    /**
+     * Finds the position at which an entry is or would be.
+     *
+     * @param entry the entry to look for
+     * @return the number of entries that sort before it
+     */
+    public int lowerBound(long entry) {
+        return lowerBound(other -> compare(other, entry) < 0);
+    }
+
+    /**
+     * Finds the position of an entry.
+     *
+     * @param entry the entry to look for
+     * @return the position, or -1 if the entry is not in the sequence
+     */
+    public int indexOf(long entry) {
+        int position = lowerBound(entry);
+        return position < size() && get(position) == entry ? position : -1;
+    }
+
+    /**
+     * Copies the entries into an array, in order.
+     *
+     * @return the entries
+     */
+    public long[] toArray() {
+        long[] entries = new long[size()];
+        for (int c = 0; c < chunkCount; c++) {
+            System.arraycopy(chunks[c], 0, entries, start(c), ends[c] - start(c));
+        }
+        return entries;
+    }
+
+    /**
+     * Inserts an entry at its place in the order.
+     *
+     * @param entry the entry, which must not compare equal to any in the sequence
+     * @return the position of the new entry
+     * @throws UnsupportedOperationException if the sequence is frozen
+     */
+    public int insert(long entry) {
+        prepareSpine();
+        int position = lowerBound(entry);
+        if (chunkCount == 0) {
+            addChunk(0, new long[] {entry, 0, 0, 0}, 1);
+            return 0;
+        }
+        int c = position == size() ? chunkCount - 1 : chunkAt(position);
+        if (ends[c] - start(c) == CHUNK_SIZE) {
+            split(c);
+            if (position > ends[c]) {
+                c++;
+            }
+        }
+        int from = start(c);
+        int length = ends[c] - from;
+        long[] chunk = writable(c, length + 1);
+        int offset = position - from;
+        System.arraycopy(chunk, offset, chunk, offset + 1, length - offset);
+        chunk[offset] = entry;
+        for (int i = c; i < chunkCount; i++) {
+            ends[i]++;
+        }
+        return position;
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param entry the entry to remove
+     * @return the position it had, or -1 if it was not in the sequence
+     * @throws UnsupportedOperationException if the sequence is frozen
+     */
+    public int remove(long entry) {
+        int position = indexOf(entry);
+        if (position >= 0) {
+            removeAt(position);
+        }
+        return position;
+    }
+
+    /**
+     * Removes the entry at a position.
+     *
+     * @param position the position, from 0 to size() - 1
+     * @return the removed entry
+     * @throws IndexOutOfBoundsException if the position is invalid
+     * @throws UnsupportedOperationException if the sequence is frozen
+     */
+    public long removeAt(int position) {
+        if (position < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("Invalid index: " + position);
+        }
+        prepareSpine();
+        int c = chunkAt(position);
+        int from = start(c);
+        int length = ends[c] - from;
+        if (length == 1) {
+            long removed = chunks[c][0];
+            deleteChunk(c);
+            for (int i = c; i < chunkCount; i++) {
+                ends[i]--;
+            }
+            return removed;
+        }
+        long[] chunk = writable(c, length);
+        int offset = position - from;
+        long removed = chunk[offset];
+        System.arraycopy(chunk, offset + 1, chunk, offset, length - offset - 1);
+        for (int i = c; i < chunkCount; i++) {
+            ends[i]--;
+        }
+        mergeIfSmall(c);
+        return removed;
+    }
+
+    /**
+     * Inserts many entries in one pass over the spine. Chunks that receive no new
+     * entry are kept as they are, so the cost is that of the chunks the entries
+     * fall in plus the spine, rather than one spine update per entry.
+     *
+     * @param sorted the entries, sorted, distinct and not in the sequence
+     * @param count  the number of entries to take from the array
+     * @throws UnsupportedOperationException if the sequence is frozen
+     */
+    public void insertAll(long[] sorted, int count) {
+        if (count < BULK_THRESHOLD) {
+            for (int i = 0; i < count; i++) {
+                insert(sorted[i]);
+            }
+            return;
+        }
+        prepareSpine();
+        SpineBuilder spine = new SpineBuilder(chunkCount + count / MERGE_SIZE + 2);
+        int next = 0; // Next entry to insert
+        for (int c = 0; c < chunkCount; c++) {
+            int length = ends[c] - start(c);
+            long[] chunk = chunks[c];
+            int stop = count;
+            if (c < chunkCount - 1) {
+                stop = next;
+                while (stop < count && compare(sorted[stop], chunk[length - 1]) < 0) {
+                    stop++;
+                }
+            }
+            if (stop == next) {
+                spine.add(chunk, length, owned[c]);
+                continue;
+            }
+            long[] merged = new long[length + stop - next];
+            int i = 0;
+            int j = next;
+            for (int k = 0; k < merged.length; k++) {
+                merged[k] = j == stop || (i < length && compare(chunk[i], sorted[j]) < 0) ? chunk[i++] : sorted[j++];
+            }
+            spine.addSplit(merged, merged.length);
+            next = stop;
+        }
+        if (next < count) { // The sequence was empty
+            spine.addSplit(Arrays.copyOfRange(sorted, next, count), count - next);
+        }
+        spine.install();
+    }
+
+    /**
+     * Removes many entries in one pass over the spine. Entries not in the
+     * sequence are ignored.
+     *
+     * @param sorted the entries, sorted and distinct
+     * @param count  the number of entries to take from the array
+     * @throws UnsupportedOperationException if the sequence is frozen
+     */
+    public void removeAll(long[] sorted, int count) {
+        if (count < BULK_THRESHOLD) {
+            for (int i = 0; i < count; i++) {
+                remove(sorted[i]);
+            }
+            return;
+        }
+        prepareSpine();
+        SpineBuilder spine = new SpineBuilder(chunkCount);
+        int next = 0; // Next entry to remove
+        for (int c = 0; c < chunkCount; c++) {
+            int length = ends[c] - start(c);
+            long[] chunk = chunks[c];
+            int stop = next;
+            while (stop < count && compare(sorted[stop], chunk[length - 1]) <= 0) {
+                stop++;
+            }
+            if (stop == next) {
+                spine.add(chunk, length, owned[c]);
+                continue;
+            }
+            long[] kept = new long[length];
+            int keptCount = 0;
+            int j = next;
+            for (int i = 0; i < length; i++) {
+                while (j < stop && compare(sorted[j], chunk[i]) < 0) {
+                    j++;
+                }
+                if (j < stop && sorted[j] == chunk[i]) {
+                    j++;
+                } else {
+                    kept[keptCount++] = chunk[i];
+                }
+            }
+            next = stop;
+            if (keptCount > 0) {
+                spine.add(kept, keptCount, true);
+            }
+        }
+        spine.install();
+    }
+
+    /**
+     * Returns an immutable copy of the sequence that shares its storage. The same
+     * copy is returned until the sequence next changes.
+     *
+     * @return the frozen copy, or this sequence if it is frozen already
+     */
+    public LongSequence freeze() {
+        if (frozen) {
+            return this;
+        }
+        if (frozenCopy == null) {
+            frozenCopy = new LongSequence(order, true, chunks, ends, chunkCount);
+            spineShared = true;
+            owned = null;
+        }
+        return frozenCopy;
+    }
+
+    private int compare(long a, long b) {
+        return order == null ? Long.compare(a, b) : order.compare(a, b);
+    }
+
+    private int start(int c) {
+        return c == 0 ? 0 : ends[c - 1];
+    }
+
+    /**
+     * Finds the chunk holding a position, which must be valid.
+     */
+    private int chunkAt(int position) {
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] > position) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Makes the spine safe to change: a spine shared with a frozen copy is copied,
+     * and from then on no chunk is owned until it has been copied too.
+     */
+    private void prepareSpine() {
+        if (frozen) {
+            throw new UnsupportedOperationException("A frozen sequence cannot be changed");
+        }
+        frozenCopy = null;
+        if (spineShared) {
+            chunks = chunks.clone();
+            ends = ends.clone();
+            spineShared = false;
+        }
+        if (owned == null) {
+            owned = new boolean[chunks.length];
+        }
+    }
+
+    /**
+     * Returns a chunk that may be changed in place, with room for the given number
+     * of entries, copying it if it is shared or too small.
+     */
+    private long[] writable(int c, int capacity) {
+        long[] chunk = chunks[c];
+        if (!owned[c] || chunk.length < capacity) {
+            int length = ends[c] - start(c);
+            chunk = Arrays.copyOf(chunk, Math.min(CHUNK_SIZE, Math.max(capacity, length + (length >> 1) + 1)));
+            chunks[c] = chunk;
+            owned[c] = true;
+        }
+        return chunk;
+    }
+
+    /**
+     * Splits a full chunk into two halves.
+     */
+    private void split(int c) {
+        int from = start(c);
+        int end = ends[c];
+        int half = (end - from) / 2;
+        long[] chunk = chunks[c];
+        addChunk(c + 1, Arrays.copyOfRange(chunk, half, end - from), end);
+        chunks[c] = Arrays.copyOf(chunk, half + (half >> 1));
+        owned[c] = true;
+        ends[c] = from + half;
+    }
+
+    /**
+     * Inserts a chunk into the spine. The caller fixes the ends of later chunks.
+     */
+    private void addChunk(int c, long[] chunk, int end) {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            ends = Arrays.copyOf(ends, chunkCount * 2);
+            owned = Arrays.copyOf(owned, chunkCount * 2);
+        }
+        System.arraycopy(chunks, c, chunks, c + 1, chunkCount - c);
+        System.arraycopy(ends, c, ends, c + 1, chunkCount - c);
+        System.arraycopy(owned, c, owned, c + 1, chunkCount - c);
+        chunks[c] = chunk;
+        ends[c] = end;
+        owned[c] = true;
+        chunkCount++;
+    }
+
+    /**
+     * Removes a chunk from the spine. The caller fixes the ends of later chunks.
+     */
+    private void deleteChunk(int c) {
+        System.arraycopy(chunks, c + 1, chunks, c, chunkCount - c - 1);
+        System.arraycopy(ends, c + 1, ends, c, chunkCount - c - 1);
+        System.arraycopy(owned, c + 1, owned, c, chunkCount - c - 1);
+        chunkCount--;
+        chunks[chunkCount] = null;
+    }
+
+    /**
+     * Merges a chunk into a neighbour when both together are small, so that
+     * removals cannot leave the spine full of nearly empty chunks.
+     */
+    private void mergeIfSmall(int c) {
+        if (c + 1 < chunkCount && ends[c + 1] - start(c) <= MERGE_SIZE) {
+            // Merge the next chunk into this one
+        } else if (c > 0 && ends[c] - start(c - 1) <= MERGE_SIZE) {
+            c--;
+        } else {
+            return;
+        }
+        int from = start(c);
+        int length = ends[c] - from;
+        int nextLength = ends[c + 1] - ends[c];
+        long[] chunk = writable(c, length + nextLength);
+        System.arraycopy(chunks[c + 1], 0, chunk, length, nextLength);
+        ends[c] = ends[c + 1];
+        deleteChunk(c + 1);
+    }
+
+    /**
+     * Collects the chunks of a new spine during a bulk change, then replaces the
+     * sequence's spine with it.
+     */
+    private final class SpineBuilder {
+        private long[][] newChunks;
+        private int[] newEnds;
+        private boolean[] newOwned;
+        private int count;
+
+        SpineBuilder(int capacity) {
+            capacity = Math.max(8, capacity);
+            newChunks = new long[capacity][];
+            newEnds = new int[capacity];
+            newOwned = new boolean[capacity];
+        }
+
+        void add(long[] chunk, int length, boolean isOwned) {
+            if (count > 0 && newEnds[count - 1] - start() + length <= MERGE_SIZE) {
+                long[] previous = newChunks[count - 1];
+                int previousLength = newEnds[count - 1] - start();
+                long[] merged = Arrays.copyOf(previous, previousLength + length);
+                System.arraycopy(chunk, 0, merged, previousLength, length);
+                newChunks[count - 1] = merged;
+                newEnds[count - 1] += length;
+                newOwned[count - 1] = true;
+                return;
+            }
+            if (count == newChunks.length) {
+                newChunks = Arrays.copyOf(newChunks, count * 2);
+                newEnds = Arrays.copyOf(newEnds, count * 2);
+                newOwned = Arrays.copyOf(newOwned, count * 2);
+            }
+            newChunks[count] = chunk;
+            newEnds[count] = (count == 0 ? 0 : newEnds[count - 1]) + length;
+            newOwned[count] = isOwned;
+            count++;
+        }
+
+        /**
+         * Adds entries as evenly filled chunks of at most CHUNK_SIZE entries.
+         */
+        void addSplit(long[] entries, int length) {
+            int pieces = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            for (int p = 0; p < pieces; p++) {
+                int from = (int) ((long) length * p / pieces);
+                int to = (int) ((long) length * (p + 1) / pieces);
+                add(pieces == 1 ? entries : Arrays.copyOfRange(entries, from, to), to - from, true);
+            }
+        }
+
+        void install() {
+            chunks = newChunks;
+            ends = newEnds;
+            owned = newOwned;
+            chunkCount = count;
+        }
+
+        private int start() {
+            return count < 2 ? 0 : newEnds[count - 2];
+        }
+    }
+}
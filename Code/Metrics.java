@@ -0,0 +1,122 @@
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics is the registry of the application's latency histograms and counters.
+ * Each metric is created on first use, registered as an MBean under the domain
+ * {@code photoapp}, and kept by its callers in a static field, so that recording
+ * never looks anything up.
+ *
+ * <p>Metrics are on unless the {@code photoapp.metrics} system property is set
+ * to false, in which case recording returns at once and the shared registry
+ * stays out of JMX, so the MBean server is never started.
+ */
+public final class Metrics {
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("photoapp.metrics", "true"));
+    private static final Metrics SHARED = new Metrics(ENABLED ? ManagementFactory.getPlatformMBeanServer() : null);
+
+    private final MBeanServer server;
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>(); // Sorted by name
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+
+    /**
+     * Constructs a registry that registers its metrics with the given server.
+     *
+     * @param server the MBean server, or null to keep the metrics out of JMX
+     */
+    public Metrics(MBeanServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Retrieves the registry shared by the whole application, which registers
+     * with the platform MBean server while metrics are enabled.
+     *
+     * @return the shared Metrics instance
+     */
+    public static Metrics getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Checks whether metrics are being recorded.
+     *
+     * @return false if the photoapp.metrics system property is false
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Retrieves a latency histogram, creating and registering it on first use.
+     *
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> {
+            LatencyHistogram histogram = new LatencyHistogram(key);
+            register("Latency", key, histogram);
+            return histogram;
+        });
+    }
+
+    /**
+     * Retrieves a counter, creating and registering it on first use.
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> {
+            Counter counter = new Counter(key);
+            register("Counter", key, counter);
+            return counter;
+        });
+    }
+
+    /**
+     * Retrieves every histogram created so far.
+     *
+     * @return an unmodifiable live view of the histograms by name, in name order
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * Retrieves every counter created so far.
+     *
+     * @return an unmodifiable live view of the counters by name, in name order
+     */
+    public Map<String, Counter> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * Registers an MBean as {@code photoapp:type=<type>,name=<name>}. A failure is
+     * reported but not fatal, because the metric still works in the application.
+     *
+     * @param type  the kind of MBean, such as Latency or Cache
+     * @param name  the name of the MBean
+     * @param mbean the object to register, which must be a compliant MBean
+     */
+    public void register(String type, String name, Object mbean) {
+        if (server == null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName("photoapp:type=" + type + ",name=" + name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (JMException e) {
+            System.err.println("Could not register metric " + name + " with JMX: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,564 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * NameSearchIndex finds photos by name as the user types, without scanning the
+ * album. Names are compared case-insensitively and split into words at every
+ * character that is not a letter or digit, so "Beach_Sunset 2019" has the words
+ * "beach", "sunset" and "2019".
+ *
+ * <p>Two structures are kept. A trie over the words of every name answers prefix
+ * queries in time proportional to the query and the number of matches, and also
+ * serves approximate queries by walking the trie with an edit distance row, so
+ * their cost depends on the vocabulary rather than the album. An index from each
+ * three-character sequence (trigram) of a name to the photos containing it
+ * answers substring queries: only photos that contain the query's rarest
+ * trigram are checked.
+ *
+ * <p>Every name carries an integer ID, added in increasing order like the photo
+ * IDs handed out by PhotoAlbumModel. Removed IDs are dropped from query results
+ * at once and from the structures themselves when the index is next rebuilt,
+ * which happens when removed names outnumber live ones.
+ *
+ * <p>The index may be searched from any thread while another updates it.
+ */
+public final class NameSearchIndex {
+    private static final int GRAM = 3; // Length of the sequences in the substring index
+    private static final int MIN_REBUILD = 1024; // Removed names tolerated before rebuilding
+    private static final int[] NONE = new int[0];
+
+    private String[] names = new String[1024]; // Normalized name of each live ID
+    private final BitSet live = new BitSet();
+    private int lastId = -1;
+    private int size;
+    private int removed; // Removed IDs still present in postings
+
+    // Word trie. Children are kept in a linked list per node.
+    private char[] labels;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[][] wordIds; // IDs of the names containing the word ending at each node
+    private int[] wordIdCounts;
+    private int nodeCount;
+
+    // Trigram postings, found through an open-addressing table of packed trigrams.
+    private long[] gramKeys;
+    private int[] gramSlots; // Posting of each table entry, or -1 if empty
+    private int[][] postings;
+    private int[] postingSizes;
+    private int gramCount;
+
+    /**
+     * Constructs an empty index.
+     */
+    public NameSearchIndex() {
+        clear();
+    }
+
+    /**
+     * Retrieves the number of names in the index.
+     *
+     * @return the number of live IDs
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds a name under an ID greater than every ID added before.
+     *
+     * @param id   the ID
+     * @param name the name
+     * @throws IllegalArgumentException if the ID is not greater than the last one added
+     */
+    public synchronized void add(int id, String name) {
+        if (id <= lastId) {
+            throw new IllegalArgumentException("IDs must be added in increasing order: " + id);
+        }
+        lastId = id;
+        if (id >= names.length) {
+            names = Arrays.copyOf(names, Math.max(id + 1, names.length * 2));
+        }
+        String normalized = normalize(name);
+        names[id] = normalized;
+        live.set(id);
+        size++;
+        indexName(id, normalized);
+    }
+
+    /**
+     * Removes the name with the given ID.
+     *
+     * @param id the ID
+     * @return true if the ID was in the index
+     */
+    public synchronized boolean remove(int id) {
+        if (id < 0 || !live.get(id)) {
+            return false;
+        }
+        live.clear(id);
+        names[id] = null;
+        size--;
+        if (++removed > MIN_REBUILD && removed > size) {
+            rebuild();
+        }
+        return true;
+    }
+
+    /**
+     * Finds the names with a word that starts with the given text.
+     *
+     * @param prefix the start of a word
+     * @return the matching IDs in ascending order
+     */
+    public synchronized int[] findByPrefix(String prefix) {
+        String normalized = normalize(prefix);
+        int node = 0;
+        int position = 0;
+        while (position < normalized.length() && node >= 0) {
+            node = child(node, normalized.charAt(position++));
+        }
+        if (node < 0) {
+            return NONE;
+        }
+        IdCollector matches = new IdCollector();
+        matches.addSubtree(node);
+        return matches.sortedIds();
+    }
+
+    /**
+     * Finds the names that contain the given text anywhere, across word boundaries.
+     * Text shorter than three characters cannot use the trigram index and is
+     * looked for in every name.
+     *
+     * @param text the text to look for
+     * @return the matching IDs in ascending order
+     */
+    public synchronized int[] findContaining(String text) {
+        String normalized = normalize(text);
+        if (normalized.length() < GRAM) {
+            return scan(normalized);
+        }
+        int rarest = -1;
+        for (int i = 0; i + GRAM <= normalized.length(); i++) {
+            int posting = posting(gram(normalized, i));
+            if (posting < 0) {
+                return NONE; // No name has this trigram
+            }
+            if (rarest < 0 || postingSizes[posting] < postingSizes[rarest]) {
+                rarest = posting;
+            }
+        }
+        int[] candidates = postings[rarest];
+        int[] matches = new int[Math.min(postingSizes[rarest], size)];
+        int count = 0;
+        for (int i = 0; i < postingSizes[rarest]; i++) {
+            int id = candidates[i];
+            if (live.get(id) && names[id].contains(normalized)) {
+                matches[count++] = id;
+            }
+        }
+        return Arrays.copyOf(matches, count); // Postings are in ID order
+    }
+
+    /**
+     * Finds the names with a word that starts with the given text, allowing for
+     * a number of mistyped, missing, extra or swapped characters.
+     *
+     * @param prefix   the start of a word
+     * @param maxEdits the number of single-character edits allowed
+     * @return the matching IDs in ascending order
+     */
+    public synchronized int[] findApproximate(String prefix, int maxEdits) {
+        String normalized = normalize(prefix);
+        if (maxEdits <= 0) {
+            return findByPrefix(normalized);
+        }
+        int[][] rows = new int[normalized.length() + 2][normalized.length() + 1];
+        for (int j = 0; j <= normalized.length(); j++) {
+            rows[0][j] = j;
+        }
+        IdCollector matches = new IdCollector();
+        if (normalized.length() <= maxEdits) {
+            matches.addSubtree(0); // Every word is within reach
+        } else {
+            for (int node = firstChild[0]; node >= 0; node = nextSibling[node]) {
+                approximate(node, (char) 0, 1, normalized, maxEdits, rows, matches);
+            }
+        }
+        return matches.sortedIds();
+    }
+
+    /**
+     * Finds the names that match every term of a query. Each term of three or more
+     * characters matches names that contain it; a shorter term matches names with
+     * a word that starts with it, since nearly every name contains it somewhere.
+     * The first term is looked up in the index and the names it matches are then
+     * checked against the other terms.
+     *
+     * @param query the terms, separated by spaces or punctuation
+     * @return the matching IDs in ascending order, or every ID if the query has no terms
+     */
+    public synchronized int[] search(String query) {
+        return search(query, 0);
+    }
+
+    /**
+     * Finds the names that match every term of a query, allowing each term to
+     * match the start of a word with a number of edits.
+     *
+     * @param query    the terms, separated by spaces or punctuation
+     * @param maxEdits the number of single-character edits allowed per term, or
+     *                 zero for {@link #search(String)}
+     * @return the matching IDs in ascending order, or every ID if the query has no terms
+     */
+    public synchronized int[] search(String query, int maxEdits) {
+        int[] result = null;
+        for (String term : words(normalize(query))) {
+            if (result == null || maxEdits > 0) {
+                int[] matches;
+                if (maxEdits > 0) {
+                    matches = findApproximate(term, Math.min(maxEdits, (term.length() - 1) / 2)); // Keep short terms selective
+                } else if (term.length() < GRAM) {
+                    matches = findByPrefix(term);
+                } else {
+                    matches = findContaining(term);
+                }
+                result = result == null ? matches : intersect(result, matches);
+            } else {
+                result = retain(result, term);
+            }
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return result != null ? result : live.stream().toArray();
+    }
+
+    /**
+     * Converts a name to the form that is indexed: lower case, character by
+     * character, so that its length does not change.
+     */
+    private static String normalize(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Splits a normalized name into its words.
+     */
+    private static String[] words(String normalized) {
+        String[] words = new String[normalized.length() / 2 + 1];
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words[count++] = normalized.substring(start, i);
+                start = -1;
+            }
+        }
+        return Arrays.copyOf(words, count);
+    }
+
+    /**
+     * Adds an ID to the trie under each of its words and to the posting of each of its trigrams.
+     */
+    private void indexName(int id, String normalized) {
+        for (String word : words(normalized)) {
+            int node = 0;
+            for (int i = 0; i < word.length(); i++) {
+                int next = child(node, word.charAt(i));
+                node = next >= 0 ? next : addChild(node, word.charAt(i));
+            }
+            int count = wordIdCounts[node];
+            if (count > 0 && wordIds[node][count - 1] == id) {
+                continue; // The word appears twice in the name
+            }
+            wordIds[node] = append(wordIds[node], count, id);
+            wordIdCounts[node] = count + 1;
+        }
+        for (int i = 0; i + GRAM <= normalized.length(); i++) {
+            int posting = addGram(gram(normalized, i));
+            int count = postingSizes[posting];
+            if (count > 0 && postings[posting][count - 1] == id) {
+                continue; // The trigram appears twice in the name
+            }
+            postings[posting] = append(postings[posting], count, id);
+            postingSizes[posting] = count + 1;
+        }
+    }
+
+    /**
+     * Walks the trie below a node, computing the edit distance row of the query
+     * against the word so far, and collects every subtree whose word starts
+     * within maxEdits of the whole query. Swapping two adjacent characters counts
+     * as one edit.
+     */
+    private void approximate(int node, char parentLabel, int depth, String query, int maxEdits, int[][] rows,
+                             IdCollector matches) {
+        if (depth == rows.length) {
+            int[][] grown = Arrays.copyOf(rows, rows.length * 2);
+            for (int i = rows.length; i < grown.length; i++) {
+                grown[i] = new int[query.length() + 1];
+            }
+            rows = grown;
+        }
+        int[] previous = rows[depth - 1];
+        int[] row = rows[depth];
+        char label = labels[node];
+        row[0] = depth;
+        int best = row[0];
+        for (int j = 1; j <= query.length(); j++) {
+            int substitute = previous[j - 1] + (query.charAt(j - 1) == label ? 0 : 1);
+            row[j] = Math.min(substitute, Math.min(row[j - 1], previous[j]) + 1);
+            if (j > 1 && depth > 1 && query.charAt(j - 1) == parentLabel && query.charAt(j - 2) == label) {
+                row[j] = Math.min(row[j], rows[depth - 2][j - 2] + 1);
+            }
+            best = Math.min(best, row[j]);
+        }
+        if (row[query.length()] <= maxEdits) {
+            matches.addSubtree(node); // Every word below starts with a close match
+        } else if (best <= maxEdits) {
+            for (int next = firstChild[node]; next >= 0; next = nextSibling[next]) {
+                approximate(next, label, depth + 1, query, maxEdits, rows, matches);
+            }
+        }
+    }
+
+    /**
+     * Returns the live IDs whose name contains the text, by checking every name.
+     */
+    private int[] scan(String normalized) {
+        int[] matches = new int[size];
+        int count = 0;
+        for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+            if (names[id].contains(normalized)) {
+                matches[count++] = id;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * Returns the IDs whose name matches a further exact search term.
+     */
+    private int[] retain(int[] ids, String term) {
+        int count = 0;
+        for (int id : ids) {
+            String name = names[id];
+            boolean match = false;
+            if (term.length() >= GRAM) {
+                match = name.contains(term);
+            } else {
+                for (int i = name.indexOf(term); i >= 0 && !match; i = name.indexOf(term, i + 1)) {
+                    match = i == 0 || !Character.isLetterOrDigit(name.charAt(i - 1)); // At the start of a word
+                }
+            }
+            if (match) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Returns the IDs present in both ascending arrays.
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] both = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                both[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(both, count);
+    }
+
+    /**
+     * Empties both structures, keeping the names.
+     */
+    private void clear() {
+        labels = new char[256];
+        firstChild = new int[256];
+        nextSibling = new int[256];
+        wordIds = new int[256][];
+        wordIdCounts = new int[256];
+        nodeCount = 1; // The root, which has no label
+        firstChild[0] = -1;
+        nextSibling[0] = -1;
+
+        gramKeys = new long[1024];
+        gramSlots = new int[1024];
+        Arrays.fill(gramSlots, -1);
+        postings = new int[512][];
+        postingSizes = new int[512];
+        gramCount = 0;
+    }
+
+    /**
+     * Rebuilds both structures from the live names, dropping removed IDs and the
+     * words and trigrams that only they had.
+     */
+    private void rebuild() {
+        clear();
+        for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+            indexName(id, names[id]);
+        }
+        removed = 0;
+    }
+
+    private int child(int node, char label) {
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+            if (labels[child] == label) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    private int addChild(int node, char label) {
+        if (nodeCount == labels.length) {
+            int capacity = nodeCount * 2;
+            labels = Arrays.copyOf(labels, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            wordIds = Arrays.copyOf(wordIds, capacity);
+            wordIdCounts = Arrays.copyOf(wordIdCounts, capacity);
+        }
+        int child = nodeCount++;
+        labels[child] = label;
+        firstChild[child] = -1;
+        nextSibling[child] = firstChild[node];
+        firstChild[node] = child;
+        return child;
+    }
+
+    private static long gram(String normalized, int start) {
+        return (long) normalized.charAt(start) << 32 | (long) normalized.charAt(start + 1) << 16
+                | normalized.charAt(start + 2);
+    }
+
+    /**
+     * Returns the posting of a trigram, or -1 if no name has it.
+     */
+    private int posting(long gram) {
+        int mask = gramSlots.length - 1;
+        for (int i = slot(gram, mask); gramSlots[i] >= 0; i = (i + 1) & mask) {
+            if (gramKeys[i] == gram) {
+                return gramSlots[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the posting of a trigram, creating an empty one if no name has it yet.
+     */
+    private int addGram(long gram) {
+        int posting = posting(gram);
+        if (posting >= 0) {
+            return posting;
+        }
+        if (2 * (gramCount + 1) > gramSlots.length) {
+            long[] oldKeys = gramKeys;
+            int[] oldSlots = gramSlots;
+            gramKeys = new long[oldKeys.length * 2];
+            gramSlots = new int[oldSlots.length * 2];
+            Arrays.fill(gramSlots, -1);
+            for (int i = 0; i < oldSlots.length; i++) {
+                if (oldSlots[i] >= 0) {
+                    place(oldKeys[i], oldSlots[i]);
+                }
+            }
+        }
+        if (gramCount == postings.length) {
+            postings = Arrays.copyOf(postings, gramCount * 2);
+            postingSizes = Arrays.copyOf(postingSizes, gramCount * 2);
+        }
+        posting = gramCount++;
+        place(gram, posting);
+        return posting;
+    }
+
+    private void place(long gram, int posting) {
+        int mask = gramSlots.length - 1;
+        int i = slot(gram, mask);
+        while (gramSlots[i] >= 0) {
+            i = (i + 1) & mask;
+        }
+        gramKeys[i] = gram;
+        gramSlots[i] = posting;
+    }
+
+    private static int slot(long gram, int mask) {
+        long h = gram * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    private static int[] append(int[] ids, int count, int id) {
+        if (ids == null) {
+            ids = new int[2];
+        } else if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count] = id;
+        return ids;
+    }
+
+    /**
+     * Gathers the live IDs stored under trie nodes, which may repeat when a name
+     * has several matching words.
+     */
+    private final class IdCollector {
+        private int[] ids = new int[16];
+        private int count;
+        private int[] stack = new int[16];
+
+        void addSubtree(int root) {
+            int depth = 0;
+            stack[depth++] = root;
+            while (depth > 0) {
+                int node = stack[--depth];
+                int[] nodeIds = wordIds[node];
+                for (int i = 0; i < wordIdCounts[node]; i++) {
+                    if (live.get(nodeIds[i])) {
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                        }
+                        ids[count++] = nodeIds[i];
+                    }
+                }
+                for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = child;
+                }
+            }
+        }
+
+        int[] sortedIds() {
+            Arrays.sort(ids, 0, count);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (unique == 0 || ids[i] != ids[unique - 1]) {
+                    ids[unique++] = ids[i];
+                }
+            }
+            return Arrays.copyOf(ids, unique);
+        }
+    }
+}
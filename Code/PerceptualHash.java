@@ -0,0 +1,68 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * PerceptualHash computes difference hashes (dHash) of images. The image is
+ * shrunk to 9x8 grey pixels and each of the 64 bits records whether a pixel is
+ * darker than its right-hand neighbour. Resized, re-encoded or slightly edited
+ * copies of a photo get hashes that differ in only a few bits, so the Hamming
+ * distance between two hashes measures how alike the photos look.
+ */
+public final class PerceptualHash {
+    private static final int DECODE_SIZE = 32; // Small decode the hash is computed from
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Computes the hash of an image file from a small subsampled decode.
+     *
+     * @param file the image file
+     * @return the 64-bit hash
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static long of(File file) throws IOException {
+        return of(ThumbnailDecoder.decode(file, DECODE_SIZE, DECODE_SIZE));
+    }
+
+    /**
+     * Computes the hash of an image.
+     *
+     * @param image the image
+     * @return the 64-bit hash
+     */
+    public static long of(BufferedImage image) {
+        BufferedImage grey = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = grey.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, 9, 8, null);
+        g.dispose();
+
+        Raster pixels = grey.getRaster();
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash <<= 1;
+                if (pixels.getSample(x, y, 0) < pixels.getSample(x + 1, y, 0)) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Counts the bits in which two hashes differ.
+     *
+     * @param a the first hash
+     * @param b the second hash
+     * @return the Hamming distance, from 0 for identical hashes to 64
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
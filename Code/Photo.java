@@ -1,17 +1,23 @@
-import java.awt.Image;
 import java.util.Date;
+import java.util.Objects;
 import javax.swing.ImageIcon;
 
 /**
  * The Photo class represents an image file with metadata including its name,
- * file path, date added, and file size. It provides access to these properties
- * and a method to generate a thumbnail of the image for display purposes.
+ * file path, date added, and file size, along with the capture date, dimensions
+ * and orientation read from the file's headers. It provides access to these
+ * properties and a method to generate a thumbnail of the image for display purposes.
+ *
+ * <p>Photos are compared by value, so a photo handed out by a columnar store is
+ * equal to any other instance with the same properties.
  */
 public class Photo {
     private final String name;      
     private final String filePath;  
     private final Date dateAdded;   
     private final long fileSize;    
+    private final long lastModified;
+    private final PhotoMetadata metadata;
 
     /**
      * Constructs a Photo instance with the specified name, file path, date added, and file size.
@@ -22,10 +28,36 @@ public class Photo {
      * @param fileSize  the size of the photo file in bytes
      */
     public Photo(String name, String filePath, Date dateAdded, long fileSize) {
+        this(name, filePath, dateAdded, fileSize, 0, PhotoMetadata.NONE);
+    }
+
+    /**
+     * Constructs a Photo instance that also records the version of its file and
+     * the metadata read from it.
+     *
+     * @param name         the name of the photo
+     * @param filePath     the path to the photo file
+     * @param dateAdded    the date the photo was added to the album
+     * @param fileSize     the size of the photo file in bytes
+     * @param lastModified the last-modified time of the file in epoch milliseconds, or 0 if unknown
+     * @param metadata     the capture date, dimensions and orientation recorded in the file
+     */
+    public Photo(String name, String filePath, Date dateAdded, long fileSize, long lastModified,
+            PhotoMetadata metadata) {
         this.name = name;
         this.filePath = filePath;
         this.dateAdded = dateAdded;
         this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.metadata = metadata;
+    }
+
+    /**
+     * Constructs a Photo without properties of its own, for subclasses that
+     * supply every property by overriding the getters.
+     */
+    protected Photo() {
+        this(null, null, null, 0);
     }
 
     /**
@@ -64,15 +96,76 @@ public class Photo {
         return fileSize;
     }
 
+    /**
+     * Retrieves the last-modified time the file had when the photo was recorded.
+     * Together with the file size it identifies the version of the file that
+     * cached renditions were made from.
+     *
+     * @return the last-modified time in epoch milliseconds, or 0 if unknown
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Retrieves the capture date, dimensions and orientation recorded in the file.
+     *
+     * @return the metadata, PhotoMetadata.NONE if none was read
+     */
+    public PhotoMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Retrieves the date the picture was taken, falling back to the date it was
+     * added for files that record no capture date.
+     *
+     * @return the capture date, or the date added if it is unknown
+     */
+    public Date getDateTaken() {
+        PhotoMetadata recorded = getMetadata();
+        return recorded.hasDateTaken() ? new Date(recorded.getDateTaken()) : getDateAdded();
+    }
+
     /**
      * Generates a thumbnail image for the photo, scaled to 50x50 pixels.
+     * Thumbnails are served from the shared ThumbnailCache when available.
      *
      * @return an ImageIcon of the photo thumbnail
      */
     public ImageIcon getThumbnail() {
-        ImageIcon icon = new ImageIcon(filePath);
-        Image img = icon.getImage().getScaledInstance(50, 50, Image.SCALE_SMOOTH); 
-        return new ImageIcon(img);
+        return ThumbnailCache.getShared().getThumbnail(this, 50, 50);
+    }
+
+    /**
+     * Compares this photo with another by name, file path, date added and file size.
+     *
+     * @param o the object to compare with
+     * @return true if o is a Photo with the same properties
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Photo)) {
+            return false;
+        }
+        Photo other = (Photo) o;
+        return getFileSize() == other.getFileSize()
+                && getDateAdded().getTime() == other.getDateAdded().getTime()
+                && getFilePath().equals(other.getFilePath())
+                && getName().equals(other.getName());
+    }
+
+    /**
+     * Computes a hash code consistent with {@link #equals(Object)}.
+     *
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(getFilePath(), getFileSize());
     }
 
     /**
@@ -83,6 +176,6 @@ public class Photo {
      */
     @Override
     public String toString() {
-        return name + " - " + dateAdded + " (" + fileSize + " bytes)"; 
+        return getName() + " - " + getDateAdded() + " (" + getFileSize() + " bytes)"; 
     }
 }
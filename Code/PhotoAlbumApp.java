@@ -1,19 +1,107 @@
+import java.io.File;
+import java.io.IOException;
+
 /**
  * The main class for the photo album application. Initializes the model, view,
  * and controller, and sets up event listeners.
  */
 public class PhotoAlbumApp {
+    private static final File ALBUM_DIRECTORY = new File(System.getProperty("user.home"), ".photoapp");
 
     /**
-     * Main method that starts the application.
+     * Main method that starts the application. Given arguments, it runs the
+     * headless command-line interface instead, without opening a window.
      *
-     * @param args command-line arguments (not used)
+     * @param args command-line arguments for PhotoAlbumCli, or none to open the album window
      */
     public static void main(String[] args) {
-        PhotoAlbumModel model = new PhotoAlbumModel();
+        if (args.length > 0) {
+            PhotoAlbumCli.main(args);
+            return;
+        }
+        openPreviewStore();
+        Metrics.getShared().register("Cache", "thumbnails", ThumbnailCache.getShared());
+        installEdtMonitor();
+
+        PhotoAlbumModel model = openModel();
+        model.setSimilarityIndex(new SimilarityIndex()); // Hashes photos in the background
         PhotoAlbumView view = new PhotoAlbumView();
         PhotoAlbumController controller = new PhotoAlbumController(model, view);
+        AlbumSync sync = startSync(model, controller);
+        // One hook, so that the sync stops changing the album before its catalog closes
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (sync != null) {
+                sync.close();
+            }
+            model.close();
+        }, "album-close"));
+    }
+
+    /**
+     * Starts keeping the imported folders in sync with the album, unless the
+     * photoapp.sync system property is set to false.
+     *
+     * @return the running sync, or null if it is off or unavailable
+     */
+    private static AlbumSync startSync(PhotoAlbumModel model, PhotoAlbumController controller) {
+        if (!Boolean.parseBoolean(System.getProperty("photoapp.sync", "true"))) {
+            return null;
+        }
+        AlbumSync sync = new AlbumSync(model, ALBUM_DIRECTORY, controller::fileChanged);
+        try {
+            sync.start();
+        } catch (IOException e) {
+            System.err.println("Folder sync unavailable, outside changes will not be picked up: " + e.getMessage());
+            return null;
+        }
+        controller.setAlbumSync(sync);
+        return sync;
+    }
 
-        controller.setupListeners();
+    /**
+     * Creates the model backed by the album catalog in the user's home directory,
+     * falling back to an in-memory album if the catalog cannot be read. Setting the
+     * system property photoapp.columnarStore to true keeps the photos in columnar
+     * storage, which suits very large albums.
+     *
+     * @return the PhotoAlbumModel to use
+     */
+    private static PhotoAlbumModel openModel() {
+        AlbumCatalog catalog = new AlbumCatalog(ALBUM_DIRECTORY);
+        boolean columnar = Boolean.getBoolean("photoapp.columnarStore");
+        try {
+            return new PhotoAlbumModel(catalog, columnar);
+        } catch (IOException e) {
+            System.err.println("Album catalog unavailable, changes will not be saved: " + e.getMessage());
+            catalog.close();
+            return new PhotoAlbumModel(columnar);
+        }
+    }
+
+    /**
+     * Starts timing the Event Dispatch Thread, reporting events that take longer
+     * than the photoapp.edtStallMillis system property (100 ms by default). Setting
+     * it to 0 leaves the monitor out.
+     */
+    private static void installEdtMonitor() {
+        long thresholdMillis = Long.getLong("photoapp.edtStallMillis", EdtMonitor.DEFAULT_THRESHOLD_MILLIS);
+        if (thresholdMillis > 0) {
+            EdtMonitor.install(thresholdMillis);
+        }
+    }
+
+    /**
+     * Opens the on-disk preview store and attaches it to the shared thumbnail cache.
+     * The application still works without it, only with slower cold thumbnails.
+     */
+    private static void openPreviewStore() {
+        File location = new File(ALBUM_DIRECTORY, "previews.pack");
+        try {
+            PreviewStore previews = PreviewStore.open(location);
+            ThumbnailCache.getShared().setPreviewStore(previews);
+            Runtime.getRuntime().addShutdownHook(new Thread(previews::close, "preview-store-close"));
+        } catch (IOException e) {
+            System.err.println("Preview store unavailable, thumbnails will not persist: " + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,534 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PhotoAlbumCli runs album operations without a user interface, for scripts and
+ * servers with no display. It drives the PhotoAlbumModel and its catalog directly,
+ * and never loads the AWT windowing classes. Commands run in the order given, so
+ * one invocation can import, sort, generate previews and list the result:
+ *
+ * <pre>
+ * java -cp photoapp.jar PhotoAlbumCli [--album DIR] [--columnar] COMMAND [ARG] ...
+ *
+ *   import DIR                add every image under the directory tree and keep
+ *                             it in sync from then on
+ *   sync                      apply the changes made in imported trees since
+ *                             the last sync, found by comparing file attributes
+ *   sort name|date|taken|size change the order the album is shown and listed in;
+ *                             date is the date added, taken the capture date
+ *   list [FILTER] ...         write the album to standard output
+ *   export FILE [FILTER] ...  write the album to a file
+ *   thumbnails [SIZE]         store previews of every photo, SIZE pixels square
+ *                             (the list thumbnail size by default)
+ *
+ * Filters of list and export:
+ *   --added FROM..TO          photos added from FROM up to, but not including, TO
+ *   --taken FROM..TO          photos taken from FROM up to, but not including, TO
+ *   --size MIN..MAX           photos of at least MIN and less than MAX bytes
+ * </pre>
+ *
+ * <p>Dates are given as 2024-05-01 or 2024-05-01T12:00:00Z, in UTC, and either
+ * end of a range may be left out. A filtered listing is read from the album's
+ * date or size index instead of scanning every photo, and is ordered by the
+ * filtered property; with several filters, by that of the narrowest one.
+ *
+ * <p>Metrics are off unless the photoapp.metrics system property is set to true.
+ *
+ * <p>Listings have a header line, then one photo per line with its path, name,
+ * date added, size in bytes, and the capture date, width, height and orientation
+ * read from the file, separated by tabs. Unknown capture dates and dimensions are
+ * left empty. Tabs, line breaks and
+ * backslashes in names and paths are escaped with a backslash.
+ */
+public final class PhotoAlbumCli {
+    private static final int IMPORT_BATCH_SIZE = 5000; // Photos added to the model per import batch
+    private static final int PROGRESS_INTERVAL = 10000; // Previews generated between progress reports
+    private static final int OUTPUT_BUFFER = 1 << 16;
+    private static final String USAGE = "Usage: PhotoAlbumCli [--album DIR] [--columnar] COMMAND [ARG] ...\n"
+            + "Commands: import DIR | sync | sort name|date|taken|size | list [FILTER] ... | export FILE [FILTER] ..."
+            + " | thumbnails [SIZE]\n"
+            + "Filters: --added FROM..TO | --taken FROM..TO | --size MIN..MAX";
+
+    private final PhotoAlbumModel model;
+    private final File albumDirectory;
+    private AlbumSync sync; // Created on first use
+
+    private PhotoAlbumCli(PhotoAlbumModel model, File albumDirectory) {
+        this.model = model;
+        this.albumDirectory = albumDirectory;
+    }
+
+    /**
+     * Runs the commands given on the command line and exits with status 0 if all
+     * succeed, 1 if one fails, or 2 if the command line is invalid.
+     *
+     * @param args the options and commands
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true"); // Before any AWT class is loaded
+        if (System.getProperty("photoapp.metrics") == null) {
+            System.setProperty("photoapp.metrics", "false"); // Starting JMX would slow every run
+        }
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs the commands given on the command line.
+     *
+     * @param args the options and commands
+     * @return the exit status: 0 on success, 1 if a command failed, 2 for invalid usage
+     */
+    static int run(String[] args) {
+        File albumDirectory = new File(System.getProperty("user.home"), ".photoapp");
+        boolean columnar = Boolean.getBoolean("photoapp.columnarStore");
+        int next = 0;
+        while (next < args.length && args[next].startsWith("--")) {
+            if (args[next].equals("--album") && next + 1 < args.length) {
+                albumDirectory = new File(args[next + 1]);
+                next += 2;
+            } else if (args[next].equals("--columnar")) {
+                columnar = true;
+                next++;
+            } else {
+                System.err.println("Unknown option: " + args[next]);
+                System.err.println(USAGE);
+                return 2;
+            }
+        }
+        if (next == args.length) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        String problem = validate(args, next);
+        if (problem != null) {
+            System.err.println(problem);
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        AlbumCatalog catalog = new AlbumCatalog(albumDirectory);
+        PhotoAlbumModel model;
+        try {
+            model = new PhotoAlbumModel(catalog, columnar);
+        } catch (IOException e) {
+            System.err.println("Cannot read the album in " + albumDirectory + ": " + e.getMessage());
+            catalog.close();
+            return 1;
+        }
+        PhotoAlbumCli cli = new PhotoAlbumCli(model, albumDirectory);
+        try {
+            while (next < args.length) {
+                next = cli.execute(args, next);
+            }
+            return 0;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Failed: " + e.getMessage());
+            return 1;
+        } finally {
+            model.close();
+        }
+    }
+
+    /**
+     * Checks the commands before anything runs, so that a typing mistake at the end
+     * of a long script does not leave the work half done.
+     *
+     * @return a description of the first problem, or null if the commands are valid
+     */
+    private static String validate(String[] args, int next) {
+        while (next < args.length) {
+            String command = args[next];
+            switch (command) {
+                case "import":
+                    if (next + 1 == args.length) {
+                        return "import needs a directory";
+                    }
+                    next += 2;
+                    break;
+                case "list":
+                case "export":
+                    if (command.equals("export") && next + 1 == args.length) {
+                        return "export needs a file";
+                    }
+                    next += command.equals("export") ? 2 : 1;
+                    while (next < args.length && isFilter(args[next])) {
+                        if (next + 1 == args.length || bounds(args[next], args[next + 1]) == null) {
+                            return args[next] + (args[next].equals("--size")
+                                    ? " needs MIN..MAX in bytes" : " needs FROM..TO, with dates such as 2024-05-01");
+                        }
+                        next += 2;
+                    }
+                    break;
+                case "sort":
+                    if (next + 1 == args.length || sortOp(args[next + 1]) == AlbumCatalog.OP_SORT_NONE) {
+                        return "sort needs one of name, date, taken or size";
+                    }
+                    next += 2;
+                    break;
+                case "sync":
+                    next++;
+                    break;
+                case "thumbnails":
+                    next += next + 1 < args.length && isSize(args[next + 1]) ? 2 : 1;
+                    break;
+                default:
+                    return "Unknown command: " + command;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the command at the given position.
+     *
+     * @return the position of the next command
+     */
+    private int execute(String[] args, int next) throws IOException {
+        String command = args[next];
+        long start = System.nanoTime();
+        switch (command) {
+            case "import":
+                importTree(new File(args[next + 1]));
+                next += 2;
+                break;
+            case "sync":
+                System.err.println("Applied " + sync().reconcile() + " changes from " + sync().getRoots().size()
+                        + " synced folders");
+                next++;
+                break;
+            case "sort":
+                sort(sortOp(args[next + 1]));
+                next += 2;
+                break;
+            case "list":
+                int listEnd = filtersEnd(args, next + 1);
+                list(System.out, select(args, next + 1, listEnd));
+                System.out.flush();
+                next = listEnd;
+                break;
+            case "export":
+                String file = args[next + 1];
+                int exportEnd = filtersEnd(args, next + 2);
+                int count;
+                try (OutputStream out = new FileOutputStream(file)) {
+                    count = list(out, select(args, next + 2, exportEnd));
+                }
+                System.err.println("Exported " + count + " photos to " + file);
+                next = exportEnd;
+                break;
+            default: // thumbnails, checked by validate
+                boolean sized = next + 1 < args.length && isSize(args[next + 1]);
+                int size = sized ? Integer.parseInt(args[next + 1]) : PhotoCellRenderer.THUMBNAIL_SIZE;
+                generatePreviews(size);
+                next += sized ? 2 : 1;
+                break;
+        }
+        System.err.printf("%s took %.1f s%n", command, (System.nanoTime() - start) / 1e9);
+        return next;
+    }
+
+    /**
+     * Adds every image under a directory tree, in batches journaled to the catalog.
+     */
+    private void importTree(File root) throws IOException {
+        int[] added = new int[1];
+        PhotoImporter importer = new PhotoImporter(IMPORT_BATCH_SIZE, batch -> added[0] += model.addPhotos(batch),
+                (scanned, imported) -> System.err.println("Imported " + imported + " of " + scanned + " files"));
+        int imported = importer.importTree(root.toPath());
+        sync().addRoot(root.toPath());
+        System.err.println("Added " + added[0] + " photos from " + root + ", skipped " + (imported - added[0])
+                + " already in the album");
+    }
+
+    /**
+     * Returns the sync of the album's imported trees. The command line never
+     * watches them, so changes are applied by the sync command.
+     */
+    private AlbumSync sync() {
+        if (sync == null) {
+            sync = new AlbumSync(model, albumDirectory, filePath -> {
+                // Stored previews are checked against the file, so nothing needs dropping
+            });
+        }
+        return sync;
+    }
+
+    /**
+     * Switches the album to the order of a sort operation.
+     */
+    private void sort(byte op) {
+        switch (op) {
+            case AlbumCatalog.OP_SORT_BY_NAME:
+                model.sortPhotosByName();
+                break;
+            case AlbumCatalog.OP_SORT_BY_DATE:
+                model.sortPhotosByDate();
+                break;
+            case AlbumCatalog.OP_SORT_BY_DATE_TAKEN:
+                model.sortPhotosByDateTaken();
+                break;
+            default:
+                model.sortPhotosBySize();
+                break;
+        }
+    }
+
+    /**
+     * Selects the photos matching the filters between two positions of the
+     * command line: the whole album in its current order if there are none, and
+     * otherwise the photos in every filter's range, read from the album's indexes.
+     */
+    private Iterable<Photo> select(String[] args, int from, int to) {
+        if (from == to) {
+            return model.getSnapshot();
+        }
+        PhotoAlbumModel.PhotoRange first = range(args[from], args[from + 1]);
+        PhotoAlbumModel.PhotoRange[] others = new PhotoAlbumModel.PhotoRange[(to - from) / 2 - 1];
+        for (int i = 0; i < others.length; i++) {
+            others[i] = range(args[from + 2 * i + 2], args[from + 2 * i + 3]);
+        }
+        return first.and(others);
+    }
+
+    /**
+     * Retrieves the photos in the range of one filter.
+     */
+    private PhotoAlbumModel.PhotoRange range(String filter, String value) {
+        long[] bounds = bounds(filter, value);
+        switch (filter) {
+            case "--added":
+                return model.getPhotosAddedBetween(date(bounds[0]), date(bounds[1]));
+            case "--taken":
+                return model.getPhotosTakenBetween(date(bounds[0]), date(bounds[1]));
+            default:
+                return model.getPhotosSizedBetween(Math.max(0, bounds[0]), bounds[1]);
+        }
+    }
+
+    /**
+     * Writes photos to a stream as they are read, so the listing is never held in
+     * memory.
+     *
+     * @return the number of photos written
+     */
+    private int list(OutputStream stream, Iterable<Photo> photos) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), OUTPUT_BUFFER);
+        out.write("path\tname\tdate_added\tsize_bytes\tdate_taken\twidth\theight\torientation\n");
+        StringBuilder line = new StringBuilder(256);
+        int count = 0;
+        for (Photo photo : photos) {
+            line.setLength(0);
+            escape(photo.getFilePath(), line);
+            line.append('\t');
+            escape(photo.getName(), line);
+            line.append('\t');
+            DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(photo.getDateAdded().getTime()), line);
+            line.append('\t').append(photo.getFileSize()).append('\t');
+            PhotoMetadata metadata = photo.getMetadata();
+            if (metadata.hasDateTaken()) {
+                DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(metadata.getDateTaken()), line);
+            }
+            line.append('\t');
+            if (metadata.getWidth() > 0 && metadata.getHeight() > 0) {
+                line.append(metadata.getWidth()).append('\t').append(metadata.getHeight());
+            } else {
+                line.append('\t');
+            }
+            line.append('\t').append(metadata.getOrientation()).append('\n');
+            out.append(line);
+            count++;
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Stores a preview of every photo that does not already have a fresh one, on
+     * one thread per core. The previews are the ones the album window asks for,
+     * so it can show them without decoding the originals. A photo that cannot be
+     * decoded is counted and skipped; a preview that cannot be stored stops every
+     * worker and fails the command.
+     */
+    private void generatePreviews(int size) throws IOException {
+        PreviewStore store = PreviewStore.open(new File(albumDirectory, "previews.pack"));
+        List<Photo> photos = model.getSnapshot();
+        AtomicInteger cursor = new AtomicInteger();
+        AtomicInteger generated = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<IOException> storeFailure = new AtomicReference<>();
+        Runnable worker = () -> {
+            for (int i = cursor.getAndIncrement(); i < photos.size(); i = cursor.getAndIncrement()) {
+                String filePath = photos.get(i).getFilePath();
+                File file = new File(filePath);
+                long fileSize = file.length();
+                long lastModified = file.lastModified();
+                if (lastModified == 0) { // Missing or unreadable
+                    failed.incrementAndGet();
+                    continue;
+                }
+                if (store.contains(filePath, size, size, fileSize, lastModified)) {
+                    continue;
+                }
+                BufferedImage preview;
+                try {
+                    preview = ThumbnailDecoder.decode(file, size, size);
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    continue;
+                }
+                try {
+                    store.put(filePath, size, size, fileSize, lastModified, preview);
+                } catch (IOException e) {
+                    storeFailure.compareAndSet(null, e);
+                    cursor.set(photos.size()); // Stops the other workers after their current photo
+                    return;
+                }
+                if (generated.incrementAndGet() % PROGRESS_INTERVAL == 0) {
+                    System.err.println("Generated " + generated.get() + " previews, " + i + " of " + photos.size()
+                            + " photos checked");
+                }
+            }
+        };
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(worker, "preview-" + t);
+            workers[t].start();
+        }
+        boolean interrupted = false;
+        for (Thread thread : workers) {
+            while (thread.isAlive()) { // The store must outlive every put
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    cursor.set(photos.size());
+                }
+            }
+        }
+        store.close();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Preview generation interrupted after " + generated.get() + " previews");
+        }
+        if (storeFailure.get() != null) {
+            throw new IOException("Cannot store previews: " + storeFailure.get().getMessage(), storeFailure.get());
+        }
+        System.err.println("Generated " + generated.get() + " previews of " + size + " pixels, "
+                + (photos.size() - generated.get() - failed.get()) + " already stored, " + failed.get()
+                + " unreadable");
+    }
+
+    private static byte sortOp(String key) {
+        switch (key) {
+            case "name":
+                return AlbumCatalog.OP_SORT_BY_NAME;
+            case "date":
+                return AlbumCatalog.OP_SORT_BY_DATE;
+            case "taken":
+                return AlbumCatalog.OP_SORT_BY_DATE_TAKEN;
+            case "size":
+                return AlbumCatalog.OP_SORT_BY_SIZE;
+            default:
+                return AlbumCatalog.OP_SORT_NONE;
+        }
+    }
+
+    private static boolean isSize(String arg) {
+        return arg.matches("[1-9][0-9]{0,3}");
+    }
+
+    private static boolean isFilter(String arg) {
+        return arg.equals("--added") || arg.equals("--taken") || arg.equals("--size");
+    }
+
+    /**
+     * Finds the position after the filters that start at the given one.
+     */
+    private static int filtersEnd(String[] args, int next) {
+        while (next < args.length && isFilter(args[next])) {
+            next += 2;
+        }
+        return next;
+    }
+
+    /**
+     * Reads the FROM..TO value of a filter: dates in milliseconds for --added and
+     * --taken, and bytes for --size. An end left out is Long.MIN_VALUE or
+     * Long.MAX_VALUE.
+     *
+     * @return the lower and upper bound, or null if the value cannot be read
+     */
+    private static long[] bounds(String filter, String value) {
+        int dots = value.indexOf("..");
+        if (dots < 0) {
+            return null;
+        }
+        try {
+            return new long[] {bound(filter, value.substring(0, dots), Long.MIN_VALUE),
+                    bound(filter, value.substring(dots + 2), Long.MAX_VALUE)};
+        } catch (DateTimeException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long bound(String filter, String end, long unbounded) {
+        if (end.isEmpty()) {
+            return unbounded;
+        } else if (filter.equals("--size")) {
+            return Long.parseLong(end);
+        } else if (end.indexOf('T') >= 0) {
+            return Instant.parse(end).toEpochMilli();
+        } else {
+            return LocalDate.parse(end).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        }
+    }
+
+    private static Date date(long bound) {
+        return bound == Long.MIN_VALUE || bound == Long.MAX_VALUE ? null : new Date(bound);
+    }
+
+    /**
+     * Appends text with tabs, line breaks and backslashes escaped.
+     */
+    private static void escape(String text, StringBuilder out) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+}
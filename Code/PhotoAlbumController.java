@@ -1,14 +1,39 @@
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
  * PhotoAlbumController manages interactions between the PhotoAlbumModel and PhotoAlbumView.
  * It handles user actions such as adding, deleting, and navigating photos, as well as sorting.
  */
 public final class PhotoAlbumController {
+    private static final int PREFETCH_RADIUS = 2; // Photos decoded ahead on each side of the current one
+    private static final int IMPORT_BATCH_SIZE = 500; // Photos added to the model per import batch
+    private static final int FUZZY_SEARCH_LENGTH = 4; // Shortest search retried with one edit when nothing matches
+
     private final PhotoAlbumModel model;
     private final PhotoAlbumView view;
     private PhotoAlbumModel.AlbumIteratorImpl iterator; // Iterator to navigate photos
+    private ImportWorker importWorker; // Running folder import, or null
+    private final DuplicateFinder duplicateFinder = new DuplicateFinder(); // Keeps file hashes between scans
+    private DuplicateWorker duplicateWorker; // Running duplicate scan, or null
+    private AlbumSync albumSync; // Keeps imported folders in sync, or null
+    private final ExecutorService invalidator = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "preview-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    }); // Drops previews of deleted photos off the Event Dispatch Thread
 
     /**
      * Constructs a controller with the given model and view, setting up listeners
@@ -22,19 +47,69 @@ public final class PhotoAlbumController {
         this.view = view;
         setupListeners(); // Setup listeners for the view
         refreshIterator(); // Initialize the iterator
+        model.setListenerExecutor(SwingUtilities::invokeLater); // Changes made on any thread reach the view on the EDT
+        model.addChangeListener(e -> albumChanged((AlbumChangeEvent) e));
+        if (!iterator.getSnapshot().isEmpty()) {
+            view.updatePhotoListModel(iterator.getSnapshot()); // Show photos restored from the catalog
+            refreshPhotoList();
+        }
     }
 
     /**
      * Sets up listeners for the view to handle user actions.
      */
-    public void setupListeners() {
+    private void setupListeners() {
         view.addAddPhotoListener(e -> addPhoto());
         view.addDeletePhotoListener(e -> deletePhoto());
+        view.addImportFolderListener(e -> importFolder());
+        view.addFindDuplicatesListener(e -> findDuplicates());
+        view.addFindSimilarListener(e -> findSimilar());
         view.addNextPhotoListener(e -> nextPhoto());
         view.addPreviousPhotoListener(e -> previousPhoto());
         view.addSortByNameListener(e -> sortByName());
         view.addSortByDateListener(e -> sortByDate());
+        view.addSortByDateTakenListener(e -> sortByDateTaken());
         view.addSortBySizeListener(e -> sortBySize());
+        view.addShowStatsListener(e -> view.setStatsVisible(!view.isStatsVisible()));
+        view.addSearchListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // Attribute changes do not alter the text
+            }
+        });
+    }
+
+    /**
+     * Sets the sync that keeps imported folders current. Folders imported from now
+     * on are added to it.
+     *
+     * @param albumSync the sync, or null to stop adding folders
+     */
+    public void setAlbumSync(AlbumSync albumSync) {
+        this.albumSync = albumSync;
+    }
+
+    /**
+     * Drops every cached rendition of a file that changed or vanished on disk.
+     * May be called from any thread.
+     *
+     * @param filePath the path to the file
+     */
+    public void fileChanged(String filePath) {
+        ThumbnailCache.getShared().invalidate(filePath); // Frees cached and stored previews
+        duplicateFinder.invalidate(filePath);
+        Photo replacement = model.getPhotoByPath(filePath);
+        SwingUtilities.invokeLater(() -> view.invalidatePhoto(filePath, replacement));
     }
 
     // Private helper methods to handle specific actions:
@@ -58,28 +133,160 @@ public final class PhotoAlbumController {
             return;
         }
 
-        Photo newPhoto = new Photo(name, path, new Date(), file.length());
-        model.addPhoto(newPhoto);
-        view.addPhotoToList(newPhoto);
+        PhotoMetadata metadata;
+        try {
+            metadata = PhotoMetadataReader.getShared().read(file.toPath());
+        } catch (IOException e) {
+            metadata = null;
+        }
+        if (metadata == null) {
+            view.showMessage("File is not a readable JPEG or PNG image.", "Error");
+            return;
+        }
+        Photo newPhoto = new Photo(name, path, new Date(), file.length(), file.lastModified(), metadata);
+        try {
+            if (!model.addPhoto(newPhoto)) {
+                view.showMessage("This file is already in the album.", "Error");
+                return;
+            }
+        } catch (UncheckedIOException e) {
+            view.showMessage(e.getMessage() + ". The photo was not added.", "Error");
+            return;
+        }
         view.clearInputFields();
-        refreshPhotoList();
         view.showMessage("Photo added successfully.", "Success");
     }
 
     /**
-     * Deletes the selected photo from the album, updating the model and view.
+     * Updates the photo list after the album changes, whichever thread changed it.
+     * Without a search the snapshot carried by the event is swapped in, signalling
+     * only the affected rows; with one, the search is run again. The iterator then
+     * moves to the new version of the album, staying on the photo being shown.
+     *
+     * @param event the change
+     */
+    private void albumChanged(AlbumChangeEvent event) {
+        if (view.getSearchText().isBlank()) {
+            view.updatePhotoListModel(event.getSnapshot(), event);
+        } else {
+            search();
+        }
+        refreshPhotoList();
+    }
+
+    /**
+     * Filters the photo list to the photos whose names match the search text.
+     * When nothing matches a longer search exactly, it is retried allowing one
+     * typing mistake per term.
+     */
+    private void search() {
+        String query = view.getSearchText();
+        if (query.isBlank()) {
+            view.updatePhotoListModel(model.getSnapshot());
+            view.setSearchStatus(null);
+            return;
+        }
+        List<Photo> matches = model.searchPhotos(query);
+        String status = matches.size() + " of " + model.getPhotoCount();
+        if (matches.isEmpty() && query.trim().length() >= FUZZY_SEARCH_LENGTH) {
+            matches = model.searchPhotos(query, 1);
+            status = matches.size() + " close matches";
+        }
+        view.updatePhotoListModel(matches);
+        view.setSearchStatus(status);
+    }
+
+    /**
+     * Imports every image under a folder chosen by the user, or cancels the
+     * import in progress. Photos are validated in the background and added to
+     * the model in batches, with one view refresh per batch.
+     */
+    private void importFolder() {
+        if (importWorker != null) {
+            importWorker.importer.cancel();
+            return;
+        }
+        File folder = view.chooseImportFolder();
+        if (folder == null) {
+            return;
+        }
+        importWorker = new ImportWorker(folder);
+        view.setImportRunning(true);
+        importWorker.execute();
+    }
+
+    /**
+     * Scans the album for files with identical contents, or cancels the scan in
+     * progress. When duplicates are found, every copy but the first of each group
+     * is selected so that they can be deleted in one step.
+     */
+    private void findDuplicates() {
+        if (duplicateWorker != null) {
+            duplicateFinder.cancel();
+            return;
+        }
+        duplicateWorker = new DuplicateWorker(model.getSnapshot());
+        view.setDuplicateScanRunning(true);
+        duplicateWorker.execute();
+    }
+
+    /**
+     * Selects the photos that look like the selected photo, or like the current
+     * one when nothing is selected.
+     */
+    private void findSimilar() {
+        Photo photo = view.getSelectedPhoto();
+        if (photo == null) {
+            try {
+                photo = iterator.current();
+            } catch (NoSuchElementException e) {
+                view.showMessage("Please select a photo to compare with.", "Error");
+                return;
+            }
+        }
+        List<Photo> similar = model.findSimilarPhotos(photo, SimilarityIndex.DEFAULT_MAX_DISTANCE);
+        if (similar == null) {
+            view.showMessage("This photo is still being analysed. Please try again shortly.", "Info");
+            return;
+        }
+        if (similar.isEmpty()) {
+            view.showMessage("No photos similar to " + photo.getName() + " found.", "Info");
+            return;
+        }
+        view.clearSearch(); // Rows are selected by their position in the whole album
+        int[] indices = new int[similar.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = model.indexOf(similar.get(i));
+        }
+        view.selectPhotos(indices);
+        view.showMessage("Found " + similar.size() + " photos similar to " + photo.getName() + ".", "Info");
+    }
+
+    /**
+     * Deletes the selected photos from the album, updating the model and view.
      */
     private void deletePhoto() {
-        Photo selectedPhoto = view.getSelectedPhoto();
-        if (selectedPhoto == null) {
+        List<Photo> selectedPhotos = view.getSelectedPhotos();
+        if (selectedPhotos.isEmpty()) {
             view.showMessage("Please select a photo to delete.", "Error");
             return;
         }
 
-        model.removePhoto(selectedPhoto);
-        view.removePhotoFromList(selectedPhoto);
-        refreshPhotoList();
-        view.showMessage("Photo deleted successfully.", "Success");
+        try {
+            model.removePhotos(selectedPhotos); // One pass, however many are selected
+        } catch (UncheckedIOException e) {
+            view.showMessage(e.getMessage() + ". The photos were not deleted.", "Error");
+            return;
+        }
+        List<String> paths = new ArrayList<>(selectedPhotos.size());
+        for (Photo photo : selectedPhotos) {
+            paths.add(photo.getFilePath());
+            duplicateFinder.invalidate(photo.getFilePath());
+        }
+        // Frees cached and stored previews in one pass, without holding up the window
+        invalidator.execute(() -> ThumbnailCache.getShared().invalidate(paths));
+        view.showMessage(selectedPhotos.size() == 1 ? "Photo deleted successfully."
+                : selectedPhotos.size() + " photos deleted successfully.", "Success");
     }
 
     /**
@@ -89,6 +296,7 @@ public final class PhotoAlbumController {
         if (iterator.hasNext()) {
             Photo nextPhoto = iterator.next();
             view.setCurrentPhoto(nextPhoto);
+            prefetchAround(iterator.nextIndex() - 1);
         } else {
             view.showMessage("You are already at the last photo.", "Info");
         }
@@ -101,6 +309,7 @@ public final class PhotoAlbumController {
         if (iterator.hasPrevious()) {
             Photo previousPhoto = iterator.previous();
             view.setCurrentPhoto(previousPhoto);
+            prefetchAround(iterator.nextIndex());
         } else {
             view.showMessage("You are already at the first photo.", "Info");
         }
@@ -110,45 +319,218 @@ public final class PhotoAlbumController {
      * Sorts photos by name and refreshes the list in the view.
      */
     private void sortByName() {
-        model.sortPhotosByName();
-        refreshPhotoList();
+        try {
+            model.sortPhotosByName();
+        } catch (UncheckedIOException e) {
+            view.showMessage(e.getMessage() + ".", "Error");
+        }
     }
 
     /**
-     * Sorts photos by date and refreshes the list in the view.
+     * Sorts photos by the date they were added and refreshes the list in the view.
      */
     private void sortByDate() {
-        model.sortPhotosByDate();
-        refreshPhotoList();
+        try {
+            model.sortPhotosByDate();
+        } catch (UncheckedIOException e) {
+            view.showMessage(e.getMessage() + ".", "Error");
+        }
+    }
+
+    /**
+     * Sorts photos by the date they were taken and refreshes the list in the view.
+     */
+    private void sortByDateTaken() {
+        try {
+            model.sortPhotosByDateTaken();
+        } catch (UncheckedIOException e) {
+            view.showMessage(e.getMessage() + ".", "Error");
+        }
     }
 
     /**
      * Sorts photos by file size and refreshes the list in the view.
      */
     private void sortBySize() {
-        model.sortPhotosBySize();
-        refreshPhotoList();
+        try {
+            model.sortPhotosBySize();
+        } catch (UncheckedIOException e) {
+            view.showMessage(e.getMessage() + ".", "Error");
+        }
     }
 
     /**
-     * Updates the photo list model in the view and reinitializes the iterator.
+     * Moves the iterator to the latest version of the album, keeping the photo being
+     * shown wherever it now is, and shows the first photo if none was shown. The
+     * photo list itself is kept up to date by the model change listener.
      */
     private void refreshPhotoList() {
-        view.updatePhotoListModel(model.getAllPhotos());
-        refreshIterator();
-
-        if (model.getPhotoCount() > 0) {
-            Photo firstPhoto = model.getPhotoAt(0);
-            view.setCurrentPhoto(firstPhoto);
-        } else {
+        Photo shown = iterator.hasPrevious() ? iterator.current() : null;
+        iterator.reanchor();
+        if (!iterator.hasPrevious() && iterator.hasNext()) {
+            iterator.next(); // Nothing was shown, so start at the first photo
+        }
+        Photo current = iterator.hasPrevious() ? iterator.current() : null;
+        if (current == null) {
             view.setCurrentPhoto(null);
+        } else if (shown == null || !shown.getFilePath().equals(current.getFilePath())) {
+            view.setCurrentPhoto(current);
+            prefetchAround(iterator.nextIndex() - 1);
         }
     }
 
     /**
-     * Reinitializes the photo iterator after modifications.
+     * Prefetches the photos surrounding the given position, nearest first.
+     *
+     * @param index the position of the photo being displayed in the iterator's snapshot
+     */
+    private void prefetchAround(int index) {
+        List<Photo> neighbours = new ArrayList<>(PREFETCH_RADIUS * 2);
+        AlbumSnapshot photos = iterator.getSnapshot();
+        for (int distance = 1; distance <= PREFETCH_RADIUS; distance++) {
+            if (index + distance < photos.size()) {
+                neighbours.add(photos.get(index + distance));
+            }
+            if (index - distance >= 0) {
+                neighbours.add(photos.get(index - distance));
+            }
+        }
+        view.prefetchPhotos(neighbours);
+    }
+
+    /**
+     * Creates the photo iterator, pinned to the latest version of the album.
      */
     private void refreshIterator() {
         iterator = model.new AlbumIteratorImpl();
     }
+
+    /**
+     * Runs the DuplicateFinder off the EDT and selects the redundant copies it finds.
+     */
+    private final class DuplicateWorker extends SwingWorker<List<List<Photo>>, Void> {
+        private final List<Photo> photos;
+
+        DuplicateWorker(List<Photo> photos) {
+            this.photos = photos;
+        }
+
+        @Override
+        protected List<List<Photo>> doInBackground() throws InterruptedException {
+            return duplicateFinder.findDuplicates(photos);
+        }
+
+        @Override
+        protected void done() {
+            duplicateWorker = null;
+            view.setDuplicateScanRunning(false);
+            List<List<Photo>> groups;
+            try {
+                groups = get();
+            } catch (ExecutionException e) {
+                view.showMessage("Duplicate scan failed: " + e.getCause().getMessage(), "Error");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (duplicateFinder.isCancelled()) {
+                view.showMessage("Duplicate scan cancelled.", "Info");
+                return;
+            }
+            if (groups.isEmpty()) {
+                view.showMessage("No duplicate photos found.", "Info");
+                return;
+            }
+
+            view.clearSearch(); // Rows are selected by their position in the whole album
+            List<Integer> rows = new ArrayList<>();
+            long wasted = 0;
+            for (List<Photo> group : groups) {
+                for (Photo copy : group.subList(1, group.size())) {
+                    int row = model.indexOf(copy); // The album may have changed during the scan
+                    if (row >= 0) {
+                        rows.add(row);
+                        wasted += copy.getFileSize();
+                    }
+                }
+            }
+            int[] indices = new int[rows.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = rows.get(i);
+            }
+            view.selectPhotos(indices);
+            view.showMessage("Found " + groups.size() + " groups of duplicates. The " + indices.length
+                    + " extra copies (" + wasted / (1024 * 1024) + " MB) are selected and can be deleted.", "Info");
+        }
+    }
+
+    /**
+     * Runs a PhotoImporter off the EDT and adds its batches to the model from the
+     * worker thread. The view follows through the model's change events.
+     */
+    private final class ImportWorker extends SwingWorker<Integer, Void> {
+        private final File folder;
+        private final PhotoImporter importer;
+        private int added; // Photos actually added, excluding files already in the album
+        private UncheckedIOException failure; // Why the import was stopped, or null
+
+        ImportWorker(File folder) {
+            this.folder = folder;
+            this.importer = new PhotoImporter(IMPORT_BATCH_SIZE, this::addBatch,
+                    (scanned, imported) -> SwingUtilities.invokeLater(() ->
+                            view.setImportStatus("Imported " + imported + " of " + scanned + " files")));
+        }
+
+        @Override
+        protected Integer doInBackground() throws IOException {
+            return importer.importTree(folder.toPath());
+        }
+
+        /**
+         * Adds a batch of imported photos to the model, on the worker thread.
+         */
+        private void addBatch(List<Photo> batch) {
+            if (importer.isCancelled()) {
+                return;
+            }
+            try {
+                added += model.addPhotos(batch);
+            } catch (UncheckedIOException e) {
+                failure = e;
+                importer.cancel();
+            }
+        }
+
+        @Override
+        protected void done() {
+            importWorker = null;
+            view.setImportRunning(false);
+            view.setImportStatus(null);
+            try {
+                int imported = get();
+                if (failure == null && !importer.isCancelled() && albumSync != null) {
+                    try {
+                        albumSync.addRoot(folder.toPath());
+                    } catch (UncheckedIOException e) {
+                        System.err.println(e.getMessage() + ", " + folder + " will not be kept in sync");
+                    }
+                }
+                if (failure != null) {
+                    view.showMessage(failure.getMessage() + ". The import was stopped.", "Error");
+                } else if (importer.isCancelled()) {
+                    view.showMessage("Import cancelled.", "Info");
+                } else if (imported > added) {
+                    view.showMessage("Imported " + added + " photos, skipped " + (imported - added)
+                            + " already in the album.", "Success");
+                } else {
+                    view.showMessage("Imported " + added + " photos.", "Success");
+                }
+            } catch (ExecutionException e) {
+                view.showMessage("Import failed: " + e.getCause().getMessage(), "Error");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
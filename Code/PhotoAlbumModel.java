@@ -1,50 +1,712 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import javax.swing.event.ChangeEvent;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.swing.event.ChangeListener;
 
 /**
  * PhotoAlbumModel represents a collection of photos with functionality
  * to add, remove, and retrieve photos, as well as to sort and iterate over them.
+ * When backed by an AlbumCatalog, every mutation is journaled before it is applied,
+ * so the album survives restarts.
+ *
+ * <p>Photos live in a PhotoStore, and the album refers to each by an entry that
+ * packs its stable ID with its slot in the store. The entries are kept in
+ * LongSequence indexes: one in the order photos were added, one by path hash so
+ * the same file cannot be added twice, and one per sort key, which is built the
+ * first time the key is used and then updated on every add and remove. Sorting
+ * switches the album to the index for that key, so once built, switching back to
+ * an order costs nothing beyond repainting the view. The date, capture date and
+ * size indexes also answer range queries, such as the photos taken last week or
+ * the files over 10 MB, as PhotoRange views over the index.
+ *
+ * <p>Photos can be searched by name through a NameSearchIndex, which is built
+ * the first time the album is searched and then updated on every add and remove.
+ *
+ * <p>Large albums can keep their photos in a ColumnarPhotoStore, which stores
+ * them as primitive columns and hands out flyweight Photo objects on demand.
+ *
+ * <p>The album may be used from any thread. Changes are made one at a time under
+ * a write lock, which a batch holds from {@link #beginBatch()} to {@link #commit()}
+ * and which is held across writes to the catalog. Each time changes are delivered
+ * to listeners the album's version advances and its indexes are published as an
+ * immutable State through a volatile field: the indexes are frozen in O(1), and
+ * copy a chunk only when a later change first touches it. Every query reads the
+ * latest State without locking, so readers never see a change half made and never
+ * wait for a writer, let alone for the disk. Catalog snapshots are written on a
+ * background thread from a published State, so changes do not wait for them
+ * either.
  */
 public class PhotoAlbumModel implements Iterable<Photo> {
-    private final List<Photo> photos; // List to store photos
+    private static final LatencyHistogram DISPATCH_TIME = Metrics.getShared().histogram("changeDispatch");
+    private static final int COMPACT_SLOTS = 64; // Stores with fewer slots are not compacted
+
+    private PhotoStore store; // Photos by slot; replaced when compacted
+    private LongSequence ids; // Entries in insertion order, which is also the order of their IDs
+    private LongSequence paths; // Path hash and ID of each photo, by hash
+    private final LongSequence[] orders = new LongSequence[AlbumCatalog.OP_SORT_BY_DATE_TAKEN + 1]; // By sort operation
+    private byte currentSortOp = AlbumCatalog.OP_SORT_NONE;
+    private int nextId; // ID of the next photo added
+    private volatile SimilarityIndex similarityIndex; // Perceptual hash index, or null if not attached
+    private volatile NameSearchIndex nameIndex; // Built on the first search, then kept up to date
+    private volatile State state; // Indexes as of the latest version, read without locking
     private final List<ChangeListener> listeners; // List to store registered listeners
+    private final ReentrantLock writeLock = new ReentrantLock(); // Serializes changes, including their catalog writes
+    private final ReentrantLock lock = new ReentrantLock(); // Guards the indexes while they change in memory
+    private final AlbumCatalog catalog; // Persistent store, or null for an in-memory album
+    private final List<AlbumChangeEvent.Delta> pendingDeltas = new ArrayList<>(); // Changes not yet delivered
+    private int batchDepth; // Nesting level of beginBatch calls
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "album-compactor");
+        thread.setDaemon(true);
+        return thread;
+    }); // Writes catalog snapshots; its thread starts on the first compaction
+    private Future<?> compaction; // Latest catalog compaction, or null
+    private volatile Executor listenerExecutor; // Dispatch executor, or null for direct calls
 
     /**
      * Constructs an empty PhotoAlbumModel.
      */
     public PhotoAlbumModel() {
-        photos = new ArrayList<>();
-        listeners = new ArrayList<>();
+        this(false);
+    }
+
+    /**
+     * Constructs an empty PhotoAlbumModel, optionally backed by columnar storage.
+     *
+     * @param columnar true to store photos in a ColumnarPhotoStore
+     */
+    public PhotoAlbumModel(boolean columnar) {
+        store = PhotoStore.create(columnar);
+        ids = new LongSequence(null);
+        paths = new LongSequence(null);
+        listeners = new CopyOnWriteArrayList<>();
+        catalog = null;
+        publish(0);
+    }
+
+    /**
+     * Constructs a PhotoAlbumModel holding the photos stored in the catalog.
+     * Subsequent mutations are recorded in the catalog.
+     *
+     * @param catalog the AlbumCatalog to load from and record to
+     * @throws IOException if the catalog cannot be read
+     */
+    public PhotoAlbumModel(AlbumCatalog catalog) throws IOException {
+        this(catalog, false);
     }
 
     /**
-     * Adds a photo to the album and notifies observers.
+     * Constructs a PhotoAlbumModel holding the photos stored in the catalog,
+     * optionally backed by columnar storage. Subsequent mutations are recorded
+     * in the catalog.
+     *
+     * @param catalog  the AlbumCatalog to load from and record to
+     * @param columnar true to store photos in a ColumnarPhotoStore
+     * @throws IOException if the catalog cannot be read
+     */
+    public PhotoAlbumModel(AlbumCatalog catalog, boolean columnar) throws IOException {
+        this.store = PhotoStore.create(columnar);
+        PhotoStore.Loader loaded = store.loader();
+        catalog.load(loaded);
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.catalog = catalog;
+        indexLoadedPhotos(loaded);
+    }
+
+    /**
+     * Adds a photo to the album and notifies observers. A photo whose file is
+     * already in the album is not added.
      *
      * @param photo the Photo object to add
+     * @return true if the photo was added, false if its file is already in the album
+     * @throws UncheckedIOException if the change cannot be saved to the catalog
+     */
+    public boolean addPhoto(Photo photo) {
+        beginBatch();
+        try {
+            return addPhotoLocked(photo);
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Adds a photo, with the write lock held.
+     */
+    private boolean addPhotoLocked(Photo photo) {
+        if (findId(store, ids, paths, photo.getFilePath()) >= 0) {
+            return false;
+        }
+        if (catalog != null) {
+            try {
+                catalog.recordAdd(photo);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not save photo " + photo.getName(), e);
+            }
+        }
+        lock.lock();
+        try {
+            int slot = store.add(photo);
+            int id = nextId++;
+            long entry = entry(id, slot);
+            int index = ids.insert(entry);
+            paths.insert(pathEntry(photo.getFilePath(), id));
+            photo = store.get(slot); // The stored instance, which is a flyweight in a columnar album
+            indexName(id, photo);
+            for (byte op = 0; op < orders.length; op++) {
+                if (orders[op] != null) {
+                    int position = orders[op].insert(entry);
+                    if (op == currentSortOp) {
+                        index = position;
+                    }
+                }
+            }
+            fireDelta(AlbumChangeEvent.Delta.inserted(index, Collections.singletonList(photo)));
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Adds several photos to the album and notifies observers once. Photos whose
+     * file is already in the album, or earlier in the collection, are skipped.
+     *
+     * @param newPhotos the Photo objects to add, in order
+     * @return the number of photos added
+     * @throws UncheckedIOException if the change cannot be saved to the catalog
      */
-    public void addPhoto(Photo photo) {
-        photos.add(photo);
-        notifyChangeListeners();  
+    public int addPhotos(Collection<Photo> newPhotos) {
+        beginBatch();
+        try {
+            return addPhotosLocked(newPhotos);
+        } finally {
+            commit();
+        }
     }
 
     /**
-     * Removes a photo from the album and notifies observers.
+     * Adds several photos, with the write lock held. Each index takes the new
+     * entries in a single pass, and runs of new photos that end up next to each
+     * other in the shown order are reported as one change.
+     */
+    private int addPhotosLocked(Collection<Photo> newPhotos) {
+        List<Photo> accepted = new ArrayList<>(newPhotos.size());
+        Set<String> acceptedPaths = new HashSet<>();
+        for (Photo photo : newPhotos) {
+            if (findId(store, ids, paths, photo.getFilePath()) < 0 && acceptedPaths.add(photo.getFilePath())) {
+                accepted.add(photo);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return 0;
+        }
+        if (catalog != null) {
+            try {
+                catalog.recordAdds(accepted);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not save " + accepted.size() + " photos", e);
+            }
+        }
+        int count = accepted.size();
+        lock.lock();
+        try {
+            long[] added = new long[count];
+            long[] pathEntries = new long[count];
+            List<Photo> stored = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Photo photo = accepted.get(i);
+                int slot = store.add(photo);
+                int id = nextId++;
+                added[i] = entry(id, slot);
+                pathEntries[i] = pathEntry(photo.getFilePath(), id);
+                stored.add(store.get(slot)); // The stored instance, which is a flyweight in a columnar album
+                indexName(id, stored.get(i));
+            }
+            int index = ids.size();
+            ids.insertAll(added, count); // IDs ascend, so the new entries go at the end
+            Arrays.sort(pathEntries);
+            paths.insertAll(pathEntries, count);
+            if (currentSortOp == AlbumCatalog.OP_SORT_NONE) {
+                fireDelta(AlbumChangeEvent.Delta.inserted(index, stored));
+            }
+            for (byte op = 0; op < orders.length; op++) {
+                if (orders[op] == null) {
+                    continue;
+                }
+                long[] sorted = sortEntries(store, added, op);
+                orders[op].insertAll(sorted, count);
+                if (op == currentSortOp) {
+                    fireInserted(orders[op], sorted);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return count;
+    }
+
+    /**
+     * Removes the photo with the same file as the given one and notifies observers.
+     * The photo is found through the path index, without scanning the album.
      *
      * @param photo the Photo object to remove
+     * @throws UncheckedIOException if the change cannot be saved to the catalog
      */
     public void removePhoto(Photo photo) {
-        photos.remove(photo);
-        notifyChangeListeners();  
+        beginBatch();
+        try {
+            int id = findId(store, ids, paths, photo.getFilePath());
+            if (id >= 0) {
+                removeIds(new int[] {id});
+            }
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Removes several photos from the album in a single pass and notifies observers once.
+     * Photos that are not in the album are ignored. Each photo is found through the
+     * path index, and each index drops the removed entries in a single pass.
+     *
+     * @param toRemove the Photo objects to remove
+     * @throws UncheckedIOException if the change cannot be saved to the catalog
+     */
+    public void removePhotos(Collection<Photo> toRemove) {
+        beginBatch();
+        try {
+            int[] removedIds = new int[toRemove.size()];
+            int count = 0;
+            for (Photo photo : toRemove) {
+                int id = findId(store, ids, paths, photo.getFilePath());
+                if (id >= 0) {
+                    removedIds[count++] = id;
+                }
+            }
+            Arrays.sort(removedIds, 0, count);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (unique == 0 || removedIds[i] != removedIds[unique - 1]) {
+                    removedIds[unique++] = removedIds[i];
+                }
+            }
+            if (unique > 0) {
+                removeIds(Arrays.copyOf(removedIds, unique));
+            }
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Retrieves the stable ID of a photo in the album.
+     *
+     * @param photo the photo
+     * @return the ID of the photo with the same file, or -1 if there is none
+     */
+    public int getPhotoId(Photo photo) {
+        return state.idOf(photo.getFilePath());
+    }
+
+    /**
+     * Retrieves a photo by its ID.
+     *
+     * @param id the photo ID
+     * @return the photo, or null if no photo in the album has that ID
+     */
+    public Photo getPhotoById(int id) {
+        return state.photoById(id);
+    }
+
+    /**
+     * Retrieves the photo stored at a file path.
+     *
+     * @param filePath the path of the photo file
+     * @return the photo, or null if the file is not in the album
+     */
+    public Photo getPhotoByPath(String filePath) {
+        State current = state;
+        return current.photoById(current.idOf(filePath));
+    }
+
+    /**
+     * Attaches a similarity index and schedules every photo in the album to be
+     * hashed. From then on the index follows every add and remove.
+     *
+     * @param index the SimilarityIndex to keep up to date
+     */
+    public void setSimilarityIndex(SimilarityIndex index) {
+        lock.lock();
+        try {
+            this.similarityIndex = index;
+            for (long entry : ids.toArray()) {
+                index.photoAdded(idOf(entry), store.get(slotOf(entry)).getFilePath());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the photos that look like the given one, using the attached similarity index.
+     *
+     * @param photo       the photo to compare with
+     * @param maxDistance the largest Hamming distance between perceptual hashes to include
+     * @return the similar photos, most similar first; null if the photo has not
+     *         been analysed yet
+     * @throws IllegalStateException if no similarity index is attached
+     */
+    public List<Photo> findSimilarPhotos(Photo photo, int maxDistance) {
+        SimilarityIndex index = similarityIndex;
+        if (index == null) {
+            throw new IllegalStateException("No similarity index is attached");
+        }
+        State current = state;
+        int id = current.idOf(photo.getFilePath());
+        if (id < 0 || !index.isHashed(id)) {
+            return null;
+        }
+        List<Photo> similar = new ArrayList<>();
+        for (int match : index.findSimilar(id, maxDistance)) {
+            Photo found = current.photoById(match);
+            if (found != null) {
+                similar.add(found);
+            }
+        }
+        return similar;
+    }
+
+    /**
+     * Finds the photos whose names match a query, in the order the album is shown in.
+     * Every term of the query must match: terms of three or more characters match
+     * anywhere in the name, shorter ones match the start of a word. The name index
+     * is built on the first search.
+     *
+     * @param query the search text
+     * @return the matching photos, or all photos if the query is blank
+     */
+    public List<Photo> searchPhotos(String query) {
+        return searchPhotos(query, 0);
+    }
+
+    /**
+     * Finds the photos whose names match a query, tolerating typing mistakes.
+     * With edits allowed, each term matches names with a word that starts with
+     * the term give or take that many single-character edits.
+     *
+     * @param query    the search text
+     * @param maxEdits the number of edits allowed per term, or zero for an exact search
+     * @return the matching photos in the order the album is shown in, or all photos
+     *         if the query is blank
+     */
+    public List<Photo> searchPhotos(String query, int maxEdits) {
+        NameSearchIndex index = nameIndex;
+        if (index == null) {
+            index = buildNameIndex();
+        }
+        State current = state;
+        int[] matches = index.search(query, maxEdits);
+        int[] positions = new int[matches.length];
+        int count = 0;
+        for (int id : matches) {
+            int position = current.positionOf(entryOf(current.ids, id)); // The index may be ahead of the State
+            if (position >= 0) {
+                positions[count++] = position;
+            }
+        }
+        Arrays.sort(positions, 0, count);
+        Photo[] found = new Photo[count];
+        for (int i = 0; i < count; i++) {
+            found[i] = current.snapshot.get(positions[i]);
+        }
+        return Collections.unmodifiableList(Arrays.asList(found));
+    }
+
+    /**
+     * Returns the name index, building it from the photos in the album on first use.
+     */
+    private NameSearchIndex buildNameIndex() {
+        lock.lock();
+        try {
+            if (nameIndex == null) {
+                NameSearchIndex index = new NameSearchIndex();
+                for (long entry : ids.toArray()) {
+                    index.add(idOf(entry), store.get(slotOf(entry)).getName());
+                }
+                nameIndex = index;
+            }
+            return nameIndex;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the photos added from one date up to, but not including, another,
+     * ordered by date. The range is found in O(log n) through the date index,
+     * which is built on first use and then kept up to date; the photos are read
+     * from the index as they are requested rather than copied.
+     *
+     * @param from the earliest date to include, or null for no lower bound
+     * @param to   the date before which to stop, or null for no upper bound
+     * @return a view of the matching photos at the album's latest version
+     */
+    public PhotoRange getPhotosAddedBetween(Date from, Date to) {
+        return range(AlbumCatalog.OP_SORT_BY_DATE, from != null ? from.getTime() : Long.MIN_VALUE,
+                to != null ? to.getTime() : Long.MAX_VALUE);
+    }
+
+    /**
+     * Retrieves the photos taken from one date up to, but not including, another,
+     * ordered by capture date. Photos whose files record no capture date are placed
+     * by the date they were added. The range is found in O(log n) through the
+     * capture date index, which is built on first use and then kept up to date; the
+     * photos are read from the index as they are requested rather than copied.
+     *
+     * @param from the earliest date to include, or null for no lower bound
+     * @param to   the date before which to stop, or null for no upper bound
+     * @return a view of the matching photos at the album's latest version
+     */
+    public PhotoRange getPhotosTakenBetween(Date from, Date to) {
+        return range(AlbumCatalog.OP_SORT_BY_DATE_TAKEN, from != null ? from.getTime() : Long.MIN_VALUE,
+                to != null ? to.getTime() : Long.MAX_VALUE);
+    }
+
+    /**
+     * Retrieves the photos whose file size is at least one size and below another,
+     * ordered by size. The range is found in O(log n) through the size index,
+     * which is built on first use and then kept up to date; the photos are read
+     * from the index as they are requested rather than copied.
+     *
+     * @param minSize the smallest size to include, in bytes
+     * @param maxSize the size below which to stop, in bytes, or Long.MAX_VALUE for no upper bound
+     * @return a view of the matching photos at the album's latest version
+     */
+    public PhotoRange getPhotosSizedBetween(long minSize, long maxSize) {
+        return range(AlbumCatalog.OP_SORT_BY_SIZE, minSize, maxSize);
+    }
+
+    /**
+     * Creates a range over the index of a sort operation at the latest version.
+     */
+    private PhotoRange range(byte op, long min, long max) {
+        State current = state;
+        return new PhotoRange(current, op, order(current, op), min, max);
+    }
+
+    /**
+     * Returns a State's index for a sort operation. An index the State lacks is
+     * built from the State's own photos, without locking, and is kept for later
+     * queries if the album has not changed meanwhile.
+     */
+    private LongSequence order(State current, byte op) {
+        LongSequence order = current.orders[op];
+        if (order != null) {
+            return order;
+        }
+        LongSequence built = buildOrder(current.store, current.ids, op);
+        order = built.freeze();
+        lock.lock();
+        try {
+            if (state == current && pendingDeltas.isEmpty() && orders[op] == null) { // The indexes still match the State
+                orders[op] = built;
+                state = current.withOrder(op, order);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return order;
+    }
+
+    /**
+     * Finds the position of a photo in the order the album is shown in.
+     *
+     * @param photo the photo to find
+     * @return the index of the photo with the same file, or -1 if there is none
+     */
+    public int indexOf(Photo photo) {
+        return state.indexOf(photo);
+    }
+
+    /**
+     * Checks whether a file is already in the album.
+     *
+     * @param filePath the path of the photo file
+     * @return true if a photo with that path is in the album
+     */
+    public boolean containsPath(String filePath) {
+        return state.idOf(filePath) >= 0;
+    }
+
+    /**
+     * Removes the photos with the given IDs, which must be live, ascending and
+     * distinct, with the write lock held.
+     */
+    private void removeIds(int[] removedIds) {
+        int count = removedIds.length;
+        long[] entries = new long[count];
+        int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            entries[i] = entryOf(ids, removedIds[i]);
+            positions[i] = ids.indexOf(entries[i]); // Ascending, like the IDs
+        }
+        if (catalog != null) {
+            int[] indexes = new int[count];
+            for (int i = 0; i < count; i++) {
+                indexes[i] = positions[count - 1 - i]; // Descending, so each index stays valid as earlier ones go
+            }
+            try {
+                catalog.recordRemoves(indexes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not save removal of " + count + " photos", e);
+            }
+        }
+        lock.lock();
+        try {
+            long[] pathEntries = new long[count];
+            for (int i = 0; i < count; i++) {
+                pathEntries[i] = pathEntry(store.get(slotOf(entries[i])).getFilePath(), removedIds[i]);
+            }
+            Arrays.sort(pathEntries);
+            if (currentSortOp == AlbumCatalog.OP_SORT_NONE) {
+                fireRemoved(positions);
+            }
+            for (byte op = 0; op < orders.length; op++) {
+                LongSequence order = orders[op];
+                if (order == null) {
+                    continue;
+                }
+                int[] orderPositions = new int[count];
+                for (int i = 0; i < count; i++) {
+                    orderPositions[i] = order.indexOf(entries[i]);
+                }
+                Arrays.sort(orderPositions);
+                long[] sorted = new long[count];
+                for (int i = 0; i < count; i++) {
+                    sorted[i] = order.get(orderPositions[i]);
+                }
+                order.removeAll(sorted, count);
+                if (op == currentSortOp) {
+                    fireRemoved(orderPositions);
+                }
+            }
+            ids.removeAll(entries, count);
+            paths.removeAll(pathEntries, count);
+            SimilarityIndex similarity = similarityIndex;
+            NameSearchIndex names = nameIndex;
+            for (int id : removedIds) {
+                if (similarity != null) {
+                    similarity.photoRemoved(id);
+                }
+                if (names != null) {
+                    names.remove(id);
+                }
+            }
+            compactStoreIfDue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Builds the indexes over the photos loaded from the catalog and drops any
+     * photo whose file appears earlier in the album, which older versions allowed.
+     */
+    private void indexLoadedPhotos(PhotoStore.Loader loaded) {
+        int count = loaded.size();
+        long[] entries = new long[count];
+        long[] pathEntries = new long[count];
+        for (int i = 0; i < count; i++) {
+            entries[i] = entry(i, loaded.slotAt(i));
+            pathEntries[i] = pathEntry(loaded.get(i).getFilePath(), i);
+        }
+        nextId = count;
+        Arrays.sort(pathEntries);
+        ids = LongSequence.fromSorted(null, entries, count);
+        paths = LongSequence.fromSorted(null, pathEntries, count);
+        if (catalog.getSortOp() != AlbumCatalog.OP_SORT_NONE) {
+            currentSortOp = catalog.getSortOp();
+            orderIndex(currentSortOp);
+        }
+        publish(0);
+
+        int[] duplicateIds = new int[16];
+        int duplicates = 0;
+        int start = 0;
+        while (start < count) {
+            int end = start + 1; // End of the run of entries with the same path hash, by ascending ID
+            while (end < count && pathEntries[end] >>> 32 == pathEntries[start] >>> 32) {
+                end++;
+            }
+            for (int i = start + 1; i < end; i++) {
+                String filePath = loaded.get((int) pathEntries[i]).getFilePath();
+                for (int j = start; j < i; j++) {
+                    if (filePath.equals(loaded.get((int) pathEntries[j]).getFilePath())) {
+                        if (duplicates == duplicateIds.length) {
+                            duplicateIds = Arrays.copyOf(duplicateIds, duplicates * 2);
+                        }
+                        duplicateIds[duplicates++] = (int) pathEntries[i];
+                        break;
+                    }
+                }
+            }
+            start = end;
+        }
+        if (duplicates > 0) {
+            Arrays.sort(duplicateIds, 0, duplicates);
+            beginBatch();
+            try {
+                removeIds(Arrays.copyOf(duplicateIds, duplicates));
+            } finally {
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Writes a final snapshot of the album to its catalog and closes it.
+     * Has no effect on an in-memory album.
+     */
+    public void close() {
+        if (catalog == null) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            awaitCompaction();
+            catalog.writeSnapshot(new PhotoView(store, ids), currentSortOp);
+        } catch (IOException e) {
+            System.err.println("Could not write album snapshot, the journal is kept: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+        compactor.shutdown();
+        catalog.close();
     }
 
     /**
-     * Registers a new change listener.
+     * Registers a new change listener. Listeners receive AlbumChangeEvent instances.
      *
      * @param listener the ChangeListener to add
      */
@@ -53,12 +715,247 @@ public class PhotoAlbumModel implements Iterable<Photo> {
     }
 
     /**
-     * Notifies all registered listeners of a change.
+     * Sets the executor on which change listeners are called. Events are still
+     * delivered in order, but by the time a listener runs the model may have
+     * changed further, so asynchronous listeners should rely on the deltas and
+     * the snapshot carried by the event rather than read the model. Listeners
+     * called directly run on the thread that changed the album, holding its
+     * write lock.
+     *
+     * @param executor the executor to dispatch on, or null to call listeners directly
+     */
+    public void setListenerExecutor(Executor executor) {
+        this.listenerExecutor = executor;
+    }
+
+    /**
+     * Starts a batch. Changes made until the matching {@link #commit()} are
+     * delivered to listeners as a single event. Batches may be nested. The
+     * calling thread holds the album's write lock until the batch is committed,
+     * so other threads cannot change the album in the middle of it, and readers
+     * see none of its changes until then.
+     */
+    public void beginBatch() {
+        writeLock.lock();
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch started with {@link #beginBatch()}. When the outermost batch
+     * ends, the accumulated changes are published and delivered to listeners.
+     *
+     * @throws IllegalStateException if the calling thread has no batch in progress
+     */
+    public void commit() {
+        if (!writeLock.isHeldByCurrentThread() || batchDepth == 0) {
+            throw new IllegalStateException("No batch in progress");
+        }
+        try {
+            if (--batchDepth == 0) {
+                if (!pendingDeltas.isEmpty()) {
+                    notifyChangeListeners();
+                }
+                compactCatalogIfDue();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Records a change, with the lock held, to be delivered when the batch ends.
+     */
+    private void fireDelta(AlbumChangeEvent.Delta delta) {
+        pendingDeltas.add(delta);
+    }
+
+    /**
+     * Records the insertion of entries, in the order of an index that already
+     * holds them, as one change per run of photos that ended up next to each other.
+     */
+    private void fireInserted(LongSequence order, long[] sorted) {
+        int start = 0;
+        int startPosition = order.indexOf(sorted[0]);
+        for (int i = 1; i <= sorted.length; i++) {
+            int position = i < sorted.length ? order.indexOf(sorted[i]) : -1;
+            if (position != startPosition + i - start) {
+                List<Photo> run = new ArrayList<>(i - start);
+                for (int j = start; j < i; j++) {
+                    run.add(store.get(slotOf(sorted[j])));
+                }
+                fireDelta(AlbumChangeEvent.Delta.inserted(startPosition, run));
+                start = i;
+                startPosition = position;
+            }
+        }
+    }
+
+    /**
+     * Records the removal of the photos at ascending positions as one change per
+     * run of consecutive positions, last run first, so that each change's positions
+     * are still valid once the later ones have been applied.
+     */
+    private void fireRemoved(int[] positions) {
+        int end = positions.length;
+        while (end > 0) {
+            int start = end - 1;
+            while (start > 0 && positions[start - 1] == positions[start] - 1) {
+                start--;
+            }
+            fireDelta(AlbumChangeEvent.Delta.removed(positions[start], positions[end - 1]));
+            end = start;
+        }
+    }
+
+    /**
+     * Publishes the pending changes as a new version and notifies all registered
+     * listeners. Publishing freezes the indexes in O(1), so the event can carry
+     * the new version's snapshot whatever the size of the album.
      */
     private void notifyChangeListeners() {
-        ChangeEvent event = new ChangeEvent(this);
-        for (ChangeListener listener : listeners) {
-            listener.stateChanged(event);
+        AlbumChangeEvent event;
+        lock.lock();
+        try {
+            List<AlbumChangeEvent.Delta> deltas = new ArrayList<>(pendingDeltas);
+            pendingDeltas.clear();
+            publish(state.version + 1);
+            event = new AlbumChangeEvent(this, deltas, state.snapshot);
+        } finally {
+            lock.unlock();
+        }
+        Executor executor = listenerExecutor;
+        if (executor == null) {
+            long start = System.nanoTime();
+            for (ChangeListener listener : listeners) {
+                listener.stateChanged(event);
+            }
+            DISPATCH_TIME.recordSince(start);
+        } else {
+            List<ChangeListener> targets = new ArrayList<>(listeners);
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                for (ChangeListener listener : targets) {
+                    listener.stateChanged(event);
+                }
+                DISPATCH_TIME.recordSince(start);
+            });
+        }
+    }
+
+    /**
+     * Freezes the indexes into the State of a version and publishes it.
+     */
+    private void publish(long version) {
+        LongSequence[] frozen = new LongSequence[orders.length];
+        for (int op = 0; op < orders.length; op++) {
+            if (orders[op] != null) {
+                frozen[op] = orders[op].freeze();
+            }
+        }
+        state = new State(version, store, ids.freeze(), paths.freeze(), frozen, currentSortOp);
+    }
+
+    /**
+     * Records a sort in the catalog, if there is one.
+     */
+    private void recordSort(byte op) {
+        if (catalog != null) {
+            try {
+                catalog.recordSort(op);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not save sort order", e);
+            }
+        }
+    }
+
+    /**
+     * Adds a photo to the name and similarity indexes, with the lock held.
+     */
+    private void indexName(int id, Photo photo) {
+        SimilarityIndex similarity = similarityIndex;
+        if (similarity != null) {
+            similarity.photoAdded(id, photo.getFilePath());
+        }
+        NameSearchIndex names = nameIndex;
+        if (names != null) {
+            names.add(id, photo.getName());
+        }
+    }
+
+    /**
+     * Moves the live photos into a new store, with the lock held, once most of the
+     * store's slots belong to removed photos. The entries are rewritten with the
+     * new slots; IDs, and so the path index, are unchanged.
+     */
+    private void compactStoreIfDue() {
+        int live = ids.size();
+        int slotCount = store.slotCount();
+        if (slotCount <= COMPACT_SLOTS || slotCount - live < live) {
+            return;
+        }
+        PhotoStore compacted = store.newStore(live * 2);
+        int[] newSlots = new int[slotCount];
+        long[] entries = ids.toArray();
+        for (int i = 0; i < live; i++) {
+            int slot = slotOf(entries[i]);
+            newSlots[slot] = compacted.add(store.get(slot));
+            entries[i] = entry(idOf(entries[i]), newSlots[slot]);
+        }
+        ids = LongSequence.fromSorted(null, entries, live);
+        for (int op = 0; op < orders.length; op++) {
+            if (orders[op] != null) {
+                long[] ordered = orders[op].toArray();
+                for (int i = 0; i < live; i++) {
+                    ordered[i] = entry(idOf(ordered[i]), newSlots[slotOf(ordered[i])]);
+                }
+                Comparator<Photo> comparator = ((PhotoOrder) orders[op].getOrder()).comparator;
+                orders[op] = LongSequence.fromSorted(new PhotoOrder(compacted, comparator), ordered, live);
+            }
+        }
+        store = compacted;
+    }
+
+    /**
+     * Folds the catalog journals into a snapshot once they have grown large, with
+     * the write lock held and every recorded change published. The journal is set
+     * aside here and the snapshot is written from the published State on a
+     * background thread, so changes are not held up by it. A failure is not fatal
+     * because the journals still hold every change.
+     */
+    private void compactCatalogIfDue() {
+        if (catalog == null || (compaction != null && !compaction.isDone()) || !catalog.isCompactionDue()) {
+            return;
+        }
+        State frozen = state;
+        long generation;
+        try {
+            generation = catalog.rotateJournal();
+        } catch (IOException e) {
+            System.err.println("Could not start a new album journal, the current one is kept: " + e.getMessage());
+            return;
+        }
+        compaction = compactor.submit(() -> {
+            try {
+                catalog.writeSnapshot(new PhotoView(frozen.store, frozen.ids), frozen.sortOp, generation);
+            } catch (IOException e) {
+                System.err.println("Could not write album snapshot, the journal is kept: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Waits for a running catalog compaction to finish, with the write lock held.
+     */
+    private void awaitCompaction() {
+        if (compaction == null) {
+            return;
+        }
+        try {
+            compaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The compaction reports its own failures
         }
     }
 
@@ -68,7 +965,29 @@ public class PhotoAlbumModel implements Iterable<Photo> {
      * @return a list containing all Photo objects in the album
      */
     public List<Photo> getAllPhotos() {
-        return new ArrayList<>(photos); // Return a copy of the photos list
+        return new ArrayList<>(getSnapshot()); // Return a copy of the photos list
+    }
+
+    /**
+     * Retrieves an immutable snapshot of the photos in the album at its latest
+     * version. The same snapshot is returned until the album changes, without
+     * locking or copying. Changes in a batch that has not been committed are not
+     * included.
+     *
+     * @return the photos in their current order
+     */
+    public AlbumSnapshot getSnapshot() {
+        return state.snapshot;
+    }
+
+    /**
+     * Retrieves the version of the album, which advances each time changes are
+     * delivered to listeners.
+     *
+     * @return the current version
+     */
+    public long getVersion() {
+        return state.version;
     }
 
     /**
@@ -77,7 +996,7 @@ public class PhotoAlbumModel implements Iterable<Photo> {
      * @return the number of photos
      */
     public int getPhotoCount() {
-        return photos.size();
+        return state.snapshot.size();
     }
 
     /**
@@ -88,34 +1007,182 @@ public class PhotoAlbumModel implements Iterable<Photo> {
      * @throws IndexOutOfBoundsException if the index is invalid
      */
     public Photo getPhotoAt(int index) {
-        if (index < 0 || index >= photos.size()) {
-            throw new IndexOutOfBoundsException("Invalid index: " + index);
-        }
-        return photos.get(index);
+        return state.snapshot.get(index);
     }
 
     /**
-     * Sorts the photos in the album by name and notifies observers.
+     * Shows the photos in the album ordered by name and notifies observers.
+     *
+     * @throws UncheckedIOException if the change cannot be saved to the catalog
      */
     public void sortPhotosByName() {
-        Collections.sort(photos, Comparator.comparing(Photo::getName));
-        notifyChangeListeners();
+        sortPhotos(AlbumCatalog.OP_SORT_BY_NAME);
     }
 
     /**
-     * Sorts the photos in the album by the date they were added and notifies observers.
+     * Shows the photos in the album ordered by the date they were added and notifies observers.
+     *
+     * @throws UncheckedIOException if the change cannot be saved to the catalog
      */
     public void sortPhotosByDate() {
-        Collections.sort(photos, Comparator.comparing(Photo::getDateAdded));
-        notifyChangeListeners();
+        sortPhotos(AlbumCatalog.OP_SORT_BY_DATE);
     }
 
     /**
-     * Sorts the photos in the album by file size and notifies observers.
+     * Shows the photos in the album ordered by the date they were taken and notifies
+     * observers. Photos whose files record no capture date are placed by the date
+     * they were added.
+     *
+     * @throws UncheckedIOException if the change cannot be saved to the catalog
+     */
+    public void sortPhotosByDateTaken() {
+        sortPhotos(AlbumCatalog.OP_SORT_BY_DATE_TAKEN);
+    }
+
+    /**
+     * Shows the photos in the album ordered by file size and notifies observers.
+     *
+     * @throws UncheckedIOException if the change cannot be saved to the catalog
      */
     public void sortPhotosBySize() {
-        Collections.sort(photos, Comparator.comparingLong(Photo::getFileSize));
-        notifyChangeListeners();
+        sortPhotos(AlbumCatalog.OP_SORT_BY_SIZE);
+    }
+
+    /**
+     * Switches the album to the order of the given sort operation and notifies
+     * observers. Photos that compare equal stay in the order they were added.
+     */
+    private void sortPhotos(byte op) {
+        beginBatch();
+        try {
+            recordSort(op);
+            lock.lock();
+            try {
+                currentSortOp = op;
+                orderIndex(op);
+                fireDelta(AlbumChangeEvent.Delta.reordered(ids.size()));
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Returns the index for a sort operation, building it on first use, with the
+     * lock held.
+     */
+    private LongSequence orderIndex(byte op) {
+        if (orders[op] == null) {
+            orders[op] = buildOrder(store, ids, op);
+        }
+        return orders[op];
+    }
+
+    /**
+     * Builds the index for a sort operation over the entries of a store, sorting
+     * extracted keys rather than comparing photos.
+     */
+    private static LongSequence buildOrder(PhotoStore store, LongSequence ids, byte op) {
+        long[] sorted = sortEntries(store, ids.toArray(), op);
+        Comparator<Photo> comparator = AlbumCatalog.sortingStrategy(op).getComparator();
+        return LongSequence.fromSorted(new PhotoOrder(store, comparator), sorted, sorted.length);
+    }
+
+    /**
+     * Sorts entries, given by ascending ID, into the order of a sort operation.
+     * The sort is stable, so photos that compare equal stay in ID order, as
+     * PhotoOrder requires.
+     */
+    private static long[] sortEntries(PhotoStore store, long[] entries, byte op) {
+        Photo[] photos = new Photo[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            photos[i] = store.get(slotOf(entries[i]));
+        }
+        int[] order = AlbumCatalog.sortingStrategy(op).sortedOrder(photos);
+        long[] sorted = new long[entries.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = entries[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Packs a photo's ID and slot into an entry. Entries sort by ID.
+     */
+    private static long entry(int id, int slot) {
+        return (long) id << 32 | slot;
+    }
+
+    private static int idOf(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int slotOf(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Packs the hash of a photo's path and its ID into an entry of the path index.
+     */
+    private static long pathEntry(String filePath, int id) {
+        return (long) pathHash(filePath) << 32 | id;
+    }
+
+    /**
+     * Computes a well-mixed 32-bit hash of a path.
+     */
+    private static int pathHash(String filePath) {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < filePath.length(); i++) {
+            hash = 31 * hash + filePath.charAt(i);
+        }
+        hash ^= hash >>> 33; // Finalizer from MurmurHash3
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return (int) (hash ^ (hash >>> 33));
+    }
+
+    /**
+     * Finds the entry of an ID.
+     *
+     * @return the entry, or -1 if the ID is not in the index
+     */
+    private static long entryOf(LongSequence ids, int id) {
+        if (id < 0) {
+            return -1;
+        }
+        int position = ids.lowerBound(entry(id, 0));
+        if (position < ids.size()) {
+            long entry = ids.get(position);
+            if (idOf(entry) == id) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the ID of the photo stored at a path, checking the path of each photo
+     * whose path has the same hash.
+     *
+     * @return the ID, or -1 if the path is not in the index
+     */
+    private static int findId(PhotoStore store, LongSequence ids, LongSequence paths, String filePath) {
+        long hash = (long) pathHash(filePath) << 32;
+        for (int position = paths.lowerBound(hash); position < paths.size(); position++) {
+            long candidate = paths.get(position);
+            if ((candidate & 0xffffffff00000000L) != hash) {
+                break;
+            }
+            long entry = entryOf(ids, (int) candidate);
+            if (entry >= 0 && filePath.equals(store.get(slotOf(entry)).getFilePath())) {
+                return (int) candidate;
+            }
+        }
+        return -1;
     }
 
     @Override
@@ -123,11 +1190,292 @@ public class PhotoAlbumModel implements Iterable<Photo> {
         return new AlbumIteratorImpl();
     }
 
+    /**
+     * The album as published at one version. Every part of it is immutable, so any
+     * thread may query a State without locking while the album goes on changing.
+     */
+    private static final class State {
+        final long version;
+        final PhotoStore store; // Holds every slot the entries refer to
+        final LongSequence ids;
+        final LongSequence paths;
+        final LongSequence[] orders; // By sort operation, null where not built
+        final byte sortOp;
+        final AlbumSnapshot snapshot; // The photos in the order they are shown in
+
+        State(long version, PhotoStore store, LongSequence ids, LongSequence paths, LongSequence[] orders,
+                byte sortOp) {
+            this.version = version;
+            this.store = store;
+            this.ids = ids;
+            this.paths = paths;
+            this.orders = orders;
+            this.sortOp = sortOp;
+            this.snapshot = new AlbumSnapshot(version, new PhotoView(store, shown()));
+        }
+
+        private State(State base, LongSequence[] orders) {
+            this.version = base.version;
+            this.store = base.store;
+            this.ids = base.ids;
+            this.paths = base.paths;
+            this.orders = orders;
+            this.sortOp = base.sortOp;
+            this.snapshot = base.snapshot;
+        }
+
+        /**
+         * Returns the same State with an index added for a sort operation.
+         */
+        State withOrder(byte op, LongSequence order) {
+            LongSequence[] withOrder = orders.clone();
+            withOrder[op] = order;
+            return new State(this, withOrder);
+        }
+
+        LongSequence shown() {
+            return sortOp == AlbumCatalog.OP_SORT_NONE ? ids : orders[sortOp];
+        }
+
+        int idOf(String filePath) {
+            return findId(store, ids, paths, filePath);
+        }
+
+        Photo photoById(int id) {
+            long entry = entryOf(ids, id);
+            return entry >= 0 ? store.get(slotOf(entry)) : null;
+        }
+
+        /**
+         * Finds the position of an entry in the order the album is shown in.
+         */
+        int positionOf(long entry) {
+            return entry >= 0 ? shown().indexOf(entry) : -1;
+        }
+
+        int indexOf(Photo photo) {
+            return positionOf(entryOf(ids, idOf(photo.getFilePath())));
+        }
+    }
+
+    /**
+     * Orders entries by their photos, then by ID, so that photos that compare
+     * equal stay in the order they were added.
+     */
+    private static final class PhotoOrder implements LongSequence.Order {
+        final PhotoStore store;
+        final Comparator<Photo> comparator;
+
+        PhotoOrder(PhotoStore store, Comparator<Photo> comparator) {
+            this.store = store;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public int compare(long a, long b) {
+            int result = comparator.compare(store.get(slotOf(a)), store.get(slotOf(b)));
+            return result != 0 ? result : Integer.compare(idOf(a), idOf(b));
+        }
+    }
+
+    /**
+     * A read-only list of the photos an index refers to, in the index's order.
+     */
+    private static final class PhotoView extends AbstractList<Photo> implements RandomAccess {
+        private final PhotoStore store;
+        private final LongSequence entries;
+
+        PhotoView(PhotoStore store, LongSequence entries) {
+            this.store = store;
+            this.entries = entries;
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Photo get(int index) {
+            return store.get(slotOf(entries.get(index)));
+        }
+    }
+
+    /**
+     * PhotoRange is a view of the photos whose date added, date taken or file size
+     * lies in a range, backed by the album's index for that property. It holds only
+     * the bounds and the positions they fall at, so it costs the same however many
+     * photos it covers. Reading a photo by position costs O(log n).
+     *
+     * <p>A range reads the index as it was published at the version the range was
+     * made at, so it stays consistent, and unchanged, however the album changes
+     * afterwards. Reading it never locks.
+     */
+    public class PhotoRange extends AbstractList<Photo> implements RandomAccess {
+        private final State state; // Version of the album the range reads
+        private final byte op; // Sort operation of the index the range is in
+        private final LongSequence index;
+        private final long min; // Smallest key included
+        private final long max; // Key at which the range ends, or Long.MAX_VALUE for no bound
+        private final int from; // Position of the first photo in the index
+        private final int to; // Position after the last photo in the index
+
+        PhotoRange(State state, byte op, LongSequence index, long min, long max) {
+            this.state = state;
+            this.op = op;
+            this.index = index;
+            this.min = min;
+            this.max = Math.max(min, max);
+            long end = this.max;
+            this.from = min == Long.MIN_VALUE ? 0 : index.lowerBound(entry -> key(photo(entry)) < min);
+            this.to = end == Long.MAX_VALUE ? index.size() : index.lowerBound(entry -> key(photo(entry)) < end);
+        }
+
+        /**
+         * Retrieves the number of photos in the range.
+         *
+         * @return the size of the range
+         */
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        /**
+         * Retrieves a photo by its position within the range.
+         *
+         * @param position the position, from 0 to size() - 1
+         * @return the photo at that position
+         * @throws IndexOutOfBoundsException if the position is invalid
+         */
+        @Override
+        public Photo get(int position) {
+            if (position < 0 || position >= to - from) {
+                throw new IndexOutOfBoundsException("Invalid index: " + position);
+            }
+            return photo(index.get(from + position));
+        }
+
+        /**
+         * Checks whether a photo's date added, date taken or file size lies in this
+         * range, without looking it up in the index.
+         *
+         * @param photo the photo to check; it need not be in the album
+         * @return true if the photo's key is within the bounds of the range
+         */
+        public boolean covers(Photo photo) {
+            long key = key(photo);
+            return key >= min && (key < max || max == Long.MAX_VALUE);
+        }
+
+        /**
+         * Combines this range with others, giving a view of the photos in all of
+         * them. Ranges over the same property are merged into a narrower range. If
+         * that leaves ranges over different properties, the view walks the smallest
+         * and keeps the photos the others cover, so iterating it costs O(log n) plus
+         * the size of the smallest range; its size() iterates as well.
+         *
+         * @param others the ranges to combine with
+         * @return a view of the photos in every range, ordered like the one it walks
+         */
+        public Collection<Photo> and(PhotoRange... others) {
+            PhotoRange[] byOp = new PhotoRange[AlbumCatalog.OP_SORT_BY_DATE_TAKEN + 1];
+            byOp[op] = this;
+            for (PhotoRange other : others) {
+                PhotoRange merged = byOp[other.op];
+                byOp[other.op] = merged == null ? other : new PhotoRange(merged.state, other.op, merged.index,
+                        Math.max(merged.min, other.min), Math.min(merged.max, other.max));
+            }
+            PhotoRange driver = null;
+            List<PhotoRange> filters = new ArrayList<>(byOp.length);
+            for (PhotoRange range : byOp) {
+                if (range != null) {
+                    filters.add(range);
+                    if (driver == null || range.size() < driver.size()) {
+                        driver = range;
+                    }
+                }
+            }
+            filters.remove(driver);
+            if (filters.isEmpty()) {
+                return driver;
+            }
+            PhotoRange walked = driver;
+            return new AbstractCollection<Photo>() {
+                @Override
+                public Iterator<Photo> iterator() {
+                    Iterator<Photo> candidates = walked.iterator();
+                    return new Iterator<Photo>() {
+                        private Photo next = advance();
+
+                        private Photo advance() {
+                            while (candidates.hasNext()) {
+                                Photo candidate = candidates.next();
+                                if (filters.stream().allMatch(filter -> filter.covers(candidate))) {
+                                    return candidate;
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public Photo next() {
+                            if (next == null) {
+                                throw new NoSuchElementException("No more photos in the range.");
+                            }
+                            Photo photo = next;
+                            next = advance();
+                            return photo;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int count = 0;
+                    for (Iterator<Photo> it = iterator(); it.hasNext(); it.next()) {
+                        count++;
+                    }
+                    return count;
+                }
+            };
+        }
+
+        private Photo photo(long entry) {
+            return state.store.get(slotOf(entry));
+        }
+
+        /**
+         * Returns the key the range's index orders photos by.
+         */
+        private long key(Photo photo) {
+            switch (op) {
+                case AlbumCatalog.OP_SORT_BY_DATE:
+                    return photo.getDateAdded().getTime();
+                case AlbumCatalog.OP_SORT_BY_DATE_TAKEN:
+                    return photo.getDateTaken().getTime();
+                default:
+                    return photo.getFileSize();
+            }
+        }
+    }
+
     /**
      * AlbumIteratorImpl is an iterator for the photo album, allowing
      * navigation through photos with forward and backward movement.
+     *
+     * <p>The iterator walks the snapshot of the album it was created at, so it sees
+     * a consistent set of photos however the album changes meanwhile, and never
+     * locks. {@link #reanchor()} moves it to the latest version, keeping its place
+     * on the photo it was at, wherever a sort or other change has moved that photo.
      */
     public class AlbumIteratorImpl implements Iterator<Photo> {
+        private AlbumSnapshot snapshot = PhotoAlbumModel.this.getSnapshot();
         private int currentIndex = 0;
 
         /**
@@ -137,7 +1485,7 @@ public class PhotoAlbumModel implements Iterable<Photo> {
          */
         @Override
         public boolean hasNext() {
-            return currentIndex < photos.size();
+            return currentIndex < snapshot.size();
         }
 
         /**
@@ -151,7 +1499,7 @@ public class PhotoAlbumModel implements Iterable<Photo> {
             if (!hasNext()) {
                 throw new NoSuchElementException("No more photos available.");
             }
-            return photos.get(currentIndex++);
+            return snapshot.get(currentIndex++);
         }
 
         /**
@@ -173,7 +1521,16 @@ public class PhotoAlbumModel implements Iterable<Photo> {
             if (!hasPrevious()) {
                 throw new NoSuchElementException("No previous photo available.");
             }
-            return photos.get(--currentIndex);
+            return snapshot.get(--currentIndex);
+        }
+
+        /**
+         * Retrieves the index of the photo that the next call to next() would return.
+         *
+         * @return the index of the next photo
+         */
+        public int nextIndex() {
+            return currentIndex;
         }
 
         /**
@@ -183,10 +1540,48 @@ public class PhotoAlbumModel implements Iterable<Photo> {
          * @throws NoSuchElementException if there is no current photo
          */
         public Photo current() {
-            if (currentIndex <= 0 || currentIndex > photos.size()) {
+            if (currentIndex <= 0 || currentIndex > snapshot.size()) {
                 throw new NoSuchElementException("Current photo is not available.");
             }
-            return photos.get(currentIndex - 1);
+            return snapshot.get(currentIndex - 1);
+        }
+
+        /**
+         * Retrieves the snapshot the iterator walks.
+         *
+         * @return the photos of the version the iterator is pinned to
+         */
+        public AlbumSnapshot getSnapshot() {
+            return snapshot;
+        }
+
+        /**
+         * Checks whether the iterator walks the latest version of the album.
+         *
+         * @return false if the album has changed since the iterator's snapshot
+         */
+        public boolean isCurrent() {
+            return snapshot.getVersion() == state.version;
+        }
+
+        /**
+         * Moves the iterator to the latest version of the album, keeping it on the
+         * current photo. If that photo has been removed, the photo that took its
+         * position becomes current, or the last photo if the album has shrunk.
+         *
+         * @return true unless the current photo has been removed from the album
+         */
+        public boolean reanchor() {
+            Photo anchor = currentIndex > 0 ? snapshot.get(currentIndex - 1) : null;
+            State latest = state;
+            snapshot = latest.snapshot;
+            int position = anchor != null ? latest.indexOf(anchor) : -1; // Consistent with the snapshot
+            if (position >= 0) {
+                currentIndex = position + 1;
+                return true;
+            }
+            currentIndex = Math.min(currentIndex, snapshot.size());
+            return anchor == null;
         }
     }
 }
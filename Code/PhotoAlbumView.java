@@ -1,7 +1,9 @@
 import java.awt.*;
 import java.awt.event.ActionListener;
+import java.io.File;
 import java.util.List;
 import javax.swing.*;
+import javax.swing.event.DocumentListener;
 
 /**
  * PhotoAlbumView is the view component of the photo album application, responsible
@@ -10,16 +12,27 @@ import javax.swing.*;
  * retrieve input data, set display properties, and add action listeners.
  */
 public class PhotoAlbumView {
+    public static final int DISPLAY_SIZE = 700; // Box of the preview shown before the viewer decodes any detail
+    private static final LatencyHistogram LIST_UPDATE_TIME = Metrics.getShared().histogram("listModelUpdate");
+
     private final JFrame frame;
     private final JTextField photoNameField; 
     private final JTextField filePathField; 
-    private final JButton addButton, deleteButton;
-    private final JButton sortByNameButton, sortByDateButton, sortBySizeButton;
-    private final JButton nextButton, previousButton;
+    private final JTextField searchField; // Filters the photo list by name as the user types
+    private final JButton addButton, deleteButton, importButton, duplicatesButton, similarButton;
+    private final JButton sortByNameButton, sortByDateButton, sortByDateTakenButton, sortBySizeButton;
+    private final JButton nextButton, previousButton, statsButton;
     private final JList<Photo> photoList; 
     private final JLabel currentPhotoLabel; // Label to show the current photo name
-    private final JLabel photoDisplayLabel; // Label to display the current photo (thumbnail or full image)
-    private final DefaultListModel<Photo> photoListModel; // Model for the photo list
+    private final PhotoViewer photoViewer; // Zoomable display of the current photo
+    private final TileCache tileCache; // Decoded tiles of the displayed photos
+    private Photo currentPhoto; // Photo shown in the viewer, or null
+    private final JLabel importStatusLabel; // Label to show the progress of a folder import
+    private final JLabel searchStatusLabel; // Label to show how many photos match the search
+    private final PhotoListModel photoListModel; // Snapshot-backed model for the photo list
+    private final ImageLoader imageLoader; // Decodes displayed photos off the EDT
+    private final ListThumbnailLoader listThumbnails; // Decodes the thumbnails of the rows in view
+    private final JToolBar statsToolBar; // Dockable bar holding the stats panel, shown on request
 
     /**
      * Constructs the PhotoAlbumView, initializing the frame and its components.
@@ -32,23 +45,39 @@ public class PhotoAlbumView {
         // Initialize text fields for photo name and file path
         photoNameField = new JTextField(15);
         filePathField = new JTextField(15);
+        searchField = new JTextField(15);
 
         // Initialize buttons
         addButton = new JButton("Add Photo");
         deleteButton = new JButton("Delete Photo");
+        importButton = new JButton("Import Folder");
+        duplicatesButton = new JButton("Find Duplicates");
+        similarButton = new JButton("Find Similar");
         nextButton = new JButton("Next");
         previousButton = new JButton("Previous");
         sortByNameButton = new JButton("Sort By Name");
         sortByDateButton = new JButton("Sort By Date");
+        sortByDateTakenButton = new JButton("Sort By Date Taken");
         sortBySizeButton = new JButton("Sort By Size");
+        statsButton = new JButton("Show Stats");
 
         // Initialize photo list and model
-        photoListModel = new DefaultListModel<>();
+        photoListModel = new PhotoListModel();
         photoList = new JList<>(photoListModel);
-        photoList.setCellRenderer(new PhotoCellRenderer()); // Set custom cell renderer
+        listThumbnails = new ListThumbnailLoader(photoList, ThumbnailCache.getShared(),
+                PhotoCellRenderer.THUMBNAIL_SIZE, 2);
+        PhotoCellRenderer cellRenderer = new PhotoCellRenderer(listThumbnails);
+        photoList.setCellRenderer(cellRenderer); // Set custom cell renderer
+        // Fixed rows let the list lay out any number of photos without measuring them
+        Dimension cellSize = cellRenderer.getCellSize(photoList);
+        photoList.setFixedCellWidth(cellSize.width);
+        photoList.setFixedCellHeight(cellSize.height);
         currentPhotoLabel = new JLabel("Current Photo: None");
-        photoDisplayLabel = new JLabel(); // To display the current photo
-        photoDisplayLabel.setHorizontalAlignment(SwingConstants.CENTER); // Center the photo
+        tileCache = new TileCache(Long.getLong("photoapp.tileCache.maxBytes", TileCache.DEFAULT_MAX_BYTES));
+        photoViewer = new PhotoViewer(tileCache);
+        importStatusLabel = new JLabel();
+        searchStatusLabel = new JLabel();
+        imageLoader = new ImageLoader(ThumbnailCache.getShared(), 2);
 
         // Panel for input fields and buttons
         JPanel inputPanel = new JPanel();
@@ -59,15 +88,29 @@ public class PhotoAlbumView {
         inputPanel.add(filePathField);
         inputPanel.add(addButton);
         inputPanel.add(deleteButton);
+        inputPanel.add(importButton);
+        inputPanel.add(duplicatesButton);
+        inputPanel.add(similarButton);
 
         // Panel for displaying the current photo
         JPanel currentPhotoPanel = new JPanel(new BorderLayout());
         currentPhotoPanel.add(currentPhotoLabel, BorderLayout.NORTH);
-        currentPhotoPanel.add(photoDisplayLabel, BorderLayout.CENTER);
+        currentPhotoPanel.add(photoViewer, BorderLayout.CENTER);
+
+        // Panel for the search field above the photo list
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        searchPanel.add(new JLabel("Search:"));
+        searchPanel.add(searchField);
+        searchPanel.add(searchStatusLabel);
+        JPanel listPanel = new JPanel(new BorderLayout());
+        listPanel.add(searchPanel, BorderLayout.NORTH);
+        JScrollPane listScrollPane = new JScrollPane(photoList);
+        listScrollPane.getViewport().addChangeListener(e -> listThumbnails.requestVisible());
+        listPanel.add(listScrollPane, BorderLayout.CENTER);
 
         // Main panel configuration
         JPanel mainPanel = new JPanel(new BorderLayout());
-        mainPanel.add(new JScrollPane(photoList), BorderLayout.WEST); // Photo list on the left
+        mainPanel.add(listPanel, BorderLayout.WEST); // Search and photo list on the left
         mainPanel.add(currentPhotoPanel, BorderLayout.CENTER); // Current photo on the right
 
         // Ensure the current photo takes up 80% of the panel
@@ -80,62 +123,28 @@ public class PhotoAlbumView {
         buttonPanel.setLayout(new FlowLayout(FlowLayout.CENTER));
         buttonPanel.add(sortByNameButton);
         buttonPanel.add(sortByDateButton);
+        buttonPanel.add(sortByDateTakenButton);
         buttonPanel.add(sortBySizeButton);
         buttonPanel.add(previousButton);
         buttonPanel.add(nextButton);
+        buttonPanel.add(statsButton);
+        buttonPanel.add(importStatusLabel);
 
         // Adding panels to the frame
         frame.add(inputPanel, BorderLayout.NORTH); // Input panel at the top
         frame.add(mainPanel, BorderLayout.CENTER); // Main panel in the center
         frame.add(buttonPanel, BorderLayout.SOUTH); // Button panel at the bottom
 
+        // The stats panel sits in a tool bar, so it can be dragged out of the frame
+        statsToolBar = new JToolBar("Statistics", JToolBar.VERTICAL);
+        statsToolBar.add(new StatsPanel(Metrics.getShared()));
+
         // Frame settings
         frame.setSize(700, 600);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setVisible(true);
     }
 
-    /**
-     * Custom cell renderer for displaying photo information in the JList.
-     */
-    private class PhotoCellRenderer extends DefaultListCellRenderer {
-        @Override
-        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
-                                                      boolean isSelected, boolean cellHasFocus) {
-            Photo photo = (Photo) value;
-
-            // Create a panel to hold the title and thumbnail
-            JPanel panel = new JPanel();
-            panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS)); // Vertical layout
-
-            // Create a label for the photo title
-            String text = photo.getName() + " - " + photo.getDateAdded() + " (" + photo.getFileSize() + " bytes)";
-            JLabel titleLabel = new JLabel(text);
-            titleLabel.setAlignmentX(Component.CENTER_ALIGNMENT); // Center the title label
-
-            // Load and set the thumbnail image
-            ImageIcon icon = new ImageIcon(photo.getFilePath());
-            Image img = icon.getImage().getScaledInstance(70, 70, Image.SCALE_SMOOTH); // Resize to thumbnail
-            JLabel thumbnailLabel = new JLabel(new ImageIcon(img));
-            thumbnailLabel.setAlignmentX(Component.CENTER_ALIGNMENT); // Center the thumbnail
-
-            // Add title and thumbnail to the panel
-            panel.add(titleLabel);
-            panel.add(thumbnailLabel);
-
-            // Set the panel properties based on selection
-            if (isSelected) {
-                panel.setBackground(list.getSelectionBackground());
-                titleLabel.setForeground(list.getSelectionForeground());
-            } else {
-                panel.setBackground(list.getBackground());
-                titleLabel.setForeground(list.getForeground());
-            }
-
-            return panel; // Return the panel containing title and thumbnail
-        }
-    }
-
     /**
      * Retrieves the photo name entered by the user.
      *
@@ -155,6 +164,31 @@ public class PhotoAlbumView {
         return filePathField.getText();
     }
 
+    /**
+     * Retrieves the text entered in the search field.
+     *
+     * @return the search text, empty if the list is not filtered
+     */
+    public String getSearchText() {
+        return searchField.getText();
+    }
+
+    /**
+     * Clears the search field so that the whole album is listed again.
+     */
+    public void clearSearch() {
+        searchField.setText("");
+    }
+
+    /**
+     * Shows the outcome of the current search next to the search field.
+     *
+     * @param status the text to show, or null to clear it
+     */
+    public void setSearchStatus(String status) {
+        searchStatusLabel.setText(status);
+    }
+
     /**
      * Clears the input fields for photo name and file path.
      */
@@ -164,42 +198,84 @@ public class PhotoAlbumView {
     }
 
     /**
-     * Adds a photo to the list model, updating the JList.
+     * Asks the user to choose a folder to import.
      *
-     * @param photo the Photo object to add to the list model
+     * @return the chosen folder, or null if the user cancelled
      */
-    public void addPhotoToList(Photo photo) {
-        photoListModel.addElement(photo);
+    public File chooseImportFolder() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setDialogTitle("Import Folder");
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+        return chooser.getSelectedFile();
     }
 
     /**
-     * Removes a photo from the list model.
+     * Switches the import button between starting and cancelling an import.
      *
-     * @param photo the Photo object to remove from the list model
+     * @param running true while an import is in progress
      */
-    public void removePhotoFromList(Photo photo) {
-        photoListModel.removeElement(photo);
+    public void setImportRunning(boolean running) {
+        importButton.setText(running ? "Cancel Import" : "Import Folder");
     }
 
     /**
-     * Sets the current photo in the display area, showing its thumbnail.
+     * Shows the progress of a folder import.
+     *
+     * @param status the text to show, or null to clear it
+     */
+    public void setImportStatus(String status) {
+        importStatusLabel.setText(status);
+    }
+
+    /**
+     * Sets the current photo in the display area. A preview is decoded in the
+     * background, and the viewer decodes more detail where the zoom needs it.
      *
      * @param photo the Photo object to display
      */
     public void setCurrentPhoto(Photo photo) {
+        currentPhoto = photo;
         if (photo != null) {
             currentPhotoLabel.setText("Current Photo: " + photo.getName());
-            // Load the image
-            ImageIcon icon = new ImageIcon(photo.getFilePath());
-            Image img = icon.getImage(); // transform it
-            Image newimg = img.getScaledInstance(700, 700, Image.SCALE_SMOOTH); // scale it smoothly
-            photoDisplayLabel.setIcon(new ImageIcon(newimg)); // transform it back
+            photoViewer.setPhoto(photo.getFilePath());
+            imageLoader.load(photo, DISPLAY_SIZE, DISPLAY_SIZE,
+                    icon -> photoViewer.setPreview(icon.getImage()));
         } else {
+            imageLoader.cancel();
             currentPhotoLabel.setText("Current Photo: None");
-            photoDisplayLabel.setIcon(null);
+            photoViewer.setPhoto(null);
+        }
+    }
+
+    /**
+     * Drops the thumbnail and tiles of a file that changed on disk, and shows the
+     * new version if it is the current photo. Renditions of the thumbnail cache
+     * must be dropped beforehand.
+     *
+     * @param filePath    the path to the changed or removed file
+     * @param replacement the photo the album now holds for the file, or null if it was removed
+     */
+    public void invalidatePhoto(String filePath, Photo replacement) {
+        listThumbnails.invalidate(filePath);
+        tileCache.invalidate(filePath);
+        if (replacement != null && currentPhoto != null && filePath.equals(currentPhoto.getFilePath())) {
+            setCurrentPhoto(replacement);
         }
     }
 
+    /**
+     * Decodes the given photos in the background so they display instantly
+     * when navigated to. Earlier prefetches that have not started are dropped.
+     *
+     * @param photos the photos to prefetch, nearest first
+     */
+    public void prefetchPhotos(List<Photo> photos) {
+        imageLoader.prefetch(photos, DISPLAY_SIZE, DISPLAY_SIZE);
+    }
+
     /**
      * Adds an ActionListener for the add photo button.
      *
@@ -219,6 +295,93 @@ public class PhotoAlbumView {
         deleteButton.addActionListener(listenForDeleteButton);
     }
 
+    /**
+     * Adds an ActionListener for the import folder button.
+     *
+     * @param listenForImportButton the ActionListener to add
+     */
+    public void addImportFolderListener(ActionListener listenForImportButton) {
+        importButton.addActionListener(listenForImportButton);
+    }
+
+    /**
+     * Adds an ActionListener for the find duplicates button.
+     *
+     * @param listenForDuplicatesButton the ActionListener to add
+     */
+    public void addFindDuplicatesListener(ActionListener listenForDuplicatesButton) {
+        duplicatesButton.addActionListener(listenForDuplicatesButton);
+    }
+
+    /**
+     * Adds an ActionListener for the find similar button.
+     *
+     * @param listenForSimilarButton the ActionListener to add
+     */
+    public void addFindSimilarListener(ActionListener listenForSimilarButton) {
+        similarButton.addActionListener(listenForSimilarButton);
+    }
+
+    /**
+     * Switches the find duplicates button between starting and cancelling a scan.
+     *
+     * @param running true while a scan is in progress
+     */
+    public void setDuplicateScanRunning(boolean running) {
+        duplicatesButton.setText(running ? "Cancel Scan" : "Find Duplicates");
+    }
+
+    /**
+     * Adds a DocumentListener that is told about every edit of the search field.
+     *
+     * @param listenForSearchEdits the DocumentListener to add
+     */
+    public void addSearchListener(DocumentListener listenForSearchEdits) {
+        searchField.getDocument().addDocumentListener(listenForSearchEdits);
+    }
+
+    /**
+     * Adds an ActionListener for the "Show Stats" button.
+     *
+     * @param listenForStatsButton the ActionListener to add
+     */
+    public void addShowStatsListener(ActionListener listenForStatsButton) {
+        statsButton.addActionListener(listenForStatsButton);
+    }
+
+    /**
+     * Checks whether the stats panel is showing, docked or floating.
+     *
+     * @return true if the stats panel is showing
+     */
+    public boolean isStatsVisible() {
+        return statsToolBar.isShowing();
+    }
+
+    /**
+     * Shows or hides the stats panel. It is docked on the right of the frame, and
+     * can be dragged out into a window of its own.
+     *
+     * @param visible true to show the panel
+     */
+    public void setStatsVisible(boolean visible) {
+        if (visible == isStatsVisible()) {
+            return;
+        }
+        Window floating = SwingUtilities.getWindowAncestor(statsToolBar);
+        if (visible) {
+            frame.add(statsToolBar, BorderLayout.EAST);
+        } else if (floating != null && floating != frame) {
+            floating.dispose(); // The panel was dragged out; closing its window hides it
+            frame.remove(statsToolBar);
+        } else {
+            frame.remove(statsToolBar);
+        }
+        statsButton.setText(visible ? "Hide Stats" : "Show Stats");
+        frame.revalidate();
+        frame.repaint();
+    }
+
     /**
      * Adds an ActionListener for the "Next" button.
      *
@@ -255,6 +418,15 @@ public class PhotoAlbumView {
         sortByDateButton.addActionListener(listenForSortByDateButton);
     }
 
+    /**
+     * Adds an ActionListener for the "Sort By Date Taken" button.
+     *
+     * @param listenForSortByDateTakenButton the ActionListener to add for the "Sort By Date Taken" button
+     */
+    public void addSortByDateTakenListener(ActionListener listenForSortByDateTakenButton) {
+        sortByDateTakenButton.addActionListener(listenForSortByDateTakenButton);
+    }
+
     /**
      * Adds an ActionListener for the "Sort By Size" button.
      *
@@ -273,18 +445,51 @@ public class PhotoAlbumView {
         return photoList.getSelectedValue();
     }
 
+    /**
+     * Selects the photos at the given rows of the photo list and scrolls to the first.
+     *
+     * @param indices the rows to select
+     */
+    public void selectPhotos(int[] indices) {
+        photoList.setSelectedIndices(indices);
+        if (indices.length > 0) {
+            photoList.ensureIndexIsVisible(indices[0]);
+        }
+    }
+
+    /**
+     * Retrieves all photos selected in the photo list.
+     *
+     * @return the selected Photo objects in list order, empty if none is selected
+     */
+    public List<Photo> getSelectedPhotos() {
+        return photoList.getSelectedValuesList();
+    }
+
 
     /**
-     * Updates the photo list model with a new list of photos and repaints the JList.
+     * Updates the photo list model with a new list of photos in a single step.
+     * The list is shown as given, without copying, and must not be modified afterwards.
      *
      * @param photos the List of Photo objects to display
      */
     public void updatePhotoListModel(List<Photo> photos) {
-        photoListModel.clear(); // Clear existing photos
-        for (Photo photo : photos) {
-            photoListModel.addElement(photo); // Add photos back to the model
-        }
-        photoList.repaint(); // Refresh the display
+        long start = System.nanoTime();
+        photoListModel.setPhotos(photos);
+        LIST_UPDATE_TIME.recordSince(start);
+    }
+
+    /**
+     * Updates the photo list model with a model snapshot, notifying the JList only
+     * about the rows affected by the change.
+     *
+     * @param photos the snapshot of the model after the change, which must not be modified
+     * @param event  the AlbumChangeEvent that produced the snapshot
+     */
+    public void updatePhotoListModel(List<Photo> photos, AlbumChangeEvent event) {
+        long start = System.nanoTime();
+        photoListModel.setPhotos(photos, event);
+        LIST_UPDATE_TIME.recordSince(start);
     }
 
     /**
@@ -0,0 +1,169 @@
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.ImageIcon;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+import javax.swing.plaf.basic.BasicGraphicsUtils;
+
+/**
+ * Custom cell renderer for displaying photo information in the JList: the photo's
+ * name, the date it was taken and its size above its thumbnail. Every row has the same size, given by
+ * {@link #getCellSize(JList)}, so the list never measures its rows one by one.
+ *
+ * <p>A single component paints every row. Thumbnails come from a
+ * ListThumbnailLoader and a placeholder is drawn until they are ready; titles
+ * are formatted once and kept, so repainting rows allocates nothing. It creates
+ * no windows, so it can also be used headless.
+ */
+public class PhotoCellRenderer extends JComponent implements ListCellRenderer<Photo> {
+    public static final int THUMBNAIL_SIZE = 70; // Width and height of the thumbnails in the list
+    private static final int PADDING = 4; // Space around the title and the thumbnail
+    private static final int MAX_TITLES = 1024; // Formatted titles kept for repaints
+    private static final String PROTOTYPE_TITLE = "IMG_20240101_120000 - Mon Jan 01 12:00:00 CET 2024"
+            + " (10000000 bytes)"; // Sets the width of the list
+    private static final Color PLACEHOLDER = new Color(0xDDDDDD);
+
+    private final ListThumbnailLoader thumbnails;
+    private final Map<String, Title> titles; // File path -> formatted title, access-ordered for LRU eviction
+    private Title title;
+    private ImageIcon thumbnail;
+
+    /**
+     * Constructs a renderer that draws the thumbnails supplied by the given loader.
+     *
+     * @param thumbnails the loader of the list's thumbnails
+     */
+    public PhotoCellRenderer(ListThumbnailLoader thumbnails) {
+        this.thumbnails = thumbnails;
+        this.titles = new LinkedHashMap<String, Title>(MAX_TITLES * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Title> eldest) {
+                return size() > MAX_TITLES;
+            }
+        };
+        setOpaque(true);
+    }
+
+    /**
+     * Computes the size of every row of the given list, to be set as its fixed
+     * cell width and height.
+     *
+     * @param list the JList the renderer paints
+     * @return the size of one row
+     */
+    public Dimension getCellSize(JList<?> list) {
+        FontMetrics metrics = list.getFontMetrics(list.getFont());
+        int width = Math.max((int) Math.ceil(BasicGraphicsUtils.getStringWidth(list, metrics, PROTOTYPE_TITLE)),
+                THUMBNAIL_SIZE);
+        return new Dimension(width + 2 * PADDING, metrics.getHeight() + THUMBNAIL_SIZE + 3 * PADDING);
+    }
+
+    /**
+     * Prepares the renderer to paint one photo of the list.
+     *
+     * @param list         the JList being painted
+     * @param photo        the Photo to draw
+     * @param index        the row of the photo
+     * @param isSelected   true if the row is selected
+     * @param cellHasFocus true if the row has the focus
+     * @return this renderer, set up for the row
+     */
+    @Override
+    public Component getListCellRendererComponent(JList<? extends Photo> list, Photo photo, int index,
+                                                  boolean isSelected, boolean cellHasFocus) {
+        String filePath = photo.getFilePath();
+        title = titles.get(filePath);
+        if (title == null || !(title.photo == photo || title.photo.equals(photo))) {
+            title = new Title(photo, photo.getName() + " - " + photo.getDateTaken() + " ("
+                    + photo.getFileSize() + " bytes)");
+            titles.put(filePath, title);
+        }
+        thumbnail = thumbnails.getThumbnail(photo);
+        setFont(list.getFont());
+        setBackground(isSelected ? list.getSelectionBackground() : list.getBackground());
+        setForeground(isSelected ? list.getSelectionForeground() : list.getForeground());
+        return this;
+    }
+
+    /**
+     * Paints the title centred above the thumbnail, or above a placeholder while
+     * the thumbnail is being loaded.
+     *
+     * @param g the graphics context
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        int width = getWidth();
+        g.setColor(getBackground());
+        g.fillRect(0, 0, width, getHeight());
+
+        FontMetrics metrics = g.getFontMetrics(getFont());
+        if (title.width < 0 || title.metrics != metrics) {
+            title.width = (int) Math.ceil(BasicGraphicsUtils.getStringWidth(this, metrics, title.text));
+            title.metrics = metrics;
+        }
+        g.setColor(getForeground());
+        BasicGraphicsUtils.drawString(this, (Graphics2D) g, title.text, Math.max(PADDING, (width - title.width) / 2),
+                PADDING + metrics.getAscent());
+
+        int x = (width - THUMBNAIL_SIZE) / 2;
+        int y = 2 * PADDING + metrics.getHeight();
+        if (thumbnail != null) {
+            // Thumbnails keep their aspect ratio, so centre them in the square
+            thumbnail.paintIcon(this, g, x + (THUMBNAIL_SIZE - thumbnail.getIconWidth()) / 2,
+                    y + (THUMBNAIL_SIZE - thumbnail.getIconHeight()) / 2);
+        } else {
+            g.setColor(PLACEHOLDER);
+            g.fillRect(x, y, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+        }
+    }
+
+    // The renderer is only stamped onto the list, so like DefaultListCellRenderer
+    // it skips the invalidation and repaint requests its property changes would make.
+
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public void revalidate() {
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+    }
+
+    @Override
+    public void repaint() {
+    }
+
+    @Override
+    protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+    }
+
+    /**
+     * The formatted title of a photo, with its width once measured.
+     */
+    private static final class Title {
+        private final Photo photo;
+        private final String text;
+        private int width = -1;
+        private FontMetrics metrics; // Metrics the width was measured with
+
+        Title(Photo photo, String text) {
+            this.photo = photo;
+            this.text = text;
+        }
+    }
+}
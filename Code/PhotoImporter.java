@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * PhotoImporter adds every image found under a directory tree. The tree is walked
+ * with {@link Files#walkFileTree}, which supplies size attributes without extra
+ * calls, while a pool of threads checks each candidate's image signature and
+ * reads its capture date, dimensions and orientation from the file's headers in
+ * parallel, through the shared PhotoMetadataReader. Valid photos are handed to a sink in batches so that the album and
+ * the view are updated once per batch rather than once per photo.
+ *
+ * <p>The sink and the progress callback are always invoked on the thread that
+ * called {@link #importTree(Path)}. An import can be stopped from any thread with
+ * {@link #cancel()}; photos already delivered stay in the album.
+ */
+public final class PhotoImporter {
+    private static final int MAX_IN_FLIGHT = 1024; // Validations queued ahead of the walker
+    private static final long MAX_BATCH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final int batchSize;
+    private final Consumer<List<Photo>> sink;
+    private final Progress progress;
+    private volatile boolean cancelled;
+
+    /**
+     * Receives progress updates during an import.
+     */
+    public interface Progress {
+
+        /**
+         * Called after each delivered batch and when the import finishes.
+         *
+         * @param scanned  the number of candidate image files found so far
+         * @param imported the number of photos delivered to the sink so far
+         */
+        void update(int scanned, int imported);
+    }
+
+    /**
+     * Constructs an importer.
+     *
+     * @param batchSize the maximum number of photos per batch
+     * @param sink      receives each batch of validated photos
+     * @param progress  receives progress updates
+     */
+    public PhotoImporter(int batchSize, Consumer<List<Photo>> sink, Progress progress) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.sink = sink;
+        this.progress = progress;
+    }
+
+    /**
+     * Checks whether a file name has one of the supported image extensions.
+     *
+     * @param fileName the file name or path
+     * @return true for .jpg, .jpeg and .png files, in any letter case
+     */
+    public static boolean isImageFile(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png");
+    }
+
+    /**
+     * Imports all images under the given directory. Blocks until the tree has been
+     * fully processed or the import is cancelled.
+     *
+     * @param root the directory to import
+     * @return the number of photos delivered to the sink
+     * @throws IOException if the root directory cannot be walked
+     */
+    public int importTree(Path root) throws IOException {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2); // I/O bound
+        ExecutorService validators = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "photo-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        Batcher batcher = new Batcher();
+
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (cancelled) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (attrs.isRegularFile() && isImageFile(file.getFileName().toString())) {
+                        inFlight.acquireUninterruptibly();
+                        batcher.scanned++;
+                        long size = attrs.size();
+                        long lastModified = attrs.lastModifiedTime().toMillis();
+                        validators.execute(() -> {
+                            try {
+                                results.add(new Result(validate(file, size, lastModified)));
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                    }
+                    batcher.drain(results, false);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // Skip unreadable entries
+                }
+            });
+
+            while (!cancelled && batcher.received < batcher.scanned) {
+                batcher.drain(results, true);
+            }
+            if (!cancelled) {
+                batcher.flush();
+            }
+        } finally {
+            validators.shutdownNow();
+        }
+        progress.update(batcher.scanned, batcher.imported);
+        return batcher.imported;
+    }
+
+    /**
+     * Requests that a running import stop as soon as possible.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Checks whether the import has been cancelled.
+     *
+     * @return true if {@link #cancel()} has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Reads the headers of the file and builds a Photo with their metadata if
+     * they carry a JPEG or PNG signature.
+     *
+     * @return the photo, or null if the file is not a readable image
+     */
+    private static Photo validate(Path file, long size, long lastModified) {
+        PhotoMetadata metadata;
+        try {
+            metadata = PhotoMetadataReader.getShared().read(file, size, lastModified);
+        } catch (IOException e) {
+            return null;
+        }
+        if (metadata == null) {
+            return null;
+        }
+
+        String fileName = file.getFileName().toString();
+        String name = fileName.substring(0, fileName.lastIndexOf('.'));
+        return new Photo(name, file.toString(), new Date(), size, lastModified, metadata);
+    }
+
+    /**
+     * Collects validation results into batches on the importing thread.
+     */
+    private final class Batcher {
+        private int scanned;
+        private int received;
+        private int imported;
+        private List<Photo> batch = new ArrayList<>();
+        private long batchStarted = System.nanoTime();
+
+        /**
+         * Moves available results into the current batch, optionally waiting briefly
+         * for one, and delivers the batch when it is full or has waited long enough.
+         */
+        void drain(BlockingQueue<Result> results, boolean wait) {
+            Result result = results.poll();
+            if (result == null && wait) {
+                try {
+                    result = results.poll(50, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                    return;
+                }
+            }
+            while (result != null) {
+                received++;
+                if (result.photo != null) {
+                    batch.add(result.photo);
+                    if (batch.size() >= batchSize) {
+                        flush();
+                    }
+                }
+                result = results.poll();
+            }
+            if (!batch.isEmpty() && System.nanoTime() - batchStarted > MAX_BATCH_DELAY_NANOS) {
+                flush(); // Keep the view moving on slow disks
+            }
+        }
+
+        /**
+         * Delivers the current batch, if any, and reports progress.
+         */
+        void flush() {
+            if (!batch.isEmpty() && !cancelled) {
+                sink.accept(batch);
+                imported += batch.size();
+                batch = new ArrayList<>();
+            }
+            batchStarted = System.nanoTime();
+            progress.update(scanned, imported);
+        }
+    }
+
+    /**
+     * The outcome of validating one file; photo is null for rejected files.
+     */
+    private static final class Result {
+        private final Photo photo;
+
+        Result(Photo photo) {
+            this.photo = photo;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.Collections;
+import java.util.List;
+import javax.swing.AbstractListModel;
+
+/**
+ * PhotoListModel is a ListModel backed by an immutable snapshot of the album.
+ * Updating it swaps the snapshot reference in one step instead of copying photos
+ * in element by element, and fires a handful of events rather than one per photo.
+ * When the change that produced the snapshot is known, its deltas are translated
+ * into interval events so that the JList keeps its selection in place.
+ */
+public class PhotoListModel extends AbstractListModel<Photo> {
+    private List<Photo> photos = Collections.emptyList();
+
+    /**
+     * Retrieves the number of photos in the current snapshot.
+     *
+     * @return the size of the list
+     */
+    @Override
+    public int getSize() {
+        return photos.size();
+    }
+
+    /**
+     * Retrieves the photo at the given row.
+     *
+     * @param index the row
+     * @return the Photo at that row
+     */
+    @Override
+    public Photo getElementAt(int index) {
+        return photos.get(index);
+    }
+
+    /**
+     * Retrieves the snapshot currently shown.
+     *
+     * @return the current snapshot, which must not be modified
+     */
+    public List<Photo> getPhotos() {
+        return photos;
+    }
+
+    /**
+     * Replaces the contents with a new snapshot and fires a single contents event,
+     * plus one interval event if the size changed.
+     *
+     * @param snapshot the photos to show; the list is kept, not copied, and must not change
+     */
+    public void setPhotos(List<Photo> snapshot) {
+        int oldSize = photos.size();
+        photos = snapshot;
+        int newSize = snapshot.size();
+        if (newSize < oldSize) {
+            fireIntervalRemoved(this, newSize, oldSize - 1);
+        } else if (newSize > oldSize) {
+            fireIntervalAdded(this, oldSize, newSize - 1);
+        }
+        if (Math.min(oldSize, newSize) > 0) {
+            fireContentsChanged(this, 0, Math.min(oldSize, newSize) - 1);
+        }
+    }
+
+    /**
+     * Replaces the contents with a new snapshot that results from the given change,
+     * firing one event per delta.
+     *
+     * @param snapshot the photos to show; the list is kept, not copied, and must not change
+     * @param change   the change that turned the previous snapshot into this one
+     */
+    public void setPhotos(List<Photo> snapshot, AlbumChangeEvent change) {
+        photos = snapshot;
+        for (AlbumChangeEvent.Delta delta : change.getDeltas()) {
+            switch (delta.getType()) {
+                case INSERTED:
+                    fireIntervalAdded(this, delta.getFirstIndex(), delta.getLastIndex());
+                    break;
+                case REMOVED:
+                    fireIntervalRemoved(this, delta.getFirstIndex(), delta.getLastIndex());
+                    break;
+                case PERMUTED:
+                case REORDERED:
+                    if (delta.getLastIndex() >= 0) {
+                        fireContentsChanged(this, delta.getFirstIndex(), delta.getLastIndex());
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown change type: " + delta.getType());
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * PhotoMetadata holds the properties recorded inside an image file: the date the
+ * picture was taken, its pixel dimensions and its EXIF orientation. Values the
+ * file does not record are reported as unknown rather than guessed.
+ *
+ * <p>Instances are immutable.
+ */
+public final class PhotoMetadata {
+    /** Value of {@link #getDateTaken()} when the file records no capture date. */
+    public static final long UNKNOWN_DATE = Long.MIN_VALUE;
+    /** Orientation of an image that is stored the way it should be shown. */
+    public static final int NORMAL_ORIENTATION = 1;
+    /** Metadata of a file whose headers were not read or recorded nothing. */
+    public static final PhotoMetadata NONE = new PhotoMetadata(UNKNOWN_DATE, 0, 0, NORMAL_ORIENTATION);
+
+    private final long dateTaken;
+    private final int width;
+    private final int height;
+    private final int orientation;
+
+    /**
+     * Constructs metadata from the values read from a file.
+     *
+     * @param dateTaken   the capture time in epoch milliseconds, or UNKNOWN_DATE
+     * @param width       the stored width in pixels, or 0 if unknown
+     * @param height      the stored height in pixels, or 0 if unknown
+     * @param orientation the EXIF orientation from 1 to 8; other values are taken as normal
+     */
+    public PhotoMetadata(long dateTaken, int width, int height, int orientation) {
+        this.dateTaken = dateTaken;
+        this.width = Math.max(0, width);
+        this.height = Math.max(0, height);
+        this.orientation = orientation >= 1 && orientation <= 8 ? orientation : NORMAL_ORIENTATION;
+    }
+
+    /**
+     * Retrieves the date the picture was taken, as recorded by the camera.
+     *
+     * @return the capture time in epoch milliseconds, or UNKNOWN_DATE
+     */
+    public long getDateTaken() {
+        return dateTaken;
+    }
+
+    /**
+     * Checks whether the file records when the picture was taken.
+     *
+     * @return true if {@link #getDateTaken()} is known
+     */
+    public boolean hasDateTaken() {
+        return dateTaken != UNKNOWN_DATE;
+    }
+
+    /**
+     * Retrieves the width of the image as stored, before any orientation is applied.
+     *
+     * @return the width in pixels, or 0 if unknown
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Retrieves the height of the image as stored, before any orientation is applied.
+     *
+     * @return the height in pixels, or 0 if unknown
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Retrieves the EXIF orientation, which tells how the stored pixels must be
+     * rotated or flipped to be shown upright.
+     *
+     * @return a value from 1 to 8, where 1 means no change
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Checks whether the orientation turns the image by a quarter, so that it is
+     * shown with width and height swapped.
+     *
+     * @return true for orientations 5 to 8
+     */
+    public boolean isTransposed() {
+        return orientation >= 5;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PhotoMetadata)) {
+            return false;
+        }
+        PhotoMetadata other = (PhotoMetadata) o;
+        return dateTaken == other.dateTaken && width == other.width && height == other.height
+                && orientation == other.orientation;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dateTaken, width, height, orientation);
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + ", orientation " + orientation
+                + (hasDateTaken() ? ", taken " + new Date(dateTaken) : "");
+    }
+}
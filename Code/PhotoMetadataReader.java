@@ -0,0 +1,540 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PhotoMetadataReader reads the capture date, dimensions and orientation of JPEG
+ * and PNG files from their headers, without decoding any pixels. A JPEG is walked
+ * marker by marker up to its frame header: the Exif block supplies the capture
+ * date and orientation and the frame header the dimensions. A PNG is walked chunk
+ * by chunk up to its image data, with the dimensions taken from IHDR and the date
+ * and orientation from an eXIf chunk.
+ *
+ * <p>Files are read with positional reads of small blocks. Segments that carry
+ * nothing of interest, such as colour profiles or the thumbnail embedded in the
+ * Exif block, are stepped over by their length rather than read, so a typical
+ * photo costs a few kilobytes whatever its size.
+ *
+ * <p>Results are cached by path together with the file's size and last-modified
+ * time, so an unchanged file is never read twice and an edited one is read afresh.
+ * The reader may be used from several threads.
+ */
+public final class PhotoMetadataReader {
+    private static final int BLOCK_SIZE = 4096; // Bytes fetched per read, enough for most Exif directories
+    private static final int MAX_ENTRIES = 1 << 16; // Cached results, about 100 bytes each
+    private static final int MAX_IFD_ENTRIES = 1024; // Guards against corrupt directories
+    private static final PhotoMetadataReader SHARED = new PhotoMetadataReader(MAX_ENTRIES);
+    private static final LatencyHistogram READ_TIME = Metrics.getShared().histogram("metadataRead");
+    private static final Counter BYTES_READ = Metrics.getShared().counter("metadataBytesRead");
+    private static final Counter CACHE_HITS = Metrics.getShared().counter("metadataCacheHits");
+
+    // Exif tags
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_DATE_TIME_DIGITIZED = 0x9004;
+    private static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+    private static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+    private static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+
+    private final Map<String, Entry> cache; // File path -> metadata of one version, access-ordered for LRU eviction
+
+    /**
+     * Constructs a reader that caches the metadata of up to the given number of files.
+     *
+     * @param maxEntries the maximum number of cached results
+     */
+    public PhotoMetadataReader(int maxEntries) {
+        this.cache = new LinkedHashMap<String, Entry>(Math.min(maxEntries, 1024) * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Retrieves the reader shared by the importer and the rest of the application.
+     *
+     * @return the shared reader
+     */
+    public static PhotoMetadataReader getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Reads the metadata of a file, looking up its size and last-modified time first.
+     *
+     * @param file the image file
+     * @return the metadata, or null if the file is not a JPEG or PNG image
+     * @throws IOException if the file cannot be read
+     */
+    public PhotoMetadata read(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return read(file, attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Reads the metadata of a given version of a file, or returns it from the cache
+     * if that version was read before. Headers that are damaged or record nothing
+     * give PhotoMetadata.NONE rather than an error, since the pixels may still be fine.
+     *
+     * @param file         the image file
+     * @param size         the current size of the file
+     * @param lastModified the current last-modified time of the file
+     * @return the metadata, or null if the file is not a JPEG or PNG image
+     * @throws IOException if the file cannot be read
+     */
+    public PhotoMetadata read(Path file, long size, long lastModified) throws IOException {
+        String filePath = file.toString();
+        synchronized (this) {
+            Entry entry = cache.get(filePath);
+            if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+                CACHE_HITS.increment();
+                return entry.metadata;
+            }
+        }
+
+        long start = System.nanoTime();
+        PhotoMetadata metadata;
+        Source source;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            source = new Source(channel);
+            metadata = readHeaders(source);
+        }
+        BYTES_READ.add(source.bytesRead);
+        READ_TIME.recordSince(start);
+        if (metadata != null) {
+            synchronized (this) {
+                cache.put(filePath, new Entry(size, lastModified, metadata));
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Drops the cached metadata of a file.
+     *
+     * @param filePath the path to the image file
+     */
+    public synchronized void invalidate(String filePath) {
+        cache.remove(filePath);
+    }
+
+    /**
+     * Reads the metadata of the file behind the source, or returns null if it
+     * carries neither a JPEG nor a PNG signature.
+     */
+    private static PhotoMetadata readHeaders(Source source) throws IOException {
+        ByteBuffer signature = source.at(0, 4, ByteOrder.BIG_ENDIAN);
+        if (signature == null) {
+            return null;
+        }
+        int b0 = signature.get() & 0xFF;
+        int b1 = signature.get() & 0xFF;
+        if (b0 == 0xFF && b1 == 0xD8) {
+            return readJpeg(source);
+        }
+        if (b0 == 0x89 && b1 == 'P' && signature.get() == 'N' && signature.get() == 'G') {
+            return readPng(source);
+        }
+        return null;
+    }
+
+    /**
+     * Walks the JPEG markers from the start of the file to the frame header.
+     */
+    private static PhotoMetadata readJpeg(Source source) throws IOException {
+        Exif exif = null;
+        int width = 0;
+        int height = 0;
+        long position = 2; // After the start-of-image marker
+        while (true) {
+            ByteBuffer marker = source.at(position, 4, ByteOrder.BIG_ENDIAN);
+            if (marker == null || (marker.get() & 0xFF) != 0xFF) {
+                break; // Truncated or damaged
+            }
+            int type = marker.get() & 0xFF;
+            if (type == 0xFF) {
+                position++; // Fill byte before a marker
+                continue;
+            }
+            if (type == 0x01 || (type >= 0xD0 && type <= 0xD8)) {
+                position += 2; // Markers without a length
+                continue;
+            }
+            if (type == 0xD9 || type == 0xDA) {
+                break; // End of image or start of scan: no more headers
+            }
+            int length = marker.getShort() & 0xFFFF;
+            if (length < 2) {
+                break;
+            }
+            long data = position + 4;
+            if (type == 0xE1 && exif == null && length >= 2 + 6) {
+                ByteBuffer id = source.at(data, 6, ByteOrder.BIG_ENDIAN);
+                if (id != null && id.getInt() == 0x45786966 && id.getShort() == 0) { // "Exif\0\0"
+                    exif = readTiff(source, data + 6, length - 2 - 6);
+                }
+            } else if (isStartOfFrame(type)) {
+                ByteBuffer frame = source.at(data, 5, ByteOrder.BIG_ENDIAN);
+                if (frame != null) {
+                    frame.get(); // Sample precision
+                    height = frame.getShort() & 0xFFFF;
+                    width = frame.getShort() & 0xFFFF;
+                }
+                break; // Exif must precede the frame, so everything needed has been seen
+            }
+            position = data + length - 2;
+        }
+        return metadata(exif, width, height);
+    }
+
+    /**
+     * Checks whether a marker is one of the start-of-frame markers, which carry
+     * the image dimensions.
+     */
+    private static boolean isStartOfFrame(int type) {
+        return type >= 0xC0 && type <= 0xCF && type != 0xC4 && type != 0xC8 && type != 0xCC;
+    }
+
+    /**
+     * Walks the PNG chunks from the header to the first image data.
+     */
+    private static PhotoMetadata readPng(Source source) throws IOException {
+        ByteBuffer header = source.at(8, 16, ByteOrder.BIG_ENDIAN);
+        if (header == null || header.getInt(4) != 0x49484452) { // "IHDR"
+            return PhotoMetadata.NONE;
+        }
+        int width = header.getInt(8);
+        int height = header.getInt(12);
+        Exif exif = null;
+        long position = 8;
+        while (true) {
+            ByteBuffer chunk = source.at(position, 8, ByteOrder.BIG_ENDIAN);
+            if (chunk == null) {
+                break;
+            }
+            long length = chunk.getInt() & 0xFFFFFFFFL;
+            int type = chunk.getInt();
+            if (type == 0x49444154 || type == 0x49454E44) { // "IDAT" or "IEND"
+                break; // eXIf must precede the image data
+            }
+            if (type == 0x65584966 && exif == null) { // "eXIf"
+                exif = readTiff(source, position + 8, length);
+            }
+            position += 8 + length + 4; // Length and type, data, CRC
+        }
+        return metadata(exif, width, height);
+    }
+
+    /**
+     * Combines what the Exif block and the image header recorded. The header's
+     * dimensions are preferred, since editors often leave the Exif ones stale.
+     */
+    private static PhotoMetadata metadata(Exif exif, int width, int height) {
+        if (exif == null) {
+            return width > 0 && height > 0 ? new PhotoMetadata(PhotoMetadata.UNKNOWN_DATE, width, height,
+                    PhotoMetadata.NORMAL_ORIENTATION) : PhotoMetadata.NONE;
+        }
+        return new PhotoMetadata(exif.dateTaken, width > 0 ? width : exif.width, height > 0 ? height : exif.height,
+                exif.orientation);
+    }
+
+    /**
+     * Reads the tags of interest from a TIFF structure, as found in a JPEG Exif
+     * block or a PNG eXIf chunk. Only the directories and values are read.
+     *
+     * @param start  the position of the TIFF header in the file
+     * @param length the length of the TIFF structure
+     * @return the tags found, or null if the structure is not valid TIFF
+     */
+    private static Exif readTiff(Source source, long start, long length) throws IOException {
+        ByteBuffer header = source.at(start, 8, ByteOrder.BIG_ENDIAN);
+        if (header == null) {
+            return null;
+        }
+        short byteOrder = header.getShort();
+        ByteOrder order;
+        if (byteOrder == 0x4949) { // "II"
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (byteOrder == 0x4D4D) { // "MM"
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            return null;
+        }
+        header.order(order);
+        if (header.getShort() != 42) {
+            return null;
+        }
+        Tiff tiff = new Tiff(source, start, length, order);
+        Exif exif = new Exif();
+        readDirectory(tiff.directory(header.getInt() & 0xFFFFFFFFL), exif);
+        if (exif.exifDirectory >= 0) {
+            readDirectory(tiff.directory(exif.exifDirectory), exif);
+        }
+        exif.dateTaken = parseDate(exif.dateOriginal != null ? exif.dateOriginal : exif.dateDigitized,
+                exif.offsetOriginal);
+        return exif;
+    }
+
+    /**
+     * Collects the tags of interest from one directory, which may be null.
+     */
+    private static void readDirectory(Tiff.Directory directory, Exif exif) throws IOException {
+        while (directory != null && directory.next()) {
+            switch (directory.tag) {
+                case TAG_ORIENTATION:
+                    exif.orientation = (int) directory.number();
+                    break;
+                case TAG_EXIF_IFD:
+                    if (exif.exifDirectory < 0) {
+                        exif.exifDirectory = directory.number();
+                    }
+                    break;
+                case TAG_DATE_TIME_ORIGINAL:
+                    exif.dateOriginal = directory.text();
+                    break;
+                case TAG_DATE_TIME_DIGITIZED:
+                    exif.dateDigitized = directory.text();
+                    break;
+                case TAG_OFFSET_TIME_ORIGINAL:
+                    exif.offsetOriginal = directory.text();
+                    break;
+                case TAG_PIXEL_X_DIMENSION:
+                    exif.width = (int) directory.number();
+                    break;
+                case TAG_PIXEL_Y_DIMENSION:
+                    exif.height = (int) directory.number();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Parses an Exif date, "YYYY:MM:DD HH:MM:SS", in the given UTC offset, or in
+     * the local time zone when the file records none, as cameras keep local time.
+     *
+     * @return the time in epoch milliseconds, or UNKNOWN_DATE if the date is absent or invalid
+     */
+    private static long parseDate(String date, String offset) {
+        if (date == null || date.length() < 19) {
+            return PhotoMetadata.UNKNOWN_DATE;
+        }
+        try {
+            LocalDateTime local = LocalDateTime.of(digits(date, 0, 4), digits(date, 5, 2), digits(date, 8, 2),
+                    digits(date, 11, 2), digits(date, 14, 2), digits(date, 17, 2));
+            ZoneId zone = ZoneId.systemDefault();
+            if (offset != null && offset.length() >= 6) {
+                zone = ZoneOffset.of(offset.substring(0, 6));
+            }
+            return local.atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeException | NumberFormatException e) {
+            return PhotoMetadata.UNKNOWN_DATE; // Blank dates are written as "0000:00:00 00:00:00"
+        }
+    }
+
+    private static int digits(String s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not a digit: " + c);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * A file read through positional reads of small blocks. The most recent block
+     * is kept, so neighbouring fields cost one read.
+     */
+    private static final class Source {
+        private final FileChannel channel;
+        private ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        private long blockStart = -1;
+        private long bytesRead;
+
+        Source(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Returns a buffer holding the bytes at a position, with the given byte
+         * order, or null if the file ends before them.
+         */
+        ByteBuffer at(long position, int length, ByteOrder order) throws IOException {
+            if (position < 0 || length < 0) {
+                return null;
+            }
+            if (blockStart < 0 || position < blockStart || position + length > blockStart + block.limit()) {
+                if (length > block.capacity()) {
+                    block = ByteBuffer.allocate(length);
+                }
+                block.clear();
+                while (block.hasRemaining()) {
+                    int n = channel.read(block, position + block.position());
+                    if (n < 0) {
+                        break;
+                    }
+                    bytesRead += n;
+                }
+                block.flip();
+                blockStart = position;
+                if (block.limit() < length) {
+                    return null;
+                }
+            }
+            ByteBuffer view = block.duplicate();
+            view.position((int) (position - blockStart));
+            view.limit(view.position() + length);
+            return view.slice().order(order);
+        }
+    }
+
+    /**
+     * A TIFF structure inside a file, whose offsets are relative to its header.
+     */
+    private static final class Tiff {
+        private final Source source;
+        private final long start;
+        private final long length;
+        private final ByteOrder order;
+
+        Tiff(Source source, long start, long length, ByteOrder order) {
+            this.source = source;
+            this.start = start;
+            this.length = length;
+            this.order = order;
+        }
+
+        /**
+         * Returns the directory at an offset, or null if it lies outside the structure.
+         */
+        Directory directory(long offset) throws IOException {
+            if (offset < 8 || offset + 2 > length) {
+                return null;
+            }
+            ByteBuffer count = source.at(start + offset, 2, order);
+            if (count == null) {
+                return null;
+            }
+            int entries = Math.min(count.getShort() & 0xFFFF, MAX_IFD_ENTRIES);
+            return new Directory(offset + 2, (int) Math.min(entries, (length - offset - 2) / 12));
+        }
+
+        /**
+         * An image file directory, read one twelve-byte entry at a time.
+         */
+        final class Directory {
+            private final long entries;
+            private final int count;
+            private int index = -1;
+            private ByteBuffer entry;
+            private int tag;
+
+            Directory(long entries, int count) {
+                this.entries = entries;
+                this.count = count;
+            }
+
+            /**
+             * Moves to the next entry, returning false after the last one.
+             */
+            boolean next() throws IOException {
+                if (++index >= count) {
+                    return false;
+                }
+                entry = source.at(start + entries + index * 12L, 12, order);
+                if (entry == null) {
+                    return false;
+                }
+                tag = entry.getShort(0) & 0xFFFF;
+                return true;
+            }
+
+            /**
+             * Reads the entry's value as an unsigned SHORT or LONG number.
+             */
+            long number() {
+                int type = entry.getShort(2) & 0xFFFF;
+                return type == 3 ? entry.getShort(8) & 0xFFFF : entry.getInt(8) & 0xFFFFFFFFL;
+            }
+
+            /**
+             * Reads the entry's value as ASCII text, or null if it lies outside the structure.
+             */
+            String text() throws IOException {
+                long count = entry.getInt(4) & 0xFFFFFFFFL;
+                if (count > 64) {
+                    return null; // Dates and offsets are short; anything longer is not one
+                }
+                ByteBuffer value;
+                if (count <= 4) {
+                    value = entry.duplicate();
+                    value.position(8);
+                } else {
+                    long offset = entry.getInt(8) & 0xFFFFFFFFL;
+                    if (offset + count > length) {
+                        return null;
+                    }
+                    value = source.at(start + offset, (int) count, order);
+                    if (value == null) {
+                        return null;
+                    }
+                }
+                byte[] bytes = new byte[(int) count];
+                value.get(bytes);
+                int end = 0;
+                while (end < bytes.length && bytes[end] != 0) {
+                    end++;
+                }
+                return new String(bytes, 0, end, StandardCharsets.US_ASCII);
+            }
+        }
+    }
+
+    /**
+     * The tags read from an Exif block.
+     */
+    private static final class Exif {
+        private long dateTaken = PhotoMetadata.UNKNOWN_DATE;
+        private int width;
+        private int height;
+        private int orientation = PhotoMetadata.NORMAL_ORIENTATION;
+        private long exifDirectory = -1; // Offset of the Exif directory, once found in the first one
+        private String dateOriginal;
+        private String dateDigitized;
+        private String offsetOriginal;
+    }
+
+    /**
+     * The metadata of one version of a file.
+     */
+    private static final class Entry {
+        private final long size;
+        private final long lastModified;
+        private final PhotoMetadata metadata;
+
+        Entry(long size, long lastModified, PhotoMetadata metadata) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.metadata = metadata;
+        }
+    }
+}
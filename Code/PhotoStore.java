@@ -0,0 +1,174 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * PhotoStore holds the photos of an album in numbered slots. Storing a photo
+ * fills the next slot, whose contents never change afterwards, and the album's
+ * indexes refer to photos by slot. Slots are never emptied: once most of them
+ * belong to removed photos, the album copies the live ones into a new store.
+ *
+ * <p>A store must be filled by one thread at a time. Slots filled before the
+ * store was safely published may be read from any thread while it goes on
+ * growing.
+ */
+public abstract class PhotoStore {
+    /**
+     * Creates an empty store.
+     *
+     * @param columnar true for a {@link ColumnarPhotoStore}, false to keep the Photo objects
+     * @return the new store
+     */
+    public static PhotoStore create(boolean columnar) {
+        return columnar ? new ColumnarPhotoStore() : new ObjectStore(64);
+    }
+
+    /**
+     * Stores a photo in a new slot.
+     *
+     * @param photo the photo to store
+     * @return the slot holding the photo
+     */
+    public abstract int add(Photo photo);
+
+    /**
+     * Retrieves the photo in a slot.
+     *
+     * @param slot the slot
+     * @return the photo
+     * @throws IndexOutOfBoundsException if the slot has not been filled
+     */
+    public abstract Photo get(int slot);
+
+    /**
+     * Retrieves the number of slots filled so far.
+     *
+     * @return the slot count
+     */
+    public abstract int slotCount();
+
+    /**
+     * Creates an empty store of the same kind.
+     *
+     * @param capacity the number of photos to make room for
+     * @return the new store
+     */
+    public abstract PhotoStore newStore(int capacity);
+
+    /**
+     * Creates a list that stores each photo added to it in this store, for loading
+     * an album from its catalog.
+     *
+     * @return an empty loader
+     */
+    public Loader loader() {
+        return new Loader(this);
+    }
+
+    /**
+     * A list of photos kept in a store. Adding a photo fills a new slot; removing
+     * one forgets its slot, which stays filled.
+     */
+    public static final class Loader extends AbstractList<Photo> implements RandomAccess {
+        private final PhotoStore store;
+        private int[] slots = new int[64];
+        private int size;
+
+        private Loader(PhotoStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Photo get(int index) {
+            checkIndex(index, size);
+            return store.get(slots[index]);
+        }
+
+        @Override
+        public void add(int index, Photo photo) {
+            checkIndex(index, size + 1);
+            int slot = store.add(photo);
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            System.arraycopy(slots, index, slots, index + 1, size - index);
+            slots[index] = slot;
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public Photo remove(int index) {
+            checkIndex(index, size);
+            Photo removed = store.get(slots[index]);
+            System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+            size--;
+            modCount++;
+            return removed;
+        }
+
+        /**
+         * Retrieves the slot of the photo at a position.
+         *
+         * @param index the position
+         * @return the slot in the store
+         */
+        public int slotAt(int index) {
+            checkIndex(index, size);
+            return slots[index];
+        }
+
+        private static void checkIndex(int index, int limit) {
+            if (index < 0 || index >= limit) {
+                throw new IndexOutOfBoundsException("Invalid index: " + index);
+            }
+        }
+    }
+
+    /**
+     * A store that keeps the Photo objects themselves. The array is only replaced
+     * by larger copies, through a volatile field, so a reader on another thread
+     * finds a published slot in whichever array it sees.
+     */
+    private static final class ObjectStore extends PhotoStore {
+        private volatile Photo[] photos;
+        private int count;
+
+        ObjectStore(int capacity) {
+            photos = new Photo[Math.max(64, capacity)];
+        }
+
+        @Override
+        public int add(Photo photo) {
+            if (count == photos.length) {
+                photos = Arrays.copyOf(photos, count * 2);
+            }
+            photos[count] = photo;
+            return count++;
+        }
+
+        @Override
+        public Photo get(int slot) {
+            Photo photo = slot < 0 ? null : photos[slot];
+            if (photo == null) {
+                throw new IndexOutOfBoundsException("Invalid slot: " + slot);
+            }
+            return photo;
+        }
+
+        @Override
+        public int slotCount() {
+            return count;
+        }
+
+        @Override
+        public PhotoStore newStore(int capacity) {
+            return new ObjectStore(capacity);
+        }
+    }
+}
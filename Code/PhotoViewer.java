@@ -0,0 +1,421 @@
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+/**
+ * PhotoViewer shows one photo fitted to its bounds, and lets the user zoom with
+ * the mouse wheel, pan by dragging, and switch between fitted and actual size by
+ * double-clicking. It never decodes the whole image: a preview supplied by the
+ * caller is drawn first, and wherever the preview is too coarse for the zoom, the
+ * visible part of the image is decoded at the resolution the screen needs, using
+ * ImageIO source regions and subsampling. The decoded region is cut into tiles
+ * kept in a TileCache, so panning back and zooming out reuse them; until a tile
+ * arrives, the matching part of a coarser tile or the preview stands in for it.
+ * Tiles are copied into images compatible with the screen so that Java2D can keep
+ * them in video memory.
+ *
+ * <p>Decoding runs on background threads and memory stays bounded by the size of
+ * the component and the tile cache budget, however large the image.
+ */
+public class PhotoViewer extends JComponent {
+    private static final int TILE_SIZE = 256; // Width and height of a tile in decoded pixels
+    private static final double MAX_SCALE = 8; // Deepest zoom, in screen pixels per image pixel
+    private static final double ZOOM_STEP = 1.25; // Zoom factor of one mouse wheel notch
+    private static final double PREVIEW_SLACK = 1.05; // Enlargement of the preview tolerated before decoding tiles
+
+    private final TileCache tiles;
+    private final ExecutorService decoder;
+    private long generation; // Identifies the current photo, to drop results for earlier ones
+    private File file;
+    private long fileSize;
+    private long lastModified;
+    private int imageWidth; // Zero until the header has been read
+    private int imageHeight;
+    private boolean tilesFailed; // The image could not be decoded by region
+    private Image preview;
+    private boolean fitted = true; // Follow the component's size until the user zooms
+    private double scale; // Screen pixels per image pixel
+    private double centerX; // Image point shown at the centre of the component
+    private double centerY;
+    private Future<?> pendingDecode;
+    private int pendingLevel;
+    private Rectangle pendingTiles; // Tiles the pending decode covers, in grid units
+    private Point dragStart;
+    private double dragCenterX;
+    private double dragCenterY;
+
+    /**
+     * Constructs an empty viewer whose tiles are kept in the given cache.
+     *
+     * @param tiles the cache for decoded tiles
+     */
+    public PhotoViewer(TileCache tiles) {
+        this.tiles = tiles;
+        this.decoder = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "tile-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        setOpaque(true);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragStart = e.getPoint();
+                dragCenterX = centerX;
+                dragCenterY = centerY;
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (imageWidth == 0 || scale == 0 || dragStart == null) {
+                    return;
+                }
+                fitted = false;
+                centerX = dragCenterX - (e.getX() - dragStart.x) / scale;
+                centerY = dragCenterY - (e.getY() - dragStart.y) / scale;
+                clampCenter();
+                repaint();
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoomAt(e.getX(), e.getY(), scale * Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()));
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() != 2 || imageWidth == 0) {
+                    return;
+                }
+                if (fitted) {
+                    zoomAt(e.getX(), e.getY(), 1);
+                } else {
+                    fitted = true;
+                    repaint();
+                }
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * Shows a photo, fitted to the component. Nothing is drawn for it until its
+     * preview is supplied or its header has been read.
+     *
+     * @param filePath the path to the image file, or null to show nothing
+     */
+    public void setPhoto(String filePath) {
+        generation++;
+        cancelPendingDecode();
+        file = filePath == null ? null : new File(filePath);
+        preview = null;
+        imageWidth = 0;
+        imageHeight = 0;
+        tilesFailed = false;
+        fitted = true;
+        if (file != null) {
+            long requested = generation;
+            File target = file;
+            decoder.submit(() -> {
+                long size = target.length();
+                long modified = target.lastModified();
+                Dimension dimensions;
+                try {
+                    dimensions = ThumbnailDecoder.readDimensions(target);
+                } catch (IOException e) {
+                    dimensions = null; // Only the preview can be shown
+                }
+                Dimension read = dimensions;
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == requested && read != null) {
+                        fileSize = size;
+                        lastModified = modified;
+                        imageWidth = read.width;
+                        imageHeight = read.height;
+                        repaint();
+                    }
+                });
+            });
+        }
+        repaint();
+    }
+
+    /**
+     * Supplies a downscaled rendition of the current photo, drawn wherever it has
+     * enough resolution and beneath tiles that have not arrived yet.
+     *
+     * @param preview the preview, with the aspect ratio of the photo
+     */
+    public void setPreview(Image preview) {
+        this.preview = preview;
+        repaint();
+    }
+
+    /**
+     * Stops the background threads. Pending decodes are abandoned.
+     */
+    public void shutdown() {
+        decoder.shutdownNow();
+    }
+
+    /**
+     * Paints the preview, then the tiles of the visible region if the zoom needs
+     * more detail than the preview holds.
+     *
+     * @param g the graphics context
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        if (file == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        int previewWidth = preview == null ? 0 : preview.getWidth(null);
+        int previewHeight = preview == null ? 0 : preview.getHeight(null);
+        if (imageWidth == 0 && preview == null) {
+            String text = "Loading...";
+            FontMetrics metrics = g.getFontMetrics();
+            g.setColor(getForeground());
+            g.drawString(text, (getWidth() - metrics.stringWidth(text)) / 2, getHeight() / 2);
+            return;
+        }
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            if (imageWidth == 0) { // Header not read yet, so show the preview alone
+                Dimension fit = ThumbnailDecoder.fit(previewWidth, previewHeight, getWidth(), getHeight());
+                g2.drawImage(preview, (getWidth() - fit.width) / 2, (getHeight() - fit.height) / 2, fit.width,
+                        fit.height, null);
+                return;
+            }
+
+            if (fitted) {
+                scale = fitScale();
+                centerX = imageWidth / 2.0;
+                centerY = imageHeight / 2.0;
+            }
+            double originX = getWidth() / 2.0 - centerX * scale;
+            double originY = getHeight() / 2.0 - centerY * scale;
+            if (preview != null) {
+                g2.drawImage(preview, (int) Math.round(originX), (int) Math.round(originY),
+                        (int) Math.round(originX + imageWidth * scale), (int) Math.round(originY + imageHeight * scale),
+                        0, 0, previewWidth, previewHeight, null);
+            }
+            boolean previewTooCoarse = previewWidth < imageWidth && scale > PREVIEW_SLACK * previewWidth / imageWidth;
+            if (!tilesFailed && (preview == null || previewTooCoarse)) {
+                paintTiles(g2, originX, originY);
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    /**
+     * Paints the tiles covering the visible region at the level the zoom needs,
+     * standing in the matching quarter of a coarser tile for any that is missing,
+     * and requests the missing ones.
+     */
+    private void paintTiles(Graphics2D g, double originX, double originY) {
+        int level = 0;
+        while ((2 << level) * scale <= 1) { // Coarsest level that still has a pixel for every screen pixel
+            level++;
+        }
+        int span = TILE_SIZE << level; // Image pixels covered by a tile
+        double left = Math.max(0, -originX / scale);
+        double top = Math.max(0, -originY / scale);
+        double right = Math.min(imageWidth, (getWidth() - originX) / scale);
+        double bottom = Math.min(imageHeight, (getHeight() - originY) / scale);
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        int firstColumn = (int) (left / span);
+        int lastColumn = (int) Math.ceil(right / span) - 1;
+        int firstRow = (int) (top / span);
+        int lastRow = (int) Math.ceil(bottom / span) - 1;
+
+        Rectangle missing = null;
+        String filePath = file.getPath();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int x = column * span;
+                int y = row * span;
+                int dx1 = (int) Math.round(originX + x * scale);
+                int dy1 = (int) Math.round(originY + y * scale);
+                int dx2 = (int) Math.round(originX + Math.min(imageWidth, x + span) * scale);
+                int dy2 = (int) Math.round(originY + Math.min(imageHeight, y + span) * scale);
+                BufferedImage tile = tiles.get(filePath, fileSize, lastModified, level, column, row);
+                if (tile != null) {
+                    g.drawImage(tile, dx1, dy1, dx2, dy2, 0, 0, tile.getWidth(), tile.getHeight(), null);
+                    continue;
+                }
+
+                BufferedImage parent = tiles.get(filePath, fileSize, lastModified, level + 1, column / 2, row / 2);
+                if (parent != null) {
+                    int sx = (column % 2) * TILE_SIZE / 2;
+                    int sy = (row % 2) * TILE_SIZE / 2;
+                    g.drawImage(parent, dx1, dy1, dx2, dy2, sx, sy, Math.min(parent.getWidth(), sx + TILE_SIZE / 2),
+                            Math.min(parent.getHeight(), sy + TILE_SIZE / 2), null);
+                }
+                if (missing == null) {
+                    missing = new Rectangle(column, row, 1, 1);
+                } else {
+                    missing.add(new Rectangle(column, row, 1, 1));
+                }
+            }
+        }
+        if (missing != null) {
+            requestTiles(level, missing);
+        }
+    }
+
+    /**
+     * Decodes a block of tiles in the background, in one read of the image, unless
+     * a pending decode already covers it. A queued decode that no longer covers the
+     * view is cancelled.
+     */
+    private void requestTiles(int level, Rectangle block) {
+        if (pendingDecode != null && !pendingDecode.isDone()) {
+            if (pendingLevel == level && pendingTiles.contains(block)) {
+                return;
+            }
+            pendingDecode.cancel(false); // A decode already running still fills the cache
+        }
+        long requested = generation;
+        String filePath = file.getPath();
+        File target = file;
+        long size = fileSize;
+        long modified = lastModified;
+        int width = imageWidth;
+        int height = imageHeight;
+        GraphicsConfiguration configuration = getGraphicsConfiguration();
+        int span = TILE_SIZE << level;
+        Rectangle region = new Rectangle(block.x * span, block.y * span,
+                Math.min(width, (block.x + block.width) * span) - block.x * span,
+                Math.min(height, (block.y + block.height) * span) - block.y * span);
+
+        pendingLevel = level;
+        pendingTiles = block;
+        pendingDecode = decoder.submit(() -> {
+            BufferedImage decoded;
+            try {
+                decoded = ThumbnailDecoder.decodeRegion(target, region, 1 << level);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Cannot decode " + target + ": " + e.getMessage());
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == requested) {
+                        tilesFailed = true; // Keep showing the preview
+                    }
+                });
+                return;
+            }
+            for (int row = 0; row < block.height; row++) {
+                for (int column = 0; column < block.width; column++) {
+                    int x = column * TILE_SIZE;
+                    int y = row * TILE_SIZE;
+                    if (x < decoded.getWidth() && y < decoded.getHeight()) {
+                        tiles.put(filePath, size, modified, level, block.x + column, block.y + row,
+                                copyTile(decoded, x, y, configuration));
+                    }
+                }
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (generation == requested) {
+                    repaint();
+                }
+            });
+        });
+    }
+
+    /**
+     * Cancels the decode that is queued, if any.
+     */
+    private void cancelPendingDecode() {
+        if (pendingDecode != null) {
+            pendingDecode.cancel(false);
+            pendingDecode = null;
+        }
+    }
+
+    /**
+     * Copies one tile out of a decoded region into an image compatible with the
+     * screen, so that it can be drawn without conversion.
+     */
+    private static BufferedImage copyTile(BufferedImage decoded, int x, int y, GraphicsConfiguration configuration) {
+        int width = Math.min(TILE_SIZE, decoded.getWidth() - x);
+        int height = Math.min(TILE_SIZE, decoded.getHeight() - y);
+        int transparency = decoded.getTransparency() == Transparency.OPAQUE ? Transparency.OPAQUE
+                : Transparency.TRANSLUCENT;
+        BufferedImage tile = configuration != null
+                ? configuration.createCompatibleImage(width, height, transparency)
+                : new BufferedImage(width, height, transparency == Transparency.OPAQUE
+                        ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = tile.createGraphics();
+        g.drawImage(decoded, 0, 0, width, height, x, y, x + width, y + height, null);
+        g.dispose();
+        return tile;
+    }
+
+    /**
+     * Changes the zoom, keeping the image point under the given position in place.
+     */
+    private void zoomAt(int x, int y, double newScale) {
+        if (imageWidth == 0 || scale == 0) {
+            return;
+        }
+        double fit = fitScale();
+        newScale = Math.max(fit, Math.min(MAX_SCALE, newScale));
+        double imageX = centerX + (x - getWidth() / 2.0) / scale;
+        double imageY = centerY + (y - getHeight() / 2.0) / scale;
+        scale = newScale;
+        centerX = imageX - (x - getWidth() / 2.0) / scale;
+        centerY = imageY - (y - getHeight() / 2.0) / scale;
+        fitted = scale == fit;
+        clampCenter();
+        repaint();
+    }
+
+    /**
+     * Keeps the image covering as much of the component as it can: an image
+     * smaller than the component is centred, a larger one cannot be dragged past
+     * its edges.
+     */
+    private void clampCenter() {
+        double halfWidth = getWidth() / 2.0 / scale;
+        double halfHeight = getHeight() / 2.0 / scale;
+        centerX = imageWidth <= 2 * halfWidth ? imageWidth / 2.0
+                : Math.max(halfWidth, Math.min(imageWidth - halfWidth, centerX));
+        centerY = imageHeight <= 2 * halfHeight ? imageHeight / 2.0
+                : Math.max(halfHeight, Math.min(imageHeight - halfHeight, centerY));
+    }
+
+    /**
+     * Returns the scale at which the whole image fits the component, never
+     * enlarging it.
+     */
+    private double fitScale() {
+        return Math.min(1, Math.min((double) getWidth() / imageWidth, (double) getHeight() / imageHeight));
+    }
+}
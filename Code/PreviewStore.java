@@ -0,0 +1,446 @@
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * PreviewStore keeps encoded preview renditions of photos in a single packed file
+ * so that later launches can show thumbnails and the main display without decoding
+ * the originals again. The file is read through memory mappings and written by
+ * appending records. Each record remembers the size and last-modified time of the
+ * source file it was made from; a record that no longer matches its source is never
+ * returned and is dropped. Removed records leave dead space that is reclaimed by
+ * compaction when the store is opened or closed, or while it is in use once a
+ * segment's worth of the file is dead and that is at least half of it.
+ *
+ * <p>The file is mapped in segments of 64 MB, so it is not limited in size and an
+ * append only ever remaps the last segment. Each mapping extends past its segment
+ * by the largest record size, so a record starting in a segment is read from that
+ * segment's mapping alone. Records larger than 16 MB are refused.
+ *
+ * <p>The store may be used from several threads. Previews are encoded and decoded
+ * outside its lock, so only the file access is serialized.
+ *
+ * <p>Record layout: status byte (1 = live, 0 = dead), record length, path length,
+ * UTF-8 path, box width, box height, source size, source last-modified time,
+ * image length, encoded image bytes.
+ */
+public final class PreviewStore {
+    private static final int MAGIC = 0x50415056; // "PAPV"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte LIVE = 1;
+    private static final byte DEAD = 0;
+    private static final int SEGMENT_SIZE = 64 << 20; // Span of record offsets served by one mapping
+    private static final int MAX_RECORD_SIZE = 16 << 20; // Largest record, and the overlap between mappings
+
+    private final File file;
+    private final Map<String, Long> index = new HashMap<>(); // Rendition key -> record offset
+    private final Map<String, List<String>> keysByPath = new HashMap<>(); // Source path -> its keys in index
+    private final List<MappedByteBuffer> segments = new ArrayList<>(); // Mappings by segment, null until read
+    private FileChannel channel;
+    private long end; // Length of the file, where the next record is appended
+    private long deadBytes;
+    private boolean compactionDeferred; // The mapped file could not be replaced; retried when next opened
+
+    private PreviewStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the store at the given location, creating it if necessary. A record
+     * left incomplete by a crash is discarded, and the file is compacted if most
+     * of it is dead space.
+     *
+     * @param file the pack file
+     * @return the opened store
+     * @throws IOException if the file cannot be opened or is not a preview store
+     */
+    public static PreviewStore open(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        PreviewStore store = new PreviewStore(file);
+        store.openChannel();
+        store.compactIfNeeded();
+        return store;
+    }
+
+    /**
+     * Retrieves the stored preview for a file, provided it was made from the
+     * current version of that file.
+     *
+     * @param filePath     the path to the source image
+     * @param width        the width of the rendition box
+     * @param height       the height of the rendition box
+     * @param fileSize     the current size of the source file
+     * @param lastModified the current last-modified time of the source file
+     * @return the decoded preview, or null if none is stored for this version
+     */
+    public BufferedImage get(String filePath, int width, int height, long fileSize, long lastModified) {
+        byte[] data;
+        synchronized (this) {
+            ByteBuffer record = freshRecord(filePath, width, height, fileSize, lastModified);
+            if (record == null) {
+                return null;
+            }
+            data = new byte[record.getInt()];
+            record.get(data);
+        }
+        try {
+            return ImageIO.read(new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether a preview made from the current version of a file is stored,
+     * without decoding it.
+     *
+     * @param filePath     the path to the source image
+     * @param width        the width of the rendition box
+     * @param height       the height of the rendition box
+     * @param fileSize     the current size of the source file
+     * @param lastModified the current last-modified time of the source file
+     * @return true if get would return a preview
+     */
+    public synchronized boolean contains(String filePath, int width, int height, long fileSize, long lastModified) {
+        return freshRecord(filePath, width, height, fileSize, lastModified) != null;
+    }
+
+    /**
+     * Returns the record of a rendition positioned at its image length, or null if
+     * there is none for this version of the file. A record made from an older
+     * version is dropped.
+     */
+    private ByteBuffer freshRecord(String filePath, int width, int height, long fileSize, long lastModified) {
+        Long offset = index.get(key(filePath, width, height));
+        if (offset == null) {
+            return null;
+        }
+        try {
+            ByteBuffer record = record(offset);
+            int pathLength = record.getShort(record.position() + 5) & 0xFFFF;
+            record.position(record.position() + 1 + 4 + 2 + pathLength + 8); // Skip to the source identity
+            long storedSize = record.getLong();
+            long storedModified = record.getLong();
+            if (storedSize != fileSize || storedModified != lastModified) {
+                markDead(offset); // The source has changed since the preview was made
+                unindex(filePath, key(filePath, width, height));
+                return null;
+            }
+            return record;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores a preview for the given version of a file, replacing any earlier one.
+     *
+     * @param filePath     the path to the source image
+     * @param width        the width of the rendition box
+     * @param height       the height of the rendition box
+     * @param fileSize     the size of the source file the preview was made from
+     * @param lastModified the last-modified time of the source file
+     * @param image        the preview image
+     * @throws IOException if the preview cannot be encoded or written, or is too large to store
+     */
+    public void put(String filePath, int width, int height, long fileSize, long lastModified,
+                    BufferedImage image) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        // JPEG is far smaller for photographs but cannot carry an alpha channel
+        String format = image.getTransparency() == Transparency.OPAQUE ? "jpg" : "png";
+        if (!ImageIO.write(image, format, encoded)) {
+            throw new IOException("No writer for preview format: " + format);
+        }
+
+        byte[] path = filePath.getBytes(StandardCharsets.UTF_8);
+        int length = 2 + path.length + 4 + 4 + 8 + 8 + 4 + encoded.size();
+        if (path.length > 0xFFFF || 1 + 4 + length > MAX_RECORD_SIZE) {
+            throw new IOException("Preview of " + filePath + " is too large to store: " + length + " bytes");
+        }
+        ByteBuffer record = ByteBuffer.allocate(1 + 4 + length);
+        record.put(LIVE).putInt(length).putShort((short) path.length).put(path)
+                .putInt(width).putInt(height).putLong(fileSize).putLong(lastModified)
+                .putInt(encoded.size()).put(encoded.toByteArray());
+        record.flip();
+        append(filePath, width, height, record);
+    }
+
+    /**
+     * Appends an encoded record to the file and indexes it under its rendition,
+     * then compacts the file if it has accumulated enough dead space.
+     */
+    private synchronized void append(String filePath, int width, int height, ByteBuffer record)
+            throws IOException {
+        long offset = end;
+        while (record.hasRemaining()) {
+            channel.write(record, offset + record.position());
+        }
+        end = offset + record.limit();
+        Long previous = index(filePath, width, height, offset);
+        if (previous != null) {
+            markDead(previous);
+        }
+        if (deadBytes >= SEGMENT_SIZE && !compactionDeferred) {
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Drops every stored preview of the given file.
+     *
+     * @param filePath the path to the source image
+     */
+    public synchronized void remove(String filePath) {
+        drop(filePath);
+    }
+
+    /**
+     * Drops every stored preview of the given files.
+     *
+     * @param filePaths the paths to the source images
+     */
+    public synchronized void remove(Collection<String> filePaths) {
+        for (String filePath : filePaths) {
+            drop(filePath);
+        }
+    }
+
+    /**
+     * Unindexes every rendition of a file and marks its records dead.
+     */
+    private void drop(String filePath) {
+        List<String> keys = keysByPath.remove(filePath);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            try {
+                markDead(index.remove(key));
+            } catch (IOException e) {
+                // The index no longer refers to it, compaction will still skip it
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of previews held by the store.
+     *
+     * @return the number of live records
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Compacts the pack file if needed and closes it.
+     */
+    public synchronized void close() {
+        segments.clear();
+        try {
+            compactIfNeeded();
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close preview store " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the channel, writes the header of a new file, and indexes the records.
+     */
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            channel.write(header, 0);
+        }
+        buildIndex();
+    }
+
+    /**
+     * Scans the record headers with positional reads, leaving the bulk of the
+     * file untouched, and truncates a trailing partial record.
+     */
+    private void buildIndex() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a preview store: " + file);
+        }
+
+        index.clear();
+        keysByPath.clear();
+        segments.clear();
+        deadBytes = 0;
+        long size = channel.size();
+        long offset = HEADER_SIZE;
+        ByteBuffer prefix = ByteBuffer.allocate(1 + 4 + 2);
+        while (offset + prefix.capacity() <= size) {
+            prefix.clear();
+            channel.read(prefix, offset);
+            prefix.flip();
+            byte status = prefix.get();
+            int length = prefix.getInt();
+            int pathLength = prefix.getShort() & 0xFFFF;
+            long recordEnd = offset + 1 + 4 + length;
+            if ((status != LIVE && status != DEAD) || length < 2 + pathLength + 28 || length > MAX_RECORD_SIZE - 5
+                    || recordEnd > size) {
+                break; // Incomplete or corrupt tail left by an interrupted write
+            }
+
+            if (status == LIVE) {
+                ByteBuffer rest = ByteBuffer.allocate(pathLength + 8);
+                channel.read(rest, offset + prefix.capacity());
+                rest.flip();
+                byte[] path = new byte[pathLength];
+                rest.get(path);
+                String filePath = new String(path, StandardCharsets.UTF_8);
+                Long previous = index(filePath, rest.getInt(), rest.getInt(), offset);
+                if (previous != null) {
+                    markDead(previous);
+                }
+            } else {
+                deadBytes += recordEnd - offset;
+            }
+            offset = recordEnd;
+        }
+        if (offset < size) {
+            channel.truncate(offset);
+        }
+        this.end = offset;
+    }
+
+    /**
+     * Rewrites the live records into a fresh file when at least half of the
+     * current file is dead space.
+     */
+    private void compactIfNeeded() throws IOException {
+        if (deadBytes == 0 || deadBytes * 2 < end - HEADER_SIZE) {
+            return;
+        }
+        segments.clear();
+
+        File compacted = new File(file.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            out.write(header);
+            for (long offset : index.values()) {
+                ByteBuffer length = ByteBuffer.allocate(4);
+                channel.read(length, offset + 1);
+                length.flip();
+                channel.transferTo(offset, 1 + 4 + length.getInt(), out);
+            }
+            out.force(true);
+        }
+
+        channel.close();
+        try {
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Some platforms refuse to replace a file that is still mapped; retry on next open
+            Files.deleteIfExists(compacted.toPath());
+            compactionDeferred = true;
+        }
+        openChannel();
+    }
+
+    /**
+     * Flags the record at the given offset as dead.
+     */
+    private void markDead(long offset) throws IOException {
+        ByteBuffer status = ByteBuffer.allocate(1 + 4);
+        channel.read(status, offset);
+        status.flip();
+        if (status.get() == LIVE) {
+            channel.write(ByteBuffer.wrap(new byte[] {DEAD}), offset);
+            deadBytes += 1 + 4 + status.getInt();
+        }
+    }
+
+    /**
+     * Returns a read-only view of the record at the given offset, positioned at its
+     * start. The segment the record starts in is mapped on first use, and mapped
+     * again if the record was appended after its mapping was made.
+     */
+    private ByteBuffer record(long offset) throws IOException {
+        int segment = (int) (offset / SEGMENT_SIZE);
+        while (segments.size() <= segment) {
+            segments.add(null);
+        }
+        long start = (long) segment * SEGMENT_SIZE;
+        int position = (int) (offset - start);
+        MappedByteBuffer mapped = segments.get(segment);
+        if (mapped == null || !covers(mapped, position)) {
+            long length = Math.min(end, start + SEGMENT_SIZE + MAX_RECORD_SIZE) - start;
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            segments.set(segment, mapped);
+        }
+        ByteBuffer view = mapped.duplicate();
+        view.position(position);
+        return view;
+    }
+
+    /**
+     * Checks whether a mapping holds the whole record at the given position.
+     */
+    private static boolean covers(ByteBuffer mapped, int position) {
+        return position + 1 + 4 <= mapped.capacity()
+                && position + 1 + 4 + mapped.getInt(position + 1) <= mapped.capacity();
+    }
+
+    /**
+     * Indexes the record at the given offset under its rendition and returns the
+     * offset of the record it replaces, or null.
+     */
+    private Long index(String filePath, int width, int height, long offset) {
+        String key = key(filePath, width, height);
+        Long previous = index.put(key, offset);
+        if (previous == null) {
+            keysByPath.computeIfAbsent(filePath, path -> new ArrayList<>(2)).add(key);
+        }
+        return previous;
+    }
+
+    /**
+     * Drops a rendition from the index.
+     */
+    private void unindex(String filePath, String key) {
+        index.remove(key);
+        List<String> keys = keysByPath.get(filePath);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            keysByPath.remove(filePath);
+        }
+    }
+
+    /**
+     * Builds the index key for a rendition.
+     */
+    private static String key(String filePath, int width, int height) {
+        return width + "x" + height + "|" + filePath;
+    }
+}
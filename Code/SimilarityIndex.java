@@ -0,0 +1,137 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SimilarityIndex finds photos that look alike. Each photo's perceptual hash is
+ * computed in the background from a small decode, on a pool of low-priority
+ * threads sized to the machine, and stored in a HammingIndex so that photos
+ * within a few bits of a given one are found without comparing it to every
+ * other photo.
+ *
+ * <p>The index is attached to a PhotoAlbumModel, which reports every added and
+ * removed photo by its ID. Queries and updates may come from any thread.
+ */
+public final class SimilarityIndex {
+    public static final int DEFAULT_MAX_DISTANCE = 10; // Bits of 64 that may differ between similar photos
+
+    private final HammingIndex index = new HammingIndex();
+    private final BitSet pending = new BitSet(); // IDs whose hash is being computed
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final ExecutorService hashers;
+
+    /**
+     * Constructs an index that hashes photos on all but one of the available cores.
+     */
+    public SimilarityIndex() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Constructs an index that hashes photos on the given number of threads.
+     *
+     * @param threads the number of hashing threads
+     */
+    public SimilarityIndex(int threads) {
+        hashers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "photo-phash");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY); // Browsing the album comes first
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules a photo to be hashed and added to the index.
+     *
+     * @param id       the photo ID
+     * @param filePath the path of the photo file
+     */
+    public void photoAdded(int id, String filePath) {
+        synchronized (this) {
+            pending.set(id);
+        }
+        pendingCount.incrementAndGet();
+        hashers.execute(() -> {
+            long hash;
+            try {
+                hash = PerceptualHash.of(new File(filePath));
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    pending.clear(id); // Unreadable photos are not indexed
+                }
+                pendingCount.decrementAndGet();
+                return;
+            }
+            synchronized (this) {
+                if (pending.get(id)) { // Otherwise removed while it was being hashed
+                    pending.clear(id);
+                    index.add(hash, id);
+                }
+            }
+            pendingCount.decrementAndGet();
+        });
+    }
+
+    /**
+     * Removes a photo from the index, or cancels its pending hash.
+     *
+     * @param id the photo ID
+     */
+    public synchronized void photoRemoved(int id) {
+        pending.clear(id);
+        index.remove(id);
+    }
+
+    /**
+     * Checks whether a photo's hash has been computed.
+     *
+     * @param id the photo ID
+     * @return true if the photo can be used in a query
+     */
+    public synchronized boolean isHashed(int id) {
+        return index.contains(id);
+    }
+
+    /**
+     * Retrieves the number of photos still waiting to be hashed.
+     *
+     * @return the number of pending photos
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Finds the photos that look like the given one.
+     *
+     * @param id          the ID of the photo to compare with
+     * @param maxDistance the largest Hamming distance to include
+     * @return the IDs of similar photos, most similar first, excluding the photo
+     *         itself; empty if the photo has not been hashed
+     */
+    public synchronized int[] findSimilar(int id, int maxDistance) {
+        if (!index.contains(id)) {
+            return new int[0];
+        }
+        int[] matches = index.search(index.hashOf(id), maxDistance);
+        int count = 0;
+        for (int match : matches) {
+            if (match != id) {
+                matches[count++] = match;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * Stops the hashing threads. Pending photos are not hashed.
+     */
+    public void shutdown() {
+        hashers.shutdownNow();
+    }
+}
@@ -1,4 +1,3 @@
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -7,6 +6,8 @@ import java.util.List;
  * that sorts a list of photos based on their date added in ascending order.
  */
 public class SortByDate implements SortingStrategy {
+    private static final SortByKeys KEYS = new SortByKeys(SortByKeys.Key.DATE);
+    private static final LatencyHistogram SORT_TIME = Metrics.getShared().histogram("sortByDate");
 
     /**
      * Sorts the provided list of photos by the date they were added in ascending order.
@@ -16,7 +17,33 @@ public class SortByDate implements SortingStrategy {
      */
     @Override
     public List<Photo> sort(List<Photo> photos) {
-        Collections.sort(photos, Comparator.comparing(Photo::getDateAdded));
-        return photos;
+        long start = System.nanoTime();
+        List<Photo> sorted = KEYS.sort(photos); // Sorts extracted keys, in parallel for large albums
+        SORT_TIME.recordSince(start);
+        return sorted;
+    }
+
+    /**
+     * Retrieves the comparator that orders photos by date added.
+     *
+     * @return the comparator used by this strategy
+     */
+    @Override
+    public Comparator<Photo> getComparator() {
+        return KEYS.getComparator();
+    }
+
+    /**
+     * Computes the sorted order of an array of photos from their extracted keys.
+     *
+     * @param photos the photos to sort
+     * @return for each position in sorted order, the index of the photo in the array
+     */
+    @Override
+    public int[] sortedOrder(Photo[] photos) {
+        long start = System.nanoTime();
+        int[] order = KEYS.sortedOrder(photos);
+        SORT_TIME.recordSince(start);
+        return order;
     }
 }
@@ -0,0 +1,50 @@
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * SortByDateTaken is a concrete implementation of the SortingStrategy interface
+ * that sorts a list of photos based on the date they were taken in ascending order.
+ * Photos whose files record no capture date are placed by the date they were added.
+ */
+public class SortByDateTaken implements SortingStrategy {
+    private static final SortByKeys KEYS = new SortByKeys(SortByKeys.Key.TAKEN);
+    private static final LatencyHistogram SORT_TIME = Metrics.getShared().histogram("sortByDateTaken");
+
+    /**
+     * Sorts the provided list of photos by the date they were taken in ascending order.
+     *
+     * @param photos the list of Photo objects to be sorted by date taken
+     * @return a list of Photo objects sorted by their date taken
+     */
+    @Override
+    public List<Photo> sort(List<Photo> photos) {
+        long start = System.nanoTime();
+        List<Photo> sorted = KEYS.sort(photos); // Sorts extracted keys, in parallel for large albums
+        SORT_TIME.recordSince(start);
+        return sorted;
+    }
+
+    /**
+     * Retrieves the comparator that orders photos by date taken.
+     *
+     * @return the comparator used by this strategy
+     */
+    @Override
+    public Comparator<Photo> getComparator() {
+        return KEYS.getComparator();
+    }
+
+    /**
+     * Computes the sorted order of an array of photos from their extracted keys.
+     *
+     * @param photos the photos to sort
+     * @return for each position in sorted order, the index of the photo in the array
+     */
+    @Override
+    public int[] sortedOrder(Photo[] photos) {
+        long start = System.nanoTime();
+        int[] order = KEYS.sortedOrder(photos);
+        SORT_TIME.recordSince(start);
+        return order;
+    }
+}
@@ -0,0 +1,328 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * SortByKeys is a SortingStrategy that orders photos by one or more keys, each
+ * ascending or descending, for example date then name. The sort is stable, so
+ * photos with equal keys keep their relative order.
+ *
+ * <p>Instead of calling a comparator for every comparison, each key is read once
+ * into a primitive array and replaced by an int rank that preserves its order.
+ * The order is obtained by sorting a long array that packs each photo's rank
+ * with its index. Composite orders sort by the first key only, then rank the
+ * next key within each run of photos that tie on it, so a tie-breaking key costs
+ * nothing when the first key rarely ties. Runs of at least
+ * {@link #PARALLEL_THRESHOLD} photos, and so whole large albums, are ranked and
+ * sorted on the common fork-join pool.
+ */
+public class SortByKeys implements SortingStrategy {
+    /**
+     * The smallest number of photos that is ranked and sorted in parallel. Below
+     * it, forking costs more than it saves.
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    private final Key[] keys;
+    private final boolean[] descending;
+
+    /**
+     * The properties a photo can be sorted by.
+     */
+    public enum Key {
+        /** The photo name, in the natural order of strings. */
+        NAME,
+        /** The date the photo was added. */
+        DATE,
+        /** The file size in bytes. */
+        SIZE,
+        /** The date the picture was taken, or the date it was added if the file records none. */
+        TAKEN
+    }
+
+    /**
+     * Constructs a strategy that sorts by a single key in ascending order.
+     *
+     * @param key the key to sort by
+     */
+    public SortByKeys(Key key) {
+        this(key, false);
+    }
+
+    /**
+     * Constructs a strategy that sorts by a single key.
+     *
+     * @param key        the key to sort by
+     * @param descending true to put the largest values first
+     */
+    public SortByKeys(Key key, boolean descending) {
+        this(new Key[] {key}, new boolean[] {descending});
+    }
+
+    private SortByKeys(Key[] keys, boolean[] descending) {
+        this.keys = keys;
+        this.descending = descending;
+    }
+
+    /**
+     * Creates a strategy that sorts like this one and breaks ties by another key
+     * in ascending order.
+     *
+     * @param key the tie-breaking key
+     * @return the composite strategy
+     */
+    public SortByKeys thenBy(Key key) {
+        return thenBy(key, false);
+    }
+
+    /**
+     * Creates a strategy that sorts like this one and breaks ties by another key.
+     *
+     * @param key        the tie-breaking key
+     * @param descending true to put the largest values first
+     * @return the composite strategy
+     */
+    public SortByKeys thenBy(Key key, boolean descending) {
+        Key[] moreKeys = Arrays.copyOf(keys, keys.length + 1);
+        boolean[] moreDescending = Arrays.copyOf(this.descending, keys.length + 1);
+        moreKeys[keys.length] = key;
+        moreDescending[keys.length] = descending;
+        return new SortByKeys(moreKeys, moreDescending);
+    }
+
+    /**
+     * Sorts the provided list of photos in place.
+     *
+     * @param photos the list of Photo objects to be sorted
+     * @return the same list, sorted
+     */
+    @Override
+    public List<Photo> sort(List<Photo> photos) {
+        Photo[] array = photos.toArray(new Photo[0]);
+        ListIterator<Photo> writer = photos.listIterator();
+        for (int index : sortedOrder(array)) {
+            writer.next();
+            writer.set(array[index]);
+        }
+        return photos;
+    }
+
+    /**
+     * Computes the sorted order of an array of photos without moving them.
+     *
+     * @param photos the photos to sort
+     * @return for each position in sorted order, the index of the photo in the array
+     */
+    @Override
+    public int[] sortedOrder(Photo[] photos) {
+        int[] order = new int[photos.length];
+        Arrays.setAll(order, i -> i);
+        sortRun(photos, order, 0, photos.length, 0);
+        return order;
+    }
+
+    /**
+     * Sorts a run of the order by one key, keeping the run's current order for
+     * ties, then sorts each run that still ties by the next key.
+     */
+    private void sortRun(Photo[] photos, int[] order, int from, int to, int k) {
+        int length = to - from;
+        boolean parallel = length >= PARALLEL_THRESHOLD;
+        Photo[] run = new Photo[length];
+        fill(run, j -> photos[order[from + j]], parallel);
+        int[] ranks = keys[k] == Key.NAME
+                ? rankNames(run, parallel) : rankValues(extractValues(run, keys[k], parallel), parallel);
+        if (descending[k]) {
+            reverse(ranks, parallel);
+        }
+        long[] packed = new long[length];
+        fill(packed, j -> ((long) ranks[j] << 32) | j, parallel); // Ties keep their place in the run
+        sort(packed, parallel);
+        int[] previous = Arrays.copyOfRange(order, from, to);
+        for (int j = 0; j < length; j++) {
+            order[from + j] = previous[(int) packed[j]];
+        }
+        if (k + 1 == keys.length) {
+            return;
+        }
+        int start = 0;
+        for (int j = 1; j <= length; j++) {
+            if (j == length || packed[j] >>> 32 != packed[start] >>> 32) {
+                if (j - start > 1) {
+                    sortRun(photos, order, from + start, from + j, k + 1);
+                }
+                start = j;
+            }
+        }
+    }
+
+    /**
+     * Retrieves a comparator that defines the same order as this strategy.
+     *
+     * @return the comparator for this sorting strategy
+     */
+    @Override
+    public Comparator<Photo> getComparator() {
+        Comparator<Photo> comparator = null;
+        for (int k = 0; k < keys.length; k++) {
+            Comparator<Photo> keyComparator = comparator(keys[k]);
+            if (descending[k]) {
+                keyComparator = keyComparator.reversed();
+            }
+            comparator = comparator == null ? keyComparator : comparator.thenComparing(keyComparator);
+        }
+        return comparator;
+    }
+
+    private static Comparator<Photo> comparator(Key key) {
+        switch (key) {
+            case NAME:
+                return Comparator.comparing(Photo::getName);
+            case DATE:
+                return Comparator.comparingLong(photo -> photo.getDateAdded().getTime());
+            case SIZE:
+                return Comparator.comparingLong(Photo::getFileSize);
+            case TAKEN:
+                return Comparator.comparingLong(photo -> photo.getDateTaken().getTime());
+            default:
+                throw new IllegalArgumentException("Unknown sort key: " + key);
+        }
+    }
+
+    private static long[] extractValues(Photo[] photos, Key key, boolean parallel) {
+        long[] values = new long[photos.length];
+        if (key == Key.DATE) {
+            fill(values, i -> photos[i].getDateAdded().getTime(), parallel);
+        } else if (key == Key.TAKEN) {
+            fill(values, i -> photos[i].getDateTaken().getTime(), parallel);
+        } else {
+            fill(values, i -> photos[i].getFileSize(), parallel);
+        }
+        return values;
+    }
+
+    /**
+     * Replaces each value by an int that preserves the order of the values: the
+     * offset from the smallest value when the range fits in an int, and otherwise
+     * the number of distinct values smaller than it.
+     */
+    private static int[] rankValues(long[] values, boolean parallel) {
+        int[] ranks = new int[values.length];
+        if (values.length == 0) {
+            return ranks;
+        }
+        long min = values[0];
+        long max = values[0];
+        for (long value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        if (max - min >= 0 && max - min < Integer.MAX_VALUE) {
+            long base = min;
+            fill(ranks, i -> (int) (values[i] - base), parallel); // No sort needed
+            return ranks;
+        }
+
+        long[] distinct = values.clone();
+        sort(distinct, parallel);
+        int count = 0;
+        for (int i = 0; i < distinct.length; i++) {
+            if (i == 0 || distinct[i] != distinct[count - 1]) {
+                distinct[count++] = distinct[i];
+            }
+        }
+        int distinctCount = count;
+        fill(ranks, i -> Arrays.binarySearch(distinct, 0, distinctCount, values[i]), parallel);
+        return ranks;
+    }
+
+    /**
+     * Replaces each photo's name by the number of distinct names that sort before
+     * it. The names are sorted once, together with the index they came from.
+     */
+    private static int[] rankNames(Photo[] photos, boolean parallel) {
+        NameKey[] names = new NameKey[photos.length];
+        if (parallel) {
+            Arrays.parallelSetAll(names, i -> new NameKey(photos[i].getName(), i));
+            Arrays.parallelSort(names);
+        } else {
+            Arrays.setAll(names, i -> new NameKey(photos[i].getName(), i));
+            Arrays.sort(names);
+        }
+        int[] ranks = new int[photos.length];
+        int rank = -1;
+        for (int i = 0; i < names.length; i++) {
+            if (i == 0 || !names[i].name.equals(names[i - 1].name)) {
+                rank++;
+            }
+            ranks[names[i].index] = rank;
+        }
+        return ranks;
+    }
+
+    /**
+     * Turns ascending ranks into descending ones.
+     */
+    private static void reverse(int[] ranks, boolean parallel) {
+        int max = 0;
+        for (int rank : ranks) {
+            max = Math.max(max, rank);
+        }
+        int top = max;
+        fill(ranks, i -> top - ranks[i], parallel);
+    }
+
+    private static void sort(long[] values, boolean parallel) {
+        if (parallel) {
+            Arrays.parallelSort(values);
+        } else {
+            Arrays.sort(values);
+        }
+    }
+
+    private static void fill(Photo[] photos, IntFunction<Photo> generator, boolean parallel) {
+        if (parallel) {
+            Arrays.parallelSetAll(photos, generator);
+        } else {
+            Arrays.setAll(photos, generator);
+        }
+    }
+
+    private static void fill(long[] values, IntToLongFunction generator, boolean parallel) {
+        if (parallel) {
+            Arrays.parallelSetAll(values, generator);
+        } else {
+            Arrays.setAll(values, generator);
+        }
+    }
+
+    private static void fill(int[] values, IntUnaryOperator generator, boolean parallel) {
+        if (parallel) {
+            Arrays.parallelSetAll(values, generator);
+        } else {
+            Arrays.setAll(values, generator);
+        }
+    }
+
+    /**
+     * A photo name paired with the index of the photo it belongs to.
+     */
+    private static final class NameKey implements Comparable<NameKey> {
+        private final String name;
+        private final int index;
+
+        NameKey(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo(NameKey other) {
+            return name.compareTo(other.name);
+        }
+    }
+}
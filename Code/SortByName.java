@@ -1,12 +1,15 @@
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
 /**
  * SortByName is a concrete implementation of the SortingStrategy interface
  * that sorts a list of photos based on their name in ascending alphabetical order.
+ * Photos with the same name, such as IMG_0001.JPG from two cameras, are ordered
+ * by the date they were taken.
  */
 public class SortByName implements SortingStrategy {
+    private static final SortByKeys KEYS = new SortByKeys(SortByKeys.Key.NAME).thenBy(SortByKeys.Key.TAKEN);
+    private static final LatencyHistogram SORT_TIME = Metrics.getShared().histogram("sortByName");
 
     /**
      * Sorts the provided list of photos by name in ascending alphabetical order.
@@ -16,7 +19,33 @@ public class SortByName implements SortingStrategy {
      */
     @Override
     public List<Photo> sort(List<Photo> photos) {
-        Collections.sort(photos, Comparator.comparing(Photo::getName));
-        return photos;
+        long start = System.nanoTime();
+        List<Photo> sorted = KEYS.sort(photos); // Sorts extracted keys, in parallel for large albums
+        SORT_TIME.recordSince(start);
+        return sorted;
+    }
+
+    /**
+     * Retrieves the comparator that orders photos by name, then by date taken.
+     *
+     * @return the comparator used by this strategy
+     */
+    @Override
+    public Comparator<Photo> getComparator() {
+        return KEYS.getComparator();
+    }
+
+    /**
+     * Computes the sorted order of an array of photos from their extracted keys.
+     *
+     * @param photos the photos to sort
+     * @return for each position in sorted order, the index of the photo in the array
+     */
+    @Override
+    public int[] sortedOrder(Photo[] photos) {
+        long start = System.nanoTime();
+        int[] order = KEYS.sortedOrder(photos);
+        SORT_TIME.recordSince(start);
+        return order;
     }
 }
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -14,4 +16,27 @@ public interface SortingStrategy {
      * @return a sorted list of Photo objects
      */
     List<Photo> sort(List<Photo> photos);
+
+    /**
+     * Retrieves the comparator that defines this strategy's order. The model uses it
+     * to keep the album ordered incrementally instead of re-sorting it.
+     *
+     * @return the comparator for this sorting strategy
+     */
+    Comparator<Photo> getComparator();
+
+    /**
+     * Computes the sorted order of an array of photos without moving them. Photos
+     * that compare equal keep the order of the array.
+     *
+     * @param photos the photos to sort
+     * @return for each position in sorted order, the index of the photo in the array
+     */
+    default int[] sortedOrder(Photo[] photos) {
+        Comparator<Photo> comparator = getComparator();
+        Integer[] order = new Integer[photos.length];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, (a, b) -> comparator.compare(photos[a], photos[b]));
+        return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+    }
 }
@@ -0,0 +1,133 @@
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * StatsPanel shows the application's metrics in a table that refreshes every
+ * second while the panel is showing: count, mean and percentiles of every
+ * latency histogram, every counter, the thumbnail cache hit rate, and the stall
+ * report of the EdtMonitor when one is installed.
+ */
+public class StatsPanel extends JPanel {
+    private static final int REFRESH_MILLIS = 1000;
+    private static final String[] COLUMNS = {"Metric", "Count", "Mean ms", "p50 ms", "p95 ms", "p99 ms", "Max ms"};
+
+    private final Metrics metrics;
+    private final StatsTableModel tableModel = new StatsTableModel();
+    private final JTextArea stallReport = new JTextArea(6, 40);
+    private final Timer refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh());
+
+    /**
+     * Constructs a panel showing the given registry.
+     *
+     * @param metrics the metrics to show
+     */
+    public StatsPanel(Metrics metrics) {
+        super(new BorderLayout());
+        this.metrics = metrics;
+        JTable table = new JTable(tableModel);
+        table.setPreferredScrollableViewportSize(new Dimension(480, 240));
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        stallReport.setEditable(false);
+        stallReport.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        add(new JScrollPane(stallReport), BorderLayout.SOUTH);
+        refresh();
+    }
+
+    /**
+     * Starts refreshing when the panel is shown.
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        refresh();
+        refreshTimer.start();
+    }
+
+    /**
+     * Stops refreshing when the panel is hidden.
+     */
+    @Override
+    public void removeNotify() {
+        refreshTimer.stop();
+        super.removeNotify();
+    }
+
+    /**
+     * Reads the current value of every metric into the table.
+     */
+    private void refresh() {
+        List<Object[]> rows = new ArrayList<>();
+        if (!Metrics.isEnabled()) {
+            rows.add(new Object[] {"Metrics are disabled", null, null, null, null, null, null});
+        }
+        for (LatencyHistogram histogram : metrics.getHistograms().values()) {
+            rows.add(new Object[] {histogram.getName(), histogram.getCount(),
+                    millis(histogram.getMeanMillis()), millis(histogram.getPercentile50Millis()),
+                    millis(histogram.getPercentile95Millis()), millis(histogram.getPercentile99Millis()),
+                    millis(histogram.getMaxMillis())});
+        }
+        for (Counter counter : metrics.getCounters().values()) {
+            rows.add(new Object[] {counter.getName(), counter.getCount(), null, null, null, null, null});
+        }
+        ThumbnailCache cache = ThumbnailCache.getShared();
+        rows.add(new Object[] {"thumbnailCacheHitRate " + String.format("%.1f%%", cache.getHitRate() * 100),
+                cache.getHitCount() + cache.getMissCount(), null, null, null, null, null});
+        tableModel.setRows(rows);
+
+        EdtMonitor monitor = EdtMonitor.getInstalled();
+        String report = monitor == null ? "EDT monitor not installed" : monitor.getReport();
+        if (!report.equals(stallReport.getText())) {
+            stallReport.setText(report);
+        }
+    }
+
+    private static String millis(double value) {
+        return String.format("%.3f", value);
+    }
+
+    /**
+     * Table model over the rows read at the last refresh.
+     */
+    private static final class StatsTableModel extends AbstractTableModel {
+        private List<Object[]> rows = new ArrayList<>();
+
+        void setRows(List<Object[]> rows) {
+            boolean sameShape = rows.size() == this.rows.size();
+            this.rows = rows;
+            if (sameShape) {
+                fireTableRowsUpdated(0, rows.size() - 1); // Keeps the selection and scroll position
+            } else {
+                fireTableDataChanged();
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows.get(row)[column];
+        }
+    }
+}
@@ -0,0 +1,356 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.swing.ImageIcon;
+
+/**
+ * ThumbnailCache is a shared, size-bounded cache of scaled photo renditions.
+ * Entries are keyed by file path, requested dimensions, and the file size and
+ * last-modified time the album recorded for the photo, so a lookup never touches
+ * the file system. Renditions of a file edited on disk are dropped through
+ * {@link #invalidate(String)} when the album learns of the edit. When the
+ * configured byte budget is exceeded, the least recently used entries are
+ * evicted first. If a PreviewStore is attached, misses are answered from it
+ * before falling back to decoding the original file, and freshly decoded
+ * renditions are written to it.
+ */
+public final class ThumbnailCache implements ThumbnailCacheMBean {
+    /** Default byte budget used when none is configured. */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final Counter PREVIEW_HITS = Metrics.getShared().counter("previewStoreHits");
+    private static final Counter PREVIEW_MISSES = Metrics.getShared().counter("previewStoreMisses");
+
+    private static final ThumbnailCache SHARED =
+            new ThumbnailCache(Long.getLong("photoapp.thumbnailCache.maxBytes", DEFAULT_MAX_BYTES));
+
+    private final LinkedHashMap<Key, Entry> entries; // Access-ordered for LRU eviction
+    private long maxBytes;
+    private long currentBytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private volatile PreviewStore previewStore; // Optional persistent second level
+
+    /**
+     * Constructs an empty cache with the given byte budget.
+     *
+     * @param maxBytes the maximum number of pixel bytes to retain
+     * @throws IllegalArgumentException if maxBytes is negative
+     */
+    public ThumbnailCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true);
+    }
+
+    /**
+     * Retrieves the cache shared by the whole application. Its budget can be set
+     * with the {@code photoapp.thumbnailCache.maxBytes} system property.
+     *
+     * @return the shared ThumbnailCache instance
+     */
+    public static ThumbnailCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Retrieves a thumbnail of the given photo scaled to fit the requested size,
+     * decoding its file only if no entry is cached for the recorded version.
+     *
+     * @param photo  the photo whose file is shown
+     * @param width  the thumbnail width in pixels
+     * @param height the thumbnail height in pixels
+     * @return an ImageIcon of the scaled image
+     */
+    public ImageIcon getThumbnail(Photo photo, int width, int height) {
+        Key key = new Key(photo, width, height);
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hitCount++;
+                return entry.icon;
+            }
+            missCount++;
+        }
+
+        // Decode outside the lock so other cells can still be served from the cache
+        BufferedImage image = load(new File(key.filePath), key);
+        ImageIcon icon = new ImageIcon(image);
+        put(key, new Entry(icon, (long) image.getWidth() * image.getHeight() * 4));
+        return icon;
+    }
+
+    /**
+     * Retrieves a cached thumbnail without decoding the file on a miss.
+     *
+     * @param photo  the photo whose file is shown
+     * @param width  the thumbnail width in pixels
+     * @param height the thumbnail height in pixels
+     * @return the cached ImageIcon, or null if no entry is cached for the recorded version
+     */
+    public ImageIcon getIfPresent(Photo photo, int width, int height) {
+        Key key = new Key(photo, width, height);
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            hitCount++;
+            return entry.icon;
+        }
+    }
+
+    /**
+     * Removes every cached rendition of the given file.
+     *
+     * @param filePath the path to the image file
+     */
+    public void invalidate(String filePath) {
+        PreviewStore store = previewStore;
+        if (store != null) {
+            store.remove(filePath);
+        }
+        invalidateMemory(Set.of(filePath));
+    }
+
+    /**
+     * Removes every cached rendition of the given files in one pass over the cache.
+     * Blocks on the preview store, so call it off the Event Dispatch Thread.
+     *
+     * @param filePaths the paths to the image files
+     */
+    public void invalidate(Collection<String> filePaths) {
+        Set<String> paths = new HashSet<>(filePaths);
+        PreviewStore store = previewStore;
+        if (store != null) {
+            store.remove(paths);
+        }
+        invalidateMemory(paths);
+    }
+
+    /**
+     * Removes the in-memory entries of the given files.
+     */
+    private synchronized void invalidateMemory(Set<String> filePaths) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            if (filePaths.contains(e.getKey().filePath)) {
+                currentBytes -= e.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Attaches a persistent store used as a second cache level, or detaches it.
+     *
+     * @param previewStore the PreviewStore to use, or null for none
+     */
+    public void setPreviewStore(PreviewStore previewStore) {
+        this.previewStore = previewStore;
+    }
+
+    /**
+     * Removes all entries from the cache. Counters are left untouched.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    /**
+     * Changes the byte budget, evicting entries immediately if the cache is over it.
+     *
+     * @param maxBytes the maximum number of pixel bytes to retain
+     * @throws IllegalArgumentException if maxBytes is negative
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        evictIfNeeded();
+    }
+
+    /**
+     * Retrieves the configured byte budget.
+     *
+     * @return the maximum number of pixel bytes retained
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Retrieves the number of pixel bytes currently held by the cache.
+     *
+     * @return the current size of the cache in bytes
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * Retrieves the number of lookups answered from the cache.
+     *
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Retrieves the number of lookups that required decoding the file.
+     *
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Retrieves the share of lookups answered from the cache.
+     *
+     * @return the hit rate, from 0 to 1, or 0 before the first lookup
+     */
+    public synchronized double getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * Retrieves the number of entries evicted to stay within the byte budget.
+     *
+     * @return the eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Stores a decoded entry and evicts older entries if the budget is exceeded.
+     */
+    private synchronized void put(Key key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            currentBytes -= previous.bytes; // Another thread decoded the same key
+        }
+        currentBytes += entry.bytes;
+        evictIfNeeded();
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits its budget.
+     */
+    private void evictIfNeeded() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            currentBytes -= it.next().bytes;
+            it.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Loads a rendition from the preview store, or decodes the original and
+     * records the result in the store.
+     */
+    private BufferedImage load(File file, Key key) {
+        PreviewStore store = previewStore;
+        if (store == null) {
+            return decode(file, key.width, key.height);
+        }
+
+        BufferedImage image = store.get(key.filePath, key.width, key.height, key.fileSize, key.lastModified);
+        if (image != null) {
+            PREVIEW_HITS.increment();
+        } else {
+            PREVIEW_MISSES.increment();
+            image = decode(file, key.width, key.height);
+            if (key.lastModified != 0) { // Zero means the version of the file is unknown
+                try {
+                    store.put(key.filePath, key.width, key.height, key.fileSize, key.lastModified, image);
+                } catch (IOException e) {
+                    // The preview stays in memory; it will be stored on a later miss
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Decodes the image file scaled to fit the requested box. Files that cannot be
+     * decoded yield a blank image of the box size so the layout stays stable.
+     */
+    private static BufferedImage decode(File file, int width, int height) {
+        try {
+            return ThumbnailDecoder.decode(file, width, height);
+        } catch (IOException e) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+    }
+
+    /**
+     * Identifies a rendition of the version of a file recorded for a photo.
+     */
+    private static final class Key {
+        private final String filePath;
+        private final int width;
+        private final int height;
+        private final long fileSize;
+        private final long lastModified;
+
+        Key(Photo photo, int width, int height) {
+            this.filePath = photo.getFilePath();
+            this.width = width;
+            this.height = height;
+            this.fileSize = photo.getFileSize();
+            this.lastModified = photo.getLastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height
+                    && fileSize == other.fileSize && lastModified == other.lastModified
+                    && filePath.equals(other.filePath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filePath, width, height, fileSize, lastModified);
+        }
+    }
+
+    /**
+     * A cached rendition together with its accounted size.
+     */
+    private static final class Entry {
+        private final ImageIcon icon;
+        private final long bytes;
+
+        Entry(ImageIcon icon, long bytes) {
+            this.icon = icon;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * ThumbnailCacheMBean is the management interface of a ThumbnailCache, through
+ * which JMX consoles can watch its hit rate and change its budget.
+ */
+public interface ThumbnailCacheMBean {
+
+    /**
+     * Retrieves the configured byte budget.
+     *
+     * @return the maximum number of pixel bytes retained
+     */
+    long getMaxBytes();
+
+    /**
+     * Changes the byte budget, evicting entries immediately if the cache is over it.
+     *
+     * @param maxBytes the maximum number of pixel bytes to retain
+     */
+    void setMaxBytes(long maxBytes);
+
+    /**
+     * Retrieves the number of pixel bytes currently held by the cache.
+     *
+     * @return the current size of the cache in bytes
+     */
+    long getCurrentBytes();
+
+    /**
+     * Retrieves the number of lookups answered from the cache.
+     *
+     * @return the hit count
+     */
+    long getHitCount();
+
+    /**
+     * Retrieves the number of lookups that required decoding the file.
+     *
+     * @return the miss count
+     */
+    long getMissCount();
+
+    /**
+     * Retrieves the share of lookups answered from the cache.
+     *
+     * @return the hit rate, from 0 to 1
+     */
+    double getHitRate();
+
+    /**
+     * Retrieves the number of entries evicted to stay within the byte budget.
+     *
+     * @return the eviction count
+     */
+    long getEvictionCount();
+
+    /**
+     * Removes all entries from the cache.
+     */
+    void clear();
+}
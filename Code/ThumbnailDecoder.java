@@ -0,0 +1,187 @@
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * ThumbnailDecoder produces downscaled renditions of image files without decoding
+ * their full pixel grid. The image dimensions are read from the file header, the
+ * pixels are decoded at reduced resolution using ImageIO source subsampling, and
+ * the result is brought down to the target box with a few fast bilinear steps.
+ * The aspect ratio of the original image is always preserved.
+ */
+public final class ThumbnailDecoder {
+    private static final LatencyHistogram DECODE_TIME = Metrics.getShared().histogram("imageDecode");
+    private static final LatencyHistogram SCALE_TIME = Metrics.getShared().histogram("thumbnailScale");
+    private static final LatencyHistogram REGION_DECODE_TIME = Metrics.getShared().histogram("regionDecode");
+
+    private ThumbnailDecoder() {
+        // Static utility class
+    }
+
+    /**
+     * Reads the pixel dimensions of an image from its header only.
+     *
+     * @param file the image file
+     * @return the width and height of the image
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static Dimension readDimensions(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = openReader(file, in);
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes an image scaled to fit within the given box, preserving its aspect ratio.
+     * Images smaller than the box are returned at their original size.
+     *
+     * @param file      the image file
+     * @param maxWidth  the maximum width of the result in pixels
+     * @param maxHeight the maximum height of the result in pixels
+     * @return the decoded and scaled image
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static BufferedImage decode(File file, int maxWidth, int maxHeight) throws IOException {
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            throw new IllegalArgumentException("Invalid thumbnail size: " + maxWidth + "x" + maxHeight);
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = openReader(file, in);
+            try {
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                Dimension target = fit(width, height, maxWidth, maxHeight);
+
+                // Skip whole source pixels while staying at or above the target size
+                int subsampling = Math.max(1, Math.min(width / target.width, height / target.height));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                long start = System.nanoTime();
+                BufferedImage image = reader.read(0, param);
+                DECODE_TIME.recordSince(start);
+                return scale(image, target.width, target.height);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes part of an image at reduced resolution, keeping one pixel in every
+     * {@code subsampling} pixels of the region in each direction. Only the pixels of
+     * the result are held in memory, however large the image.
+     *
+     * @param file        the image file
+     * @param region      the part of the image to decode, in image pixels
+     * @param subsampling the distance between decoded pixels, 1 for full resolution
+     * @return the decoded region, {@code ceil(region size / subsampling)} pixels in size
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static BufferedImage decodeRegion(File file, Rectangle region, int subsampling) throws IOException {
+        if (subsampling < 1) {
+            throw new IllegalArgumentException("Invalid subsampling: " + subsampling);
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = openReader(file, in);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                long start = System.nanoTime();
+                BufferedImage image = reader.read(0, param);
+                REGION_DECODE_TIME.recordSince(start);
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Computes the largest size with the given aspect ratio that fits in the box.
+     *
+     * @param width     the source width
+     * @param height    the source height
+     * @param maxWidth  the width of the box
+     * @param maxHeight the height of the box
+     * @return the fitted dimensions, never larger than the source
+     */
+    public static Dimension fit(int width, int height, int maxWidth, int maxHeight) {
+        double scale = Math.min(1.0, Math.min((double) maxWidth / width, (double) maxHeight / height));
+        return new Dimension(Math.max(1, (int) Math.round(width * scale)),
+                Math.max(1, (int) Math.round(height * scale)));
+    }
+
+    /**
+     * Downscales an image in halving bilinear steps, which approaches the quality of
+     * area averaging at a fraction of its cost.
+     *
+     * @param image  the source image
+     * @param width  the target width
+     * @param height the target height
+     * @return the scaled image
+     */
+    static BufferedImage scale(BufferedImage image, int width, int height) {
+        if (image.getWidth() == width && image.getHeight() == height) {
+            return image;
+        }
+        long start = System.nanoTime();
+        int type = image.getTransparency() == Transparency.OPAQUE
+                ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            if (currentWidth < width * 2 && currentHeight < height * 2) {
+                currentWidth = width; // Close enough to finish in one step
+                currentHeight = height;
+            }
+
+            BufferedImage step = new BufferedImage(currentWidth, currentHeight, type);
+            Graphics2D g = step.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            g.dispose();
+            current = step;
+        } while (currentWidth != width || currentHeight != height);
+
+        SCALE_TIME.recordSince(start);
+        return current;
+    }
+
+    /**
+     * Finds an ImageIO reader for the stream and attaches it.
+     */
+    private static ImageReader openReader(File file, ImageInputStream in) throws IOException {
+        if (in == null) {
+            throw new IOException("Cannot open image file: " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format: " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true); // Forward-only, metadata ignored
+        return reader;
+    }
+}
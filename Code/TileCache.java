@@ -0,0 +1,147 @@
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * TileCache is a size-bounded cache of decoded image tiles. A tile is one square
+ * of an image's tile grid at a subsampling level, and is keyed by the file path,
+ * the file's length and last-modified time, the level, and its column and row,
+ * so tiles of an edited file are never served. When the byte budget is exceeded,
+ * the least recently used tiles are evicted first.
+ *
+ * <p>The cache may be used from several threads.
+ */
+public final class TileCache {
+    /** Default byte budget used when none is configured. */
+    public static final long DEFAULT_MAX_BYTES = 96L * 1024 * 1024;
+
+    private final LinkedHashMap<Key, BufferedImage> tiles; // Access-ordered for LRU eviction
+    private final long maxBytes;
+    private long currentBytes;
+
+    /**
+     * Constructs an empty cache with the given byte budget.
+     *
+     * @param maxBytes the maximum number of pixel bytes to retain
+     * @throws IllegalArgumentException if maxBytes is negative
+     */
+    public TileCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.tiles = new LinkedHashMap<>(256, 0.75f, true);
+    }
+
+    /**
+     * Retrieves a cached tile.
+     *
+     * @param filePath     the path to the image file
+     * @param fileSize     the size of the file the tile was decoded from
+     * @param lastModified the last-modified time of the file the tile was decoded from
+     * @param level        the subsampling level, where level n keeps one pixel in 2^n
+     * @param column       the column of the tile in the level's grid
+     * @param row          the row of the tile in the level's grid
+     * @return the tile, or null if it is not cached
+     */
+    public synchronized BufferedImage get(String filePath, long fileSize, long lastModified, int level,
+                                          int column, int row) {
+        return tiles.get(new Key(filePath, fileSize, lastModified, level, column, row));
+    }
+
+    /**
+     * Stores a tile and evicts older tiles if the budget is exceeded.
+     *
+     * @param filePath     the path to the image file
+     * @param fileSize     the size of the file the tile was decoded from
+     * @param lastModified the last-modified time of the file the tile was decoded from
+     * @param level        the subsampling level, where level n keeps one pixel in 2^n
+     * @param column       the column of the tile in the level's grid
+     * @param row          the row of the tile in the level's grid
+     * @param tile         the decoded tile
+     */
+    public synchronized void put(String filePath, long fileSize, long lastModified, int level, int column, int row,
+                                 BufferedImage tile) {
+        BufferedImage previous = tiles.put(new Key(filePath, fileSize, lastModified, level, column, row), tile);
+        if (previous != null) {
+            currentBytes -= bytes(previous);
+        }
+        currentBytes += bytes(tile);
+        Iterator<BufferedImage> it = tiles.values().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            currentBytes -= bytes(it.next());
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes every cached tile of the given file.
+     *
+     * @param filePath the path to the image file
+     */
+    public synchronized void invalidate(String filePath) {
+        Iterator<Map.Entry<Key, BufferedImage>> it = tiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, BufferedImage> entry = it.next();
+            if (entry.getKey().filePath.equals(filePath)) {
+                currentBytes -= bytes(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of pixel bytes currently held by the cache.
+     *
+     * @return the current size of the cache in bytes
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    private static long bytes(BufferedImage tile) {
+        return (long) tile.getWidth() * tile.getHeight() * 4;
+    }
+
+    /**
+     * Identifies a tile of a specific version of a file.
+     */
+    private static final class Key {
+        private final String filePath;
+        private final long fileSize;
+        private final long lastModified;
+        private final int level;
+        private final int column;
+        private final int row;
+
+        Key(String filePath, long fileSize, long lastModified, int level, int column, int row) {
+            this.filePath = filePath;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return level == other.level && column == other.column && row == other.row
+                    && fileSize == other.fileSize && lastModified == other.lastModified
+                    && filePath.equals(other.filePath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filePath, level, column, row);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+import benchmarks.Workload;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Adds a new photo to an album and removes it again.
+ */
+public class AddRemoveWorkload implements Workload {
+    private PhotoAlbumModel model;
+    private final Date date = new Date();
+    private int next; // Number of the next photo, so that every path is new
+
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        model = BenchmarkAlbums.newAlbum(parameters);
+    }
+
+    @Override
+    public Object run() {
+        Photo photo = new Photo("added", "/benchmark/added/" + next++ + ".jpg", date, 1_000_000);
+        model.addPhoto(photo);
+        model.removePhoto(photo);
+        return model.getPhotoCount();
+    }
+}
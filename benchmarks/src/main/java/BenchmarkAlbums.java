@@ -0,0 +1,79 @@
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * BenchmarkAlbums generates the photos and albums the benchmark workloads run on.
+ * The photos refer to files that do not exist, which the model never reads.
+ */
+final class BenchmarkAlbums {
+    private static final long SEED = 42;
+
+    private BenchmarkAlbums() {
+    }
+
+    /**
+     * Generates photos with random names, dates and sizes, in a repeatable order.
+     *
+     * @param count the number of photos
+     * @return the photos
+     */
+    static List<Photo> generatePhotos(int count) {
+        Random random = new Random(SEED);
+        long now = System.currentTimeMillis();
+        List<Photo> photos = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = "IMG_" + random.nextInt(1_000_000);
+            Date date = new Date(now - random.nextInt(5 * 365) * 86_400_000L - random.nextInt(86_400_000));
+            photos.add(new Photo(name, "/benchmark/photos/" + i + ".jpg", date, 100_000 + random.nextInt(20_000_000)));
+        }
+        return photos;
+    }
+
+    /**
+     * Creates an album from the size, storage and order benchmark parameters.
+     *
+     * @param parameters the parameters; storage and order are optional
+     * @return the album, holding size generated photos
+     */
+    static PhotoAlbumModel newAlbum(Map<String, String> parameters) {
+        PhotoAlbumModel model = new PhotoAlbumModel("columnar".equals(parameters.get("storage")));
+        model.addPhotos(generatePhotos(Integer.parseInt(parameters.get("size"))));
+        if ("date".equals(parameters.get("order"))) {
+            model.sortPhotosByDate();
+        }
+        return model;
+    }
+
+    /**
+     * Writes a synthetic JPEG with the resolution given as WIDTHxHEIGHT.
+     *
+     * @param resolution the resolution, such as 1920x1080
+     * @return the temporary file, deleted when the JVM exits
+     * @throws IOException if the file cannot be written
+     */
+    static File generateImage(String resolution) throws IOException {
+        String[] dimensions = resolution.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.BLUE, width, height, Color.ORANGE));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+
+        File file = File.createTempFile("thumbnail-benchmark", ".jpg");
+        file.deleteOnExit();
+        ImageIO.write(image, "jpg", file);
+        return file;
+    }
+}
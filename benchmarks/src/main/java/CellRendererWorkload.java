@@ -0,0 +1,61 @@
+import benchmarks.Workload;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import javax.swing.JList;
+
+/**
+ * Renders rows of a photo list whose thumbnails are cached, one row per call,
+ * selecting every fourth row, and paints them into an image. Each row refers to
+ * its own link to the generated image, as rows of an album refer to their own files.
+ */
+public class CellRendererWorkload implements Workload {
+    private static final int ROWS = 16; // About a screenful
+
+    private PhotoCellRenderer renderer;
+    private JList<Photo> list;
+    private Photo[] photos;
+    private Graphics2D graphics;
+    private int next;
+
+    @Override
+    public void setUp(Map<String, String> parameters) throws IOException {
+        File image = BenchmarkAlbums.generateImage(parameters.get("resolution"));
+        List<Photo> generated = BenchmarkAlbums.generatePhotos(ROWS);
+        photos = new Photo[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            Photo photo = generated.get(i);
+            File link = new File(image.getPath() + "." + i + ".jpg");
+            Files.deleteIfExists(link.toPath());
+            Files.createLink(link.toPath(), image.toPath());
+            link.deleteOnExit();
+            photos[i] = new Photo(photo.getName(), link.getPath(), new Date(), photo.getFileSize());
+            // Rows are measured with warm thumbnails
+            ThumbnailCache.getShared().getThumbnail(photos[i], PhotoCellRenderer.THUMBNAIL_SIZE,
+                    PhotoCellRenderer.THUMBNAIL_SIZE);
+        }
+        PhotoListModel listModel = new PhotoListModel();
+        listModel.setPhotos(List.of(photos));
+        list = new JList<>(listModel);
+        renderer = new PhotoCellRenderer(new ListThumbnailLoader(list, ThumbnailCache.getShared(),
+                PhotoCellRenderer.THUMBNAIL_SIZE, 1));
+        Dimension cellSize = renderer.getCellSize(list);
+        renderer.setSize(cellSize);
+        graphics = new BufferedImage(cellSize.width, cellSize.height, BufferedImage.TYPE_INT_RGB).createGraphics();
+    }
+
+    @Override
+    public Object run() {
+        int row = next++ & (ROWS - 1);
+        Component component = renderer.getListCellRendererComponent(list, photos[row], row, row % 4 == 0, false);
+        component.paint(graphics);
+        return component;
+    }
+}
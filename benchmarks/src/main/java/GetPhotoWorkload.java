@@ -0,0 +1,28 @@
+import benchmarks.Workload;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Reads photos from an album at random positions.
+ */
+public class GetPhotoWorkload implements Workload {
+    private static final int POSITIONS = 1 << 16;
+
+    private PhotoAlbumModel model;
+    private final int[] positions = new int[POSITIONS]; // Drawn in advance so that drawing is not measured
+    private int next;
+
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        model = BenchmarkAlbums.newAlbum(parameters);
+        Random random = new Random(7);
+        for (int i = 0; i < POSITIONS; i++) {
+            positions[i] = random.nextInt(model.getPhotoCount());
+        }
+    }
+
+    @Override
+    public Object run() {
+        return model.getPhotoAt(positions[next++ & (POSITIONS - 1)]);
+    }
+}
@@ -0,0 +1,24 @@
+import benchmarks.Workload;
+import java.util.Map;
+
+/**
+ * Walks an album from its first photo to its last with AlbumIteratorImpl.
+ */
+public class IteratorWorkload implements Workload {
+    private PhotoAlbumModel model;
+
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        model = BenchmarkAlbums.newAlbum(parameters);
+    }
+
+    @Override
+    public Object run() {
+        PhotoAlbumModel.AlbumIteratorImpl iterator = model.new AlbumIteratorImpl();
+        Photo last = null;
+        while (iterator.hasNext()) {
+            last = iterator.next();
+        }
+        return last;
+    }
+}
@@ -0,0 +1,126 @@
+import benchmarks.Workload;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Changes a LongSequence right after freezing it, which is what every commit to
+ * the album does to its indexes. Before the trial, the sequence is checked
+ * against a TreeSet under random inserts, removals and freezes, in both orders,
+ * and the trial fails if they ever disagree.
+ */
+public class LongSequenceWorkload implements Workload {
+    private static final int KEY_RANGE = 100_000; // Keys of the checked sequences, so that they collide
+    private static final int CHECK_ROUNDS = 20;
+    private static final int CHECK_STEPS = 3000;
+
+    private final Random random = new Random(42);
+    private LongSequence sequence;
+
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        for (int round = 0; round < CHECK_ROUNDS; round++) {
+            check(round);
+        }
+        int size = Integer.parseInt(parameters.get("size"));
+        long[] entries = new long[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = i * 2L; // Even entries, so that odd ones can be inserted
+        }
+        sequence = LongSequence.fromSorted(null, entries, size);
+    }
+
+    @Override
+    public Object run() {
+        LongSequence published = sequence.freeze();
+        long entry = random.nextInt(published.size()) * 2L + 1;
+        sequence.insert(entry);
+        sequence.remove(entry);
+        return published;
+    }
+
+    /**
+     * Runs one round of random operations on a sequence and a TreeSet side by side,
+     * comparing them as it goes and comparing every frozen copy at the end.
+     */
+    private static void check(int round) {
+        Random random = new Random(round);
+        LongSequence.Order order = round % 2 == 0 ? null : (a, b) -> Long.compare(b, a);
+        Comparator<Long> comparator = round % 2 == 0 ? Comparator.naturalOrder() : Comparator.reverseOrder();
+        TreeSet<Long> expected = new TreeSet<>(comparator);
+        LongSequence sequence = new LongSequence(order);
+        List<LongSequence> frozen = new ArrayList<>();
+        List<List<Long>> frozenExpected = new ArrayList<>();
+        for (int step = 0; step < CHECK_STEPS; step++) {
+            int kind = random.nextInt(10);
+            if (kind < 4) {
+                long entry = random.nextInt(KEY_RANGE);
+                if (expected.add(entry)) {
+                    require(sequence.insert(entry) == expected.headSet(entry).size(), "insert position", round);
+                }
+            } else if (kind < 6 && !expected.isEmpty()) {
+                int position = random.nextInt(expected.size());
+                long entry = new ArrayList<>(expected).get(position);
+                expected.remove(entry);
+                require(sequence.removeAt(position) == entry, "removeAt", round);
+            } else if (kind < 7) {
+                TreeSet<Long> added = new TreeSet<>(expected.comparator());
+                for (int i = random.nextInt(CHECK_STEPS); i > 0; i--) {
+                    long entry = random.nextInt(KEY_RANGE);
+                    if (!expected.contains(entry)) {
+                        added.add(entry);
+                    }
+                }
+                expected.addAll(added);
+                sequence.insertAll(toArray(added), added.size());
+            } else if (kind < 8 && !expected.isEmpty()) {
+                TreeSet<Long> removed = new TreeSet<>(expected.comparator());
+                List<Long> present = new ArrayList<>(expected);
+                for (int i = random.nextInt(present.size() + 1); i > 0; i--) {
+                    removed.add(present.get(random.nextInt(present.size())));
+                }
+                removed.add(-1L); // Absent entries are skipped
+                expected.removeAll(removed);
+                sequence.removeAll(toArray(removed), removed.size());
+            } else {
+                frozen.add(sequence.freeze());
+                frozenExpected.add(new ArrayList<>(expected));
+            }
+            if (step % 97 == 0) {
+                compare(sequence, new ArrayList<>(expected), round);
+                for (long entry = 0; entry < KEY_RANGE; entry += 997) {
+                    require(sequence.lowerBound(entry) == expected.headSet(entry).size(), "lowerBound", round);
+                    require(sequence.indexOf(entry) >= 0 == expected.contains(entry), "indexOf", round);
+                }
+            }
+        }
+        compare(sequence, new ArrayList<>(expected), round);
+        for (int i = 0; i < frozen.size(); i++) {
+            compare(frozen.get(i), frozenExpected.get(i), round); // Unchanged by everything done after freezing
+        }
+    }
+
+    /**
+     * Checks that a sequence holds exactly the expected entries, in order.
+     */
+    private static void compare(LongSequence sequence, List<Long> expected, int round) {
+        require(sequence.size() == expected.size(), "size", round);
+        long[] entries = sequence.toArray();
+        for (int i = 0; i < expected.size(); i++) {
+            require(sequence.get(i) == expected.get(i) && entries[i] == expected.get(i), "entry " + i, round);
+        }
+    }
+
+    private static long[] toArray(TreeSet<Long> entries) {
+        return entries.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static void require(boolean condition, String what, int round) {
+        if (!condition) {
+            throw new IllegalStateException("LongSequence disagrees with TreeSet on " + what + " in round " + round);
+        }
+    }
+}
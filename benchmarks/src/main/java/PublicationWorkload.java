@@ -0,0 +1,120 @@
+import benchmarks.Workload;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Reads a random photo from the latest snapshot while another thread keeps adding,
+ * removing and sorting photos, which measures the lock-free read path under
+ * writes. Every read checks that versions never go backwards, and after the
+ * trial the final snapshot is checked against the model, so the trial fails if
+ * a reader ever saw a change half made.
+ */
+public class PublicationWorkload implements Workload {
+    private static final int BATCH_SIZE = 50;
+
+    private final Random random = new Random(42);
+    private PhotoAlbumModel model;
+    private Thread writer;
+    private volatile boolean stopped;
+    private volatile Throwable writerFailure;
+    private long lastVersion;
+    private String violation; // First inconsistency a read saw, or null
+
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        model = BenchmarkAlbums.newAlbum(parameters);
+        int size = model.getPhotoCount();
+        writer = new Thread(() -> {
+            try {
+                write(size);
+            } catch (Throwable e) {
+                writerFailure = e;
+            }
+        }, "publication-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public Object run() {
+        AlbumSnapshot snapshot = model.getSnapshot();
+        if (snapshot.getVersion() < lastVersion && violation == null) {
+            violation = "version " + snapshot.getVersion() + " read after " + lastVersion;
+        }
+        lastVersion = snapshot.getVersion();
+        Photo photo = snapshot.get(random.nextInt(snapshot.size()));
+        if (photo == null && violation == null) {
+            violation = "a null photo in version " + snapshot.getVersion();
+        }
+        return photo;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        stopped = true;
+        writer.join();
+        if (writerFailure != null) {
+            throw new IllegalStateException("The writer failed", writerFailure);
+        }
+        if (violation != null) {
+            throw new IllegalStateException("A reader saw " + violation);
+        }
+        AlbumSnapshot snapshot = model.getSnapshot();
+        List<Photo> photos = model.getAllPhotos();
+        Set<String> paths = new HashSet<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            String path = snapshot.get(i).getFilePath();
+            if (!paths.add(path) || i >= photos.size() || !photos.get(i).getFilePath().equals(path)) {
+                throw new IllegalStateException("The final snapshot does not match the album at " + i);
+            }
+        }
+        if (photos.size() != snapshot.size()) {
+            throw new IllegalStateException("The final snapshot holds " + snapshot.size() + " photos, the album "
+                    + photos.size());
+        }
+    }
+
+    /**
+     * Keeps the album near its initial size by adding and removing batches of
+     * photos, and switches its order every few batches.
+     */
+    private void write(int size) {
+        Random random = new Random(7);
+        int next = 0;
+        for (int round = 0; !stopped; round++) {
+            AlbumSnapshot snapshot = model.getSnapshot();
+            if (snapshot.size() <= size) {
+                List<Photo> added = new ArrayList<>(BATCH_SIZE);
+                for (int i = 0; i < BATCH_SIZE; i++, next++) {
+                    added.add(new Photo("written", "/benchmark/written/" + next + ".jpg",
+                            new Date(random.nextInt(1 << 30) * 1000L), random.nextInt(1 << 24)));
+                }
+                model.addPhotos(added);
+            } else {
+                List<Photo> removed = new ArrayList<>(BATCH_SIZE);
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    removed.add(snapshot.get(random.nextInt(snapshot.size())));
+                }
+                model.removePhotos(removed);
+            }
+            switch (round % 24) {
+                case 0:
+                    model.sortPhotosByName();
+                    break;
+                case 8:
+                    model.sortPhotosByDate();
+                    break;
+                case 16:
+                    model.sortPhotosBySize();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+import benchmarks.Workload;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorts a copy of an unsorted list of photos with one of the sorting strategies.
+ */
+public class SortWorkload implements Workload {
+    private List<Photo> photos;
+    private SortingStrategy strategy;
+
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        photos = BenchmarkAlbums.generatePhotos(Integer.parseInt(parameters.get("size")));
+        switch (parameters.get("strategy")) {
+            case "name":
+                strategy = new SortByName();
+                break;
+            case "date":
+                strategy = new SortByDate();
+                break;
+            case "size":
+                strategy = new SortBySize();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown strategy: " + parameters.get("strategy"));
+        }
+    }
+
+    @Override
+    public Object run() {
+        return strategy.sort(new ArrayList<>(photos));
+    }
+}
@@ -0,0 +1,29 @@
+import benchmarks.Workload;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Retrieves the thumbnail of a photo, either from the shared cache or, with the
+ * cache entry dropped first, by decoding the file.
+ */
+public class ThumbnailWorkload implements Workload {
+    private Photo photo;
+    private boolean cached;
+
+    @Override
+    public void setUp(Map<String, String> parameters) throws IOException {
+        photo = new Photo("thumbnail", BenchmarkAlbums.generateImage(parameters.get("resolution")).getPath(),
+                new Date(), 0);
+        cached = Boolean.parseBoolean(parameters.get("cached"));
+        photo.getThumbnail(); // Fills the cache for the cached variant
+    }
+
+    @Override
+    public Object run() {
+        if (!cached) {
+            ThumbnailCache.getShared().invalidate(photo.getFilePath());
+        }
+        return photo.getThumbnail();
+    }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CellRendererBenchmark measures PhotoCellRenderer preparing and painting a row,
+ * headless, for photos whose thumbnails are already cached, which is the cost
+ * paid for every visible row on every repaint of the list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class CellRendererBenchmark {
+    @Param({"640x480", "6000x4000"})
+    public String resolution;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("CellRendererWorkload", Map.of("resolution", resolution));
+    }
+
+    /**
+     * Renders and paints the next row of the list.
+     *
+     * @return the component that paints the row
+     */
+    @Benchmark
+    public Object render() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * IteratorBenchmark measures a full traversal of the album with AlbumIteratorImpl.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class IteratorBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"list", "columnar"})
+    public String storage;
+
+    @Param({"insertion", "date"})
+    public String order;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("IteratorWorkload",
+                Map.of("size", String.valueOf(size), "storage", storage, "order", order));
+    }
+
+    /**
+     * Visits every photo from first to last.
+     *
+     * @return the last photo
+     */
+    @Benchmark
+    public Object traverse() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,92 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ModelBenchmark measures adding, removing and reading photos in PhotoAlbumModel
+ * at several album sizes, with list and columnar storage.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class ModelBenchmark {
+
+    /**
+     * An album to which a photo is added and from which it is removed again, so
+     * that the album keeps its size.
+     */
+    @State(Scope.Benchmark)
+    public static class AddRemoveState {
+        @Param({"1000", "100000", "1000000"})
+        public int size;
+
+        @Param({"list", "columnar"})
+        public String storage;
+
+        Workload workload;
+
+        @Setup
+        public void setUp() throws Exception {
+            workload = Workload.load("AddRemoveWorkload", Map.of("size", String.valueOf(size), "storage", storage));
+        }
+    }
+
+    /**
+     * An album read at random positions, in insertion order or sorted by date.
+     */
+    @State(Scope.Benchmark)
+    public static class GetState {
+        @Param({"1000", "100000", "1000000"})
+        public int size;
+
+        @Param({"list", "columnar"})
+        public String storage;
+
+        @Param({"insertion", "date"})
+        public String order;
+
+        Workload workload;
+
+        @Setup
+        public void setUp() throws Exception {
+            workload = Workload.load("GetPhotoWorkload",
+                    Map.of("size", String.valueOf(size), "storage", storage, "order", order));
+        }
+    }
+
+    /**
+     * Adds a new photo to the album and removes it.
+     *
+     * @param state the album
+     * @return the photo count afterwards
+     */
+    @Benchmark
+    public Object addAndRemove(AddRemoveState state) {
+        return state.workload.run();
+    }
+
+    /**
+     * Reads the photo at a random position.
+     *
+     * @param state the album
+     * @return the photo
+     */
+    @Benchmark
+    public Object getPhotoAt(GetState state) {
+        return state.workload.run();
+    }
+}
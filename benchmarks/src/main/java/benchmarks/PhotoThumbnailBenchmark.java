@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PhotoThumbnailBenchmark measures Photo.getThumbnail on generated JPEGs of
+ * several resolutions, both served from the cache and decoded afresh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class PhotoThumbnailBenchmark {
+    @Param({"640x480", "1920x1080", "6000x4000"})
+    public String resolution;
+
+    @Param({"true", "false"})
+    public String cached;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("ThumbnailWorkload", Map.of("resolution", resolution, "cached", cached));
+    }
+
+    /**
+     * Retrieves the thumbnail of the photo.
+     *
+     * @return the thumbnail icon
+     */
+    @Benchmark
+    public Object getThumbnail() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SortBenchmark measures each SortingStrategy on a shuffled copy of an album.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class SortBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"name", "date", "size"})
+    public String strategy;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("SortWorkload", Map.of("size", String.valueOf(size), "strategy", strategy));
+    }
+
+    /**
+     * Sorts a fresh copy of the unsorted photos.
+     *
+     * @return the sorted list
+     */
+    @Benchmark
+    public Object sort() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,92 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StateBenchmark measures how the album publishes its indexes: changing a
+ * LongSequence just after freezing it, and reading the album while another
+ * thread changes it. Both workloads also check their results, so a trial fails
+ * if the sequence disagrees with a TreeSet or a reader sees a change half made.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class StateBenchmark {
+
+    /**
+     * A sequence that is frozen before every change.
+     */
+    @State(Scope.Benchmark)
+    public static class SequenceState {
+        @Param({"1000", "100000", "1000000"})
+        public int size;
+
+        Workload workload;
+
+        @Setup
+        public void setUp() throws Exception {
+            workload = Workload.load("LongSequenceWorkload", Map.of("size", String.valueOf(size)));
+        }
+    }
+
+    /**
+     * An album that a background thread keeps changing.
+     */
+    @State(Scope.Benchmark)
+    public static class PublicationState {
+        @Param({"1000", "100000"})
+        public int size;
+
+        @Param({"list", "columnar"})
+        public String storage;
+
+        Workload workload;
+
+        @Setup
+        public void setUp() throws Exception {
+            workload = Workload.load("PublicationWorkload", Map.of("size", String.valueOf(size), "storage", storage));
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            workload.tearDown();
+        }
+    }
+
+    /**
+     * Freezes the sequence, then inserts and removes an entry.
+     *
+     * @param state the sequence
+     * @return the frozen copy
+     */
+    @Benchmark
+    public Object changeAfterFreeze(SequenceState state) {
+        return state.workload.run();
+    }
+
+    /**
+     * Reads a random photo from the latest snapshot while the album changes.
+     *
+     * @param state the album
+     * @return the photo
+     */
+    @Benchmark
+    public Object readWhileWriting(PublicationState state) {
+        return state.workload.run();
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.Map;
+
+/**
+ * Workload is an operation measured by one of the benchmarks. JMH does not accept
+ * benchmarks in the unnamed package, and classes in a named package cannot refer
+ * to the application's classes, which are all in the unnamed package. Each
+ * benchmark therefore loads its workload from the unnamed package by name while
+ * setting up, and calls it through this interface while measuring. The call site
+ * only ever sees one workload class, so the JIT inlines it.
+ */
+public interface Workload {
+
+    /**
+     * Prepares the workload for a trial.
+     *
+     * @param parameters the benchmark parameters by name
+     * @throws Exception if the data cannot be prepared
+     */
+    void setUp(Map<String, String> parameters) throws Exception;
+
+    /**
+     * Performs one operation.
+     *
+     * @return the result of the operation, to be consumed by the benchmark
+     */
+    Object run();
+
+    /**
+     * Releases what the workload holds after a trial and checks what it could
+     * only check once the trial is over.
+     *
+     * @throws Exception if the check fails
+     */
+    default void tearDown() throws Exception {
+    }
+
+    /**
+     * Loads a workload class from the unnamed package and prepares it.
+     *
+     * @param className  the name of the class implementing Workload
+     * @param parameters the benchmark parameters by name
+     * @return the prepared workload
+     * @throws Exception if the class cannot be loaded or the data cannot be prepared
+     */
+    static Workload load(String className, Map<String, String> parameters) throws Exception {
+        Workload workload = (Workload) Class.forName(className).getDeclaredConstructor().newInstance();
+        workload.setUp(parameters);
+        return workload;
+    }
+}